@@ -0,0 +1,74 @@
+package jmh;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import threadpool.BatchFuture;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * 10000 个极小任务：{@link ExecutorService#invokeAll(java.util.Collection)} 与 {@link BatchFuture#submitAll} 的对比
+ * <p>invokeAll 每个任务都要包装成 FutureTask、入队一次、可能唤醒一个线程；批量提交只入队一个 runner
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class BatchSubmitBenchMark {
+
+    private static final int PARALLELISM = Runtime.getRuntime().availableProcessors();
+
+    private static final int TASKS = 10_000;
+
+    private ExecutorService executor;
+
+    private final List<Callable<Integer>> tasks = new ArrayList<>();
+
+    @Setup
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(PARALLELISM);
+        for (int i = 0; i < TASKS; i++) {
+            int n = i;
+            tasks.add(() -> n + 1);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    @Benchmark
+    public int invokeAll() throws InterruptedException, ExecutionException {
+        int sum = 0;
+        for (Future<Integer> future : executor.invokeAll(tasks)) {
+            sum += future.get();
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public int submitAll() throws InterruptedException, ExecutionException {
+        int sum = 0;
+        for (Integer result : BatchFuture.submitAll(executor, tasks, PARALLELISM).get()) {
+            sum += result;
+        }
+        return sum;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(BatchSubmitBenchMark.class.getSimpleName())
+                .forks(1)
+                .warmupIterations(2)
+                .measurementIterations(3)
+                .output("E:/BatchSubmitBenchmark.log")
+                .build();
+
+        new Runner(opt).run();
+    }
+}
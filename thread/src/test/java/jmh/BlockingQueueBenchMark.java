@@ -0,0 +1,98 @@
+package jmh;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import threadpool.MpmcRingBlockingQueue;
+
+import java.util.concurrent.*;
+
+/**
+ * 有界阻塞队列：{@link ArrayBlockingQueue}、{@link LinkedBlockingQueue} 与 {@link MpmcRingBlockingQueue} 的对比
+ * <ul>
+ *     <li>offerPoll：4 个生产者 offer、4 个消费者 poll，不阻塞，看纯队列的吞吐</li>
+ *     <li>threadPool：作为 4 个线程的 ThreadPoolExecutor 的工作队列，提交 1000 个空任务并等它们执行完，SampleTime 看延迟分布</li>
+ * </ul>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BlockingQueueBenchMark {
+
+    private static final Integer ELEMENT = 1;
+
+    @Param({"ArrayBlockingQueue", "LinkedBlockingQueue", "MpmcRingBlockingQueue"})
+    public String queueType;
+
+    @Param({"1024"})
+    public int capacity;
+
+    private BlockingQueue<Integer> queue;
+
+    private ThreadPoolExecutor executor;
+
+    @Setup
+    public void setUp() {
+        queue = newQueue(queueType, capacity);
+        executor = new ThreadPoolExecutor(4, 4, 0, TimeUnit.MILLISECONDS, newQueue(queueType, capacity),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.prestartAllCoreThreads();
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    @Group("offerPoll")
+    @GroupThreads(4)
+    public boolean offer() {
+        return queue.offer(ELEMENT);
+    }
+
+    @Benchmark
+    @Group("offerPoll")
+    @GroupThreads(4)
+    public Integer poll() {
+        return queue.poll();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void threadPool() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1000);
+        for (int i = 0; i < 1000; i++) {
+            executor.execute(done::countDown);
+        }
+        done.await();
+    }
+
+    private static <E> BlockingQueue<E> newQueue(String queueType, int capacity) {
+        switch (queueType) {
+            case "ArrayBlockingQueue":
+                return new ArrayBlockingQueue<>(capacity);
+            case "LinkedBlockingQueue":
+                return new LinkedBlockingQueue<>(capacity);
+            case "MpmcRingBlockingQueue":
+                return new MpmcRingBlockingQueue<>(capacity);
+            default:
+                throw new IllegalArgumentException(queueType);
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(BlockingQueueBenchMark.class.getSimpleName())
+                .forks(1)
+                .warmupIterations(2)
+                .measurementIterations(3)
+                .output("E:/BlockingQueueBenchmark.log")
+                .build();
+
+        new Runner(opt).run();
+    }
+}
@@ -0,0 +1,82 @@
+package jmh;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import threadpool.CallbackDispatcher;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 一个任务后面跟 10 个轻量回调（Futures.transform）：回调都交给线程池，与 {@link CallbackDispatcher} 按 CHEAP 就地执行的对比
+ * <ul>
+ *     <li>pool：每个回调入一次队、换一次线程，10 次交接</li>
+ *     <li>dispatcher：回调在完成任务的线程里依次执行，0 次交接</li>
+ * </ul>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class CallbackDispatchBenchMark {
+
+    private static final int CALLBACKS = 10;
+
+    @Param({"pool", "dispatcher"})
+    public String callbackExecutor;
+
+    private ListeningExecutorService les;
+
+    private Executor executor;
+
+    private long input;
+
+    @Setup
+    public void setUp() {
+        les = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(4));
+        switch (callbackExecutor) {
+            case "pool":
+                executor = les;
+                break;
+            case "dispatcher":
+                executor = new CallbackDispatcher(les).executor(CallbackDispatcher.Cost.CHEAP);
+                break;
+            default:
+                throw new IllegalArgumentException(callbackExecutor);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        les.shutdown();
+    }
+
+    @Benchmark
+    public long callbacks() throws Exception {
+        long start = input++;
+        ListenableFuture<Long> future = les.submit(() -> start);
+        for (int i = 0; i < CALLBACKS; i++) {
+            future = Futures.transform(future, x -> x * 31 + 7, executor);
+        }
+        return future.get();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(CallbackDispatchBenchMark.class.getSimpleName())
+                .forks(1)
+                .warmupIterations(2)
+                .measurementIterations(3)
+                .output("E:/CallbackDispatchBenchmark.log")
+                .build();
+
+        new Runner(opt).run();
+    }
+}
@@ -0,0 +1,100 @@
+package jmh;
+
+import juc.ConnectionPool;
+import juc.SemaphoreTest;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.sql.Connection;
+import java.sql.SQLTimeoutException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link SemaphoreTest.DBPoolSemaphore} 与 {@link ConnectionPool} 借还连接的吞吐量对比
+ * <p>池容量都是 10，分别用 1/8/64 个线程借还连接
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@BenchmarkMode(Mode.Throughput)
+public class ConnectionPoolBenchMark {
+
+    private static final int POOL_SIZE = 10;
+
+    private SemaphoreTest.DBPoolSemaphore semaphorePool;
+
+    private ConnectionPool connectionPool;
+
+    @Setup
+    public void setUp() {
+        semaphorePool = new SemaphoreTest.DBPoolSemaphore();
+        connectionPool = new ConnectionPool(POOL_SIZE, SemaphoreTest.SqlConnection::fetchConnection);
+    }
+
+    @TearDown
+    public void tearDown() {
+        connectionPool.close();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Connection semaphore_1() throws InterruptedException {
+        return semaphore();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Connection semaphore_8() throws InterruptedException {
+        return semaphore();
+    }
+
+    @Benchmark
+    @Threads(64)
+    public Connection semaphore_64() throws InterruptedException {
+        return semaphore();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Connection connectionPool_1() throws InterruptedException, SQLTimeoutException {
+        return connectionPool();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Connection connectionPool_8() throws InterruptedException, SQLTimeoutException {
+        return connectionPool();
+    }
+
+    @Benchmark
+    @Threads(64)
+    public Connection connectionPool_64() throws InterruptedException, SQLTimeoutException {
+        return connectionPool();
+    }
+
+    private Connection semaphore() throws InterruptedException {
+        Connection connection = semaphorePool.takeConnection();
+        semaphorePool.returnConnection(connection);
+        return connection;
+    }
+
+    private Connection connectionPool() throws InterruptedException, SQLTimeoutException {
+        ConnectionPool.PooledConnection pooled = connectionPool.takeConnection(1, TimeUnit.SECONDS);
+        connectionPool.returnConnection(pooled);
+        return pooled.getConnection();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(ConnectionPoolBenchMark.class.getSimpleName())
+                .forks(1)
+                .warmupIterations(2)
+                .measurementIterations(3)
+                .output("E:/ConnectionPoolBenchmark.log")
+                .build();
+
+        new Runner(opt).run();
+    }
+}
@@ -0,0 +1,95 @@
+package jmh;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import threadfuture.FutureBridge;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 一次转换的开销：创建原 Future、转换、完成原 Future、从转换出来的 Future 取结果
+ * <ul>
+ *     <li>settable、completable：不转换的基线</li>
+ *     <li>toCompletable、toListenable：{@link FutureBridge}，多一个对象、一次回调</li>
+ *     <li>blockingGet：常见的 supplyAsync(() -> future.get())，占一个线程池线程等结果</li>
+ * </ul>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FutureBridgeBenchMark {
+
+    private ExecutorService executor;
+
+    private long input;
+
+    @Setup
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    @Benchmark
+    public Long settable() throws ExecutionException, InterruptedException {
+        SettableFuture<Long> future = SettableFuture.create();
+        future.set(input++);
+        return future.get();
+    }
+
+    @Benchmark
+    public Long completable() {
+        CompletableFuture<Long> future = new CompletableFuture<>();
+        future.complete(input++);
+        return future.join();
+    }
+
+    @Benchmark
+    public Long toCompletable() {
+        SettableFuture<Long> future = SettableFuture.create();
+        CompletableFuture<Long> completable = FutureBridge.toCompletable(future);
+        future.set(input++);
+        return completable.join();
+    }
+
+    @Benchmark
+    public Long toListenable() throws ExecutionException, InterruptedException {
+        CompletableFuture<Long> future = new CompletableFuture<>();
+        ListenableFuture<Long> listenable = FutureBridge.toListenable(future);
+        future.complete(input++);
+        return listenable.get();
+    }
+
+    @Benchmark
+    public Long blockingGet() {
+        SettableFuture<Long> future = SettableFuture.create();
+        CompletableFuture<Long> completable = CompletableFuture.supplyAsync(() -> Futures.getUnchecked(future), executor);
+        future.set(input++);
+        return completable.join();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(FutureBridgeBenchMark.class.getSimpleName())
+                .forks(1)
+                .warmupIterations(2)
+                .measurementIterations(3)
+                .output("E:/FutureBridgeBenchmark.log")
+                .build();
+
+        new Runner(opt).run();
+    }
+}
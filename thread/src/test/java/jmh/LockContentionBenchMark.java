@@ -0,0 +1,96 @@
+package jmh;
+
+import lock.MyReentrantMutex;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * {@link MyReentrantMutex}、{@link ReentrantLock}、synchronized 在竞争下的吞吐量对比
+ * <ul>
+ *     <li>lockType：myNonfair/myFair 是 MyReentrantMutex 的两种模式，jdkNonfair/jdkFair 是 ReentrantLock 的两种模式</li>
+ *     <li>work：临界区内消耗的 CPU（{@link Blackhole#consumeCPU(long)} 的 token 数），0 表示空临界区，竞争最激烈</li>
+ * </ul>
+ * 线程数用 main 里的 threads 控制，分别跑 1/4/16 个线程
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class LockContentionBenchMark {
+
+    @Param({"myNonfair", "myFair", "jdkNonfair", "jdkFair"})
+    public String lockType;
+
+    @Param({"0", "100"})
+    public long work;
+
+    private Lock lock;
+
+    private final Object monitor = new Object();
+
+    private long counter;
+
+    @Setup
+    public void setUp() {
+        switch (lockType) {
+            case "myNonfair":
+                lock = new MyReentrantMutex(false);
+                break;
+            case "myFair":
+                lock = new MyReentrantMutex(true);
+                break;
+            case "jdkNonfair":
+                lock = new ReentrantLock(false);
+                break;
+            case "jdkFair":
+                lock = new ReentrantLock(true);
+                break;
+            default:
+                throw new IllegalArgumentException(lockType);
+        }
+    }
+
+    @Benchmark
+    public long lock() {
+        lock.lock();
+        try {
+            Blackhole.consumeCPU(work);
+            return ++counter;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * synchronized 与 lockType 无关，每种 lockType 下结果应该一致，可以当作基线
+     */
+    @Benchmark
+    public long synchronizedBlock() {
+        synchronized (monitor) {
+            Blackhole.consumeCPU(work);
+            return ++counter;
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        for (int threads : new int[]{1, 4, 16}) {
+            Options opt = new OptionsBuilder()
+                    .include(LockContentionBenchMark.class.getSimpleName())
+                    .forks(1)
+                    .threads(threads)
+                    .warmupIterations(2)
+                    .measurementIterations(3)
+                    .output("E:/LockContentionBenchmark-" + threads + ".log")
+                    .build();
+
+            new Runner(opt).run();
+        }
+    }
+}
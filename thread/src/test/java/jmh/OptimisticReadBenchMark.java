@@ -0,0 +1,130 @@
+package jmh;
+
+import lock.MyOptimisticReadWriteLock;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * 读多写少场景下 {@link MyOptimisticReadWriteLock} 与 JDK 读写锁的吞吐量对比
+ * <ul>
+ *     <li>readPercent：读操作占比，95 表示 95/5 的读写比，50 表示 50/50</li>
+ *     <li>lockType：myOptimistic 先乐观读失败再加读锁；myReadLock 只用读锁；jdkReadWrite 是 ReentrantReadWriteLock；jdkStamped 是 StampedLock 乐观读</li>
+ * </ul>
+ * 线程数用 main 里的 threads 控制，1/2/4/8/16 对应不同核数
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class OptimisticReadBenchMark {
+
+    @Param({"95", "50"})
+    public int readPercent;
+
+    @Param({"myOptimistic", "myReadLock", "jdkReadWrite", "jdkStamped"})
+    public String lockType;
+
+    private final MyOptimisticReadWriteLock myLock = new MyOptimisticReadWriteLock();
+
+    private final ReentrantReadWriteLock jdkReadWriteLock = new ReentrantReadWriteLock();
+
+    private final StampedLock stampedLock = new StampedLock();
+
+    private long x, y;
+
+    @Benchmark
+    public long readOrWrite() {
+        if (ThreadLocalRandom.current().nextInt(100) < readPercent) {
+            return read();
+        }
+        write();
+        return 0;
+    }
+
+    private long read() {
+        switch (lockType) {
+            case "myOptimistic":
+                return myLock.optimisticRead(() -> x + y);
+            case "myReadLock":
+                myLock.readLock().lock();
+                try {
+                    return x + y;
+                } finally {
+                    myLock.readLock().unlock();
+                }
+            case "jdkReadWrite":
+                jdkReadWriteLock.readLock().lock();
+                try {
+                    return x + y;
+                } finally {
+                    jdkReadWriteLock.readLock().unlock();
+                }
+            default:
+                long stamp = stampedLock.tryOptimisticRead();
+                long sum = x + y;
+                if (!stampedLock.validate(stamp)) {
+                    stamp = stampedLock.readLock();
+                    try {
+                        sum = x + y;
+                    } finally {
+                        stampedLock.unlockRead(stamp);
+                    }
+                }
+                return sum;
+        }
+    }
+
+    private void write() {
+        switch (lockType) {
+            case "myOptimistic":
+            case "myReadLock":
+                myLock.writeLock().lock();
+                try {
+                    x++;
+                    y++;
+                } finally {
+                    myLock.writeLock().unlock();
+                }
+                break;
+            case "jdkReadWrite":
+                jdkReadWriteLock.writeLock().lock();
+                try {
+                    x++;
+                    y++;
+                } finally {
+                    jdkReadWriteLock.writeLock().unlock();
+                }
+                break;
+            default:
+                long stamp = stampedLock.writeLock();
+                try {
+                    x++;
+                    y++;
+                } finally {
+                    stampedLock.unlockWrite(stamp);
+                }
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        for (int threads : new int[]{1, 2, 4, 8, 16}) {
+            Options opt = new OptionsBuilder()
+                    .include(OptimisticReadBenchMark.class.getSimpleName())
+                    .forks(1)
+                    .threads(threads)
+                    .warmupIterations(2)
+                    .measurementIterations(3)
+                    .output("E:/OptimisticReadBenchmark-" + threads + ".log")
+                    .build();
+
+            new Runner(opt).run();
+        }
+    }
+}
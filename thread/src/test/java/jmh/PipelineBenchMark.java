@@ -0,0 +1,99 @@
+package jmh;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import threadfuture.Pipeline;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * 5 个轻量阶段：thenApplyAsync 链与 {@link Pipeline} 的对比
+ * <ul>
+ *     <li>thenApplyAsync：5 个 CompletableFuture，提交 5 次</li>
+ *     <li>fused：5 个阶段固定在同一个线程池，合并成一段，提交 1 次</li>
+ *     <li>twoExecutors：两个线程池交替，合并成 3 段</li>
+ * </ul>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class PipelineBenchMark {
+
+    private static final Function<Long, Long> STAGE = x -> x * 31 + 7;
+
+    private ExecutorService executor;
+
+    private ExecutorService other;
+
+    private Pipeline<Long, Long> fused;
+
+    private Pipeline<Long, Long> twoExecutors;
+
+    private long input;
+
+    @Setup
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(4);
+        other = Executors.newFixedThreadPool(4);
+        fused = Pipeline.<Long>builder()
+                .thenAsync(STAGE, executor)
+                .thenAsync(STAGE, executor)
+                .thenAsync(STAGE, executor)
+                .thenAsync(STAGE, executor)
+                .thenAsync(STAGE, executor)
+                .build();
+        twoExecutors = Pipeline.<Long>builder()
+                .thenAsync(STAGE, executor)
+                .thenAsync(STAGE, executor)
+                .thenAsync(STAGE, other)
+                .then(STAGE)
+                .thenAsync(STAGE, executor)
+                .build();
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdown();
+        other.shutdown();
+    }
+
+    @Benchmark
+    public long thenApplyAsync() {
+        return CompletableFuture.supplyAsync(() -> input++, executor)
+                .thenApplyAsync(STAGE, executor)
+                .thenApplyAsync(STAGE, executor)
+                .thenApplyAsync(STAGE, executor)
+                .thenApplyAsync(STAGE, executor)
+                .thenApplyAsync(STAGE, executor)
+                .join();
+    }
+
+    @Benchmark
+    public long fused() {
+        return fused.apply(input++).join();
+    }
+
+    @Benchmark
+    public long twoExecutors() {
+        return twoExecutors.apply(input++).join();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(PipelineBenchMark.class.getSimpleName())
+                .forks(1)
+                .warmupIterations(2)
+                .measurementIterations(3)
+                .output("E:/PipelineBenchmark.log")
+                .build();
+
+        new Runner(opt).run();
+    }
+}
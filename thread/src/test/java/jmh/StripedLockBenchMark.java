@@ -0,0 +1,81 @@
+package jmh;
+
+import lock.StripedLock;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 按 key 加锁：{@link StripedLock} 与一把全局 {@link ReentrantLock} 的吞吐量对比
+ * <p>每次操作随机选 1024 个 key 中的一个（转账时选两个），临界区消耗少量 CPU
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Threads(8)
+public class StripedLockBenchMark {
+
+    private static final int KEYS = 1024;
+
+    @Param({"16", "64", "256"})
+    public int stripes;
+
+    private StripedLock stripedLock;
+
+    private final Lock singleLock = new ReentrantLock();
+
+    @Setup
+    public void setUp() {
+        stripedLock = new StripedLock(stripes);
+    }
+
+    @Benchmark
+    public void striped() {
+        Lock lock = stripedLock.get(ThreadLocalRandom.current().nextInt(KEYS));
+        lock.lock();
+        try {
+            Blackhole.consumeCPU(50);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Benchmark
+    public void single() {
+        ThreadLocalRandom.current().nextInt(KEYS);
+        singleLock.lock();
+        try {
+            Blackhole.consumeCPU(50);
+        } finally {
+            singleLock.unlock();
+        }
+    }
+
+    @Benchmark
+    public void stripedBulk() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        try (StripedLock.Locked ignored = stripedLock.lockAll(random.nextInt(KEYS), random.nextInt(KEYS))) {
+            Blackhole.consumeCPU(50);
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(StripedLockBenchMark.class.getSimpleName())
+                .forks(1)
+                .warmupIterations(2)
+                .measurementIterations(3)
+                .output("E:/StripedLockBenchmark.log")
+                .build();
+
+        new Runner(opt).run();
+    }
+}
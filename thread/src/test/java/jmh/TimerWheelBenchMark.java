@@ -0,0 +1,79 @@
+package jmh;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import threadpool.WheelScheduledExecutor;
+
+import java.util.concurrent.*;
+
+/**
+ * 已经挂着 100 万个定时任务时，再 schedule + cancel 一个超时的开销：{@link ScheduledThreadPoolExecutor} 与 {@link WheelScheduledExecutor} 的对比
+ * <p>ScheduledThreadPoolExecutor 打开 removeOnCancelPolicy，取消时从堆里删除，否则取消的任务会一直堆在队列里；
+ * 两者都是 O(1) 的话吞吐不随挂起任务数变化，堆是 O(log n) 还要抢一把锁，多线程时差距更大</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class TimerWheelBenchMark {
+
+    private static final Runnable NOOP = () -> {
+    };
+
+    @Param({"stpe", "wheel"})
+    public String schedulerType;
+
+    @Param({"1000000"})
+    public int pendingTimers;
+
+    private ScheduledExecutorService scheduler;
+
+    @Setup
+    public void setUp() {
+        switch (schedulerType) {
+            case "stpe":
+                ScheduledThreadPoolExecutor stpe = new ScheduledThreadPoolExecutor(4);
+                stpe.setRemoveOnCancelPolicy(true);
+                scheduler = stpe;
+                break;
+            case "wheel":
+                scheduler = new WheelScheduledExecutor(4);
+                break;
+            default:
+                throw new IllegalArgumentException(schedulerType);
+        }
+        for (int i = 0; i < pendingTimers; i++) {
+            scheduler.schedule(NOOP, 1 + i % 3600, TimeUnit.SECONDS);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * 典型的超时用法：挂一个超时，请求在到期前完成，把超时取消
+     */
+    @Benchmark
+    @Threads(4)
+    public boolean scheduleAndCancel() {
+        long delay = ThreadLocalRandom.current().nextLong(1000, 60_000);
+        return scheduler.schedule(NOOP, delay, TimeUnit.MILLISECONDS).cancel(false);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(TimerWheelBenchMark.class.getSimpleName())
+                .forks(1)
+                .warmupIterations(2)
+                .measurementIterations(3)
+                .jvmArgs("-Xmx4g")
+                .output("E:/TimerWheelBenchmark.log")
+                .build();
+
+        new Runner(opt).run();
+    }
+}
@@ -0,0 +1,127 @@
+package jmh;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import threadpool.WorkStealingExecutor;
+
+import java.util.concurrent.*;
+
+/**
+ * {@link Executors#newFixedThreadPool(int)}、{@link WorkStealingExecutor}、{@link ForkJoinPool} 三种线程池的对比
+ * <ul>
+ *     <li>shortTasks：外部线程一次提交 1000 个很短的任务，主要比队列的争用</li>
+ *     <li>longTasks：提交 线程数 × 4 个较长的任务，调度开销占比很小，三者应该接近</li>
+ *     <li>fanOut：一个任务递归拆成 2^10 个叶子任务，子任务在工作线程里提交，共享队列在这里最吃亏</li>
+ * </ul>
+ * 线程数都等于 CPU 核数
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class WorkStealingBenchMark {
+
+    private static final int PARALLELISM = Runtime.getRuntime().availableProcessors();
+
+    private static final int SHORT_TASKS = 1000;
+
+    private static final int FAN_OUT_DEPTH = 10;
+
+    @Param({"fixed", "workStealing", "forkJoin"})
+    public String executorType;
+
+    private ExecutorService executor;
+
+    @Setup
+    public void setUp() {
+        switch (executorType) {
+            case "fixed":
+                executor = Executors.newFixedThreadPool(PARALLELISM);
+                break;
+            case "workStealing":
+                executor = new WorkStealingExecutor(PARALLELISM);
+                break;
+            case "forkJoin":
+                executor = new ForkJoinPool(PARALLELISM);
+                break;
+            default:
+                throw new IllegalArgumentException(executorType);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    public void shortTasks() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(SHORT_TASKS);
+        for (int i = 0; i < SHORT_TASKS; i++) {
+            executor.execute(() -> {
+                Blackhole.consumeCPU(10);
+                latch.countDown();
+            });
+        }
+        latch.await();
+    }
+
+    @Benchmark
+    public void longTasks() throws InterruptedException {
+        int tasks = PARALLELISM * 4;
+        CountDownLatch latch = new CountDownLatch(tasks);
+        for (int i = 0; i < tasks; i++) {
+            executor.execute(() -> {
+                Blackhole.consumeCPU(100_000);
+                latch.countDown();
+            });
+        }
+        latch.await();
+    }
+
+    @Benchmark
+    public void fanOut() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(1 << FAN_OUT_DEPTH);
+        executor.execute(new Split(executor, FAN_OUT_DEPTH, latch));
+        latch.await();
+    }
+
+    static final class Split implements Runnable {
+
+        private final Executor executor;
+        private final int depth;
+        private final CountDownLatch leaves;
+
+        Split(Executor executor, int depth, CountDownLatch leaves) {
+            this.executor = executor;
+            this.depth = depth;
+            this.leaves = leaves;
+        }
+
+        @Override
+        public void run() {
+            if (depth == 0) {
+                Blackhole.consumeCPU(100);
+                leaves.countDown();
+                return;
+            }
+            executor.execute(new Split(executor, depth - 1, leaves));
+            executor.execute(new Split(executor, depth - 1, leaves));
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(WorkStealingBenchMark.class.getSimpleName())
+                .forks(1)
+                .warmupIterations(2)
+                .measurementIterations(3)
+                .output("E:/WorkStealingBenchmark.log")
+                .build();
+
+        new Runner(opt).run();
+    }
+}
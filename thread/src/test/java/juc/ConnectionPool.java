@@ -0,0 +1,617 @@
+package juc;
+
+import java.lang.ref.WeakReference;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * 无锁有界连接池，用来替代 {@link SemaphoreTest.DBPoolSemaphore}
+ * <p>DBPoolSemaphore 每次借还连接都要经过两个 Semaphore 和一把 synchronized (POOL) 锁，一共三个竞争点。这里换一种思路：</p>
+ * <ul>
+ *     <li>连接放在固定的槽位里，每个槽位有一个 state，借还只是对 state 做 CAS（空闲 &lt;——&gt; 使用中），不加锁</li>
+ *     <li>每个线程缓存自己上一次用过的槽位，优先复用；缓存的槽位被别人占了，再从随机起点扫描其他槽位（窃取）</li>
+ *     <li>扫描不到空闲连接的线程进入等待队列并 park，归还连接时出队一个线程 unpark，支持超时</li>
+ *     <li>借出和归还时都会校验连接，无效的连接会被关闭并替换成新连接</li>
+ *     <li>记录借出时间和借出线程，超过 leakThreshold 未归还的连接可以通过 {@link #findLeaks()} 找出来</li>
+ *     <li>运行指标见 {@link #getMetrics()}</li>
+ * </ul>
+ * <p>连接数可以在 minIdle 和 maxSize 之间伸缩（传入 maintenance 调度器时生效）：</p>
+ * <ul>
+ *     <li>预热：构造时不阻塞，把 minIdle 个建连任务并发提交给调度器；预热完成前借连接的线程直接自己建连</li>
+ *     <li>扩容：借连接等待超过 growThreshold 且未达到 maxSize 时，等待线程自己新建一个连接</li>
+ *     <li>缩容：调度器定期回收空闲超过 idleTimeout 的连接，直到剩下 minIdle 个，顺便做泄漏检测</li>
+ * </ul>
+ * 使用范式，和 Lock 一样在 finally 中归还：
+ * <pre>{@code
+ * ConnectionPool.PooledConnection pooled = pool.takeConnection(100, TimeUnit.MILLISECONDS);
+ * try {
+ *     pooled.getConnection().commit();
+ * } finally {
+ *     pool.returnConnection(pooled);
+ * }
+ * }</pre>
+ */
+public class ConnectionPool implements AutoCloseable {
+
+    /**
+     * 连接校验器，返回 false 或抛出异常都认为连接已失效
+     */
+    @FunctionalInterface
+    public interface Validator {
+        boolean validate(Connection connection) throws SQLException;
+    }
+
+    /**
+     * 默认校验：连接未关闭即有效
+     */
+    public static final Validator NOT_CLOSED = connection -> !connection.isClosed();
+
+    /**
+     * 连接槽位，长度为 maxSize，未建连或已回收的槽位为 null
+     */
+    private final AtomicReferenceArray<PooledConnection> slots;
+
+    /**
+     * 已创建（包括正在创建）的连接数，始终不小于非空槽位数
+     */
+    private final AtomicInteger size = new AtomicInteger();
+
+    private final int minIdle;
+
+    /**
+     * 创建连接
+     */
+    private final Supplier<Connection> factory;
+
+    private final Validator validator;
+
+    /**
+     * 借出超过该时长未归还视为泄漏，单位纳秒
+     */
+    private final long leakThresholdNanos;
+
+    /**
+     * 等待超过该时长开始扩容，单位纳秒，Long.MAX_VALUE 表示不扩容
+     */
+    private final long growThresholdNanos;
+
+    /**
+     * 空闲超过该时长的连接会被回收，单位纳秒
+     */
+    private final long idleTimeoutNanos;
+
+    /**
+     * 每个线程上一次使用的槽位
+     * <p>存的是弱引用：ThreadLocalMap 的 value 是强引用，直接存连接的话，value → 连接 → 连接池 → 这个 ThreadLocal，
+     * 连接池关闭、不再使用后，借过连接的线程（往往是长寿的线程池线程）会一直把整个连接池留在内存里</p>
+     */
+    private final ThreadLocal<WeakReference<PooledConnection>> lastUsed = new ThreadLocal<>();
+
+    /**
+     * 等待连接的线程。每次归还出队一个等待者唤醒，不同的归还唤醒不同的线程；
+     * 超时退出的等待者只做标记，由唤醒方出队时跳过，避免 O(n) 的 remove
+     */
+    private final Queue<Waiter> waiters = new ConcurrentLinkedQueue<>();
+
+    private final PoolMetrics metrics = new PoolMetrics();
+
+    private final ScheduledFuture<?> maintenanceTask;
+
+    private volatile boolean closed;
+
+    /**
+     * 固定大小的连接池，构造时同步建好所有连接
+     */
+    public ConnectionPool(int poolSize, Supplier<Connection> factory) {
+        this(poolSize, factory, NOT_CLOSED, 30, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 固定大小的连接池，构造时同步建好所有连接
+     */
+    public ConnectionPool(int poolSize, Supplier<Connection> factory, Validator validator,
+                          long leakThreshold, TimeUnit unit) {
+        this(poolSize, poolSize, factory, validator, leakThreshold, Long.MAX_VALUE, Long.MAX_VALUE, unit, null);
+        while (addIdleConnection()) {
+            // 填满连接池
+        }
+    }
+
+    /**
+     * 可伸缩的连接池
+     *
+     * @param minIdle       最少保留的连接数
+     * @param maxSize       最多创建的连接数
+     * @param factory       创建连接
+     * @param validator     借出和归还时的校验
+     * @param leakThreshold 借出超过该时长视为泄漏
+     * @param growThreshold 借连接等待超过该时长开始扩容，Long.MAX_VALUE 表示不扩容
+     * @param idleTimeout   空闲超过该时长的连接会被回收
+     * @param unit          时间单位
+     * @param maintenance   执行预热、回收、泄漏检测的调度器，为 null 时不预热也不回收
+     */
+    public ConnectionPool(int minIdle, int maxSize, Supplier<Connection> factory, Validator validator,
+                          long leakThreshold, long growThreshold, long idleTimeout, TimeUnit unit,
+                          ScheduledExecutorService maintenance) {
+        if (minIdle < 0 || maxSize <= 0 || maxSize < minIdle
+                || leakThreshold <= 0 || growThreshold < 0 || idleTimeout <= 0) {
+            throw new IllegalArgumentException();
+        }
+        if (factory == null || validator == null || unit == null) {
+            throw new NullPointerException();
+        }
+        this.minIdle = minIdle;
+        this.factory = factory;
+        this.validator = validator;
+        this.leakThresholdNanos = unit.toNanos(leakThreshold);
+        this.growThresholdNanos = growThreshold == Long.MAX_VALUE ? Long.MAX_VALUE : unit.toNanos(growThreshold);
+        this.idleTimeoutNanos = unit.toNanos(idleTimeout);
+        this.slots = new AtomicReferenceArray<>(maxSize);
+        if (maintenance == null) {
+            this.maintenanceTask = null;
+        } else {
+            // 并发预热，调度器有几个线程就有几个连接同时在建
+            for (int i = 0; i < minIdle; i++) {
+                maintenance.execute(this::addIdleConnection);
+            }
+            long period = Math.max(idleTimeoutNanos / 2, TimeUnit.MILLISECONDS.toNanos(1));
+            this.maintenanceTask = maintenance.scheduleWithFixedDelay(this::maintain, period, period, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * 获取连接，超时抛出 {@link SQLTimeoutException}
+     *
+     * @param timeout 最长等待时间
+     * @param unit    时间单位
+     * @return 池化连接，用完必须归还
+     */
+    public PooledConnection takeConnection(long timeout, TimeUnit unit) throws InterruptedException, SQLTimeoutException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        if (closed) {
+            throw new IllegalStateException("pool closed");
+        }
+        long start = System.nanoTime();
+        PooledConnection entry = tryTake();
+        if (entry == null && size.get() < minIdle) {
+            // 还没预热完，不等调度器了
+            entry = create(PooledConnection.IN_USE, minIdle);
+        }
+        if (entry != null) {
+            metrics.recordBorrow(System.nanoTime() - start);
+            return prepare(entry);
+        }
+        long deadline = start + unit.toNanos(timeout);
+        Waiter waiter = new Waiter(Thread.currentThread());
+        // 先入队再扫描一次，避免入队前刚好有连接归还而错过唤醒
+        waiters.offer(waiter);
+        metrics.incrementPending();
+        try {
+            for (; ; ) {
+                if (closed) {
+                    throw new IllegalStateException("pool closed");
+                }
+                entry = tryTake();
+                long now = System.nanoTime();
+                long waited = now - start;
+                if (entry == null && size.get() < minIdle) {
+                    // 校验失败的连接归还时被丢弃，连接数掉到 minIdle 以下；不管允不允许扩容都要补上，否则固定大小的池会越用越小
+                    entry = create(PooledConnection.IN_USE, minIdle);
+                }
+                boolean canGrow = growThresholdNanos != Long.MAX_VALUE && size.get() < slots.length();
+                if (entry == null && canGrow && waited >= growThresholdNanos) {
+                    entry = create(PooledConnection.IN_USE, slots.length());
+                }
+                if (entry != null) {
+                    metrics.recordBorrow(waited);
+                    return prepare(entry);
+                }
+                long remaining = deadline - now;
+                if (remaining <= 0) {
+                    metrics.recordTimeout(waited);
+                    throw new SQLTimeoutException("获取连接超时 " + unit.toMillis(timeout) + "ms");
+                }
+                // 还能扩容的话，等到扩容时间点就醒来
+                long parkNanos = canGrow ? Math.min(remaining, Math.max(growThresholdNanos - waited, 1)) : remaining;
+                LockSupport.parkNanos(this, parkNanos);
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                if (waiter.state == Waiter.SIGNALLED) {
+                    // 被唤醒后已经不在队列里了，重新排到队尾再去抢，抢不到继续等
+                    waiter.state = Waiter.WAITING;
+                    waiters.offer(waiter);
+                }
+            }
+        } finally {
+            metrics.decrementPending();
+            if (!Waiter.STATE.compareAndSet(waiter, Waiter.WAITING, Waiter.DONE) && entry == null) {
+                // 已经被唤醒却没拿到连接就退出了（超时、中断），把这次唤醒传给下一个等待者
+                signalWaiter();
+            }
+        }
+    }
+
+    /**
+     * 归还连接，重复归还抛出 {@link IllegalStateException}
+     *
+     * @param pooled 池化连接
+     */
+    public void returnConnection(PooledConnection pooled) {
+        if (pooled == null) {
+            return;
+        }
+        if (pooled.pool != this || pooled.state != PooledConnection.IN_USE) {
+            throw new IllegalStateException("连接不属于该连接池或已经归还");
+        }
+        long now = System.nanoTime();
+        if (!pooled.leakReported && now - pooled.borrowedAt > leakThresholdNanos) {
+            // 超过阈值才归还，也算一次泄漏
+            metrics.recordLeak();
+        }
+        pooled.borrower = null;
+        pooled.lastReturnedAt = now;
+        if (!isValid(pooled.connection)) {
+            metrics.recordInvalid();
+            // 不在归还线程上建连，直接丢弃；唤醒的等待者发现连接数低于 minIdle 会自己补上，没有等待者时由下一次借连接或调度器补上
+            discard(pooled, PooledConnection.IN_USE);
+            signalWaiter();
+            return;
+        }
+        if (!PooledConnection.STATE.compareAndSet(pooled, PooledConnection.IN_USE, PooledConnection.IDLE)) {
+            throw new IllegalStateException("连接已经归还");
+        }
+        if (closed) {
+            discard(pooled, PooledConnection.IDLE);
+            return;
+        }
+        signalWaiter();
+    }
+
+    /**
+     * 找出借出时间超过 leakThreshold 仍未归还的连接
+     */
+    public List<PooledConnection> findLeaks() {
+        List<PooledConnection> leaks = new ArrayList<>();
+        long now = System.nanoTime();
+        for (int i = 0; i < slots.length(); i++) {
+            PooledConnection entry = slots.get(i);
+            // borrower 为空说明还在建连或者刚从空闲状态抢到、prepare 还没做完，不算借出
+            if (entry != null && entry.state == PooledConnection.IN_USE && entry.borrower != null
+                    && now - entry.borrowedAt > leakThresholdNanos) {
+                if (!entry.leakReported) {
+                    entry.leakReported = true;
+                    metrics.recordLeak();
+                }
+                leaks.add(entry);
+            }
+        }
+        return leaks;
+    }
+
+    /**
+     * 当前连接数
+     */
+    public int getPoolSize() {
+        return size.get();
+    }
+
+    public int getMaxSize() {
+        return slots.length();
+    }
+
+    /**
+     * 导出当前的运行指标，使用中/空闲数量通过扫描槽位得到，不影响借还
+     */
+    public PoolMetrics.Snapshot getMetrics() {
+        int active = 0;
+        int idle = 0;
+        for (int i = 0; i < slots.length(); i++) {
+            PooledConnection entry = slots.get(i);
+            if (entry == null) {
+                continue;
+            }
+            int state = entry.state;
+            if (state == PooledConnection.IN_USE) {
+                active++;
+            } else if (state == PooledConnection.IDLE) {
+                idle++;
+            }
+        }
+        return metrics.snapshot(active, idle);
+    }
+
+    /**
+     * 关闭连接池，正在使用的连接在归还后不会再被借出
+     */
+    @Override
+    public void close() {
+        closed = true;
+        lastUsed.remove();
+        if (maintenanceTask != null) {
+            maintenanceTask.cancel(false);
+        }
+        for (int i = 0; i < slots.length(); i++) {
+            PooledConnection entry = slots.get(i);
+            if (entry != null) {
+                discard(entry, PooledConnection.IDLE);
+            }
+        }
+        Waiter waiter;
+        while ((waiter = waiters.poll()) != null) {
+            LockSupport.unpark(waiter.thread);
+        }
+        // 已经出队的等待者醒来后会看到 closed
+    }
+
+    /**
+     * 定期维护：回收空闲连接、补足 minIdle、检测泄漏
+     */
+    void maintain() {
+        if (closed) {
+            return;
+        }
+        long now = System.nanoTime();
+        for (int i = 0; i < slots.length() && size.get() > minIdle; i++) {
+            PooledConnection entry = slots.get(i);
+            if (entry != null && entry.state == PooledConnection.IDLE
+                    && now - entry.lastReturnedAt > idleTimeoutNanos
+                    && discard(entry, PooledConnection.IDLE)) {
+                metrics.recordEvicted();
+            }
+        }
+        while (addIdleConnection()) {
+            // 回收或校验失败后补足最小连接数
+        }
+        findLeaks();
+    }
+
+    private PooledConnection tryTake() {
+        WeakReference<PooledConnection> ref = lastUsed.get();
+        PooledConnection cached = ref == null ? null : ref.get();
+        if (cached != null && cached.compareAndSetState(PooledConnection.IDLE, PooledConnection.IN_USE)) {
+            return cached;
+        }
+        int n = slots.length();
+        int start = ThreadLocalRandom.current().nextInt(n);
+        for (int i = 0; i < n; i++) {
+            PooledConnection entry = slots.get((start + i) % n);
+            if (entry != null && entry.compareAndSetState(PooledConnection.IDLE, PooledConnection.IN_USE)) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 新建一个空闲连接，已达 minIdle 时返回 false
+     */
+    private boolean addIdleConnection() {
+        if (closed) {
+            return false;
+        }
+        PooledConnection entry = create(PooledConnection.IDLE, minIdle);
+        if (entry == null) {
+            return false;
+        }
+        if (closed) {
+            discard(entry, PooledConnection.IDLE);
+            return false;
+        }
+        signalWaiter();
+        return true;
+    }
+
+    /**
+     * 先占一个名额再建连，保证连接数不超过 limit
+     *
+     * @param initialState 新连接放入槽位后的状态
+     * @param limit        连接数上限
+     * @return 新连接，已达上限返回 null
+     */
+    private PooledConnection create(int initialState, int limit) {
+        int current;
+        do {
+            current = size.get();
+            if (current >= limit) {
+                return null;
+            }
+        } while (!size.compareAndSet(current, current + 1));
+        PooledConnection entry;
+        try {
+            // 放入槽位前先标记为使用中，记下槽位下标后再改成初始状态，避免被其他线程提前借走或回收
+            entry = new PooledConnection(this, factory.get(), PooledConnection.IN_USE);
+            // 进槽位前就记下时间，泄漏检测不会拿 0 去算借出时长
+            entry.borrowedAt = System.nanoTime();
+        } catch (RuntimeException e) {
+            size.decrementAndGet();
+            throw e;
+        }
+        // 非空槽位数不超过 size，占到名额后一定有空槽位
+        for (int i = 0; ; i = (i + 1) % slots.length()) {
+            if (slots.get(i) == null && slots.compareAndSet(i, null, entry)) {
+                entry.index = i;
+                break;
+            }
+        }
+        entry.state = initialState;
+        metrics.recordCreated();
+        return entry;
+    }
+
+    /**
+     * 把 expectState 状态的连接移出连接池并关闭
+     */
+    private boolean discard(PooledConnection entry, int expectState) {
+        if (!PooledConnection.STATE.compareAndSet(entry, expectState, PooledConnection.REMOVED)) {
+            return false;
+        }
+        // 先清槽位再减名额
+        slots.compareAndSet(entry.index, entry, null);
+        size.decrementAndGet();
+        closeQuietly(entry.connection);
+        return true;
+    }
+
+    private PooledConnection prepare(PooledConnection entry) {
+        if (!isValid(entry.connection)) {
+            metrics.recordInvalid();
+            try {
+                entry.replace(factory.get());
+            } catch (RuntimeException e) {
+                discard(entry, PooledConnection.IN_USE);
+                throw e;
+            }
+        }
+        entry.borrowedAt = System.nanoTime();
+        entry.leakReported = false;
+        // 最后写 borrower：泄漏检测读到非空的 borrower 时，borrowedAt 一定是这次借出的时间
+        entry.borrower = Thread.currentThread();
+        if (lastUsed.get() != entry.self) {
+            lastUsed.set(entry.self);
+        }
+        return entry;
+    }
+
+    private boolean isValid(Connection connection) {
+        try {
+            return validator.validate(connection);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private void signalWaiter() {
+        Waiter waiter;
+        while ((waiter = waiters.poll()) != null) {
+            // 已经退出等待的节点直接跳过
+            if (Waiter.STATE.compareAndSet(waiter, Waiter.WAITING, Waiter.SIGNALLED)) {
+                LockSupport.unpark(waiter.thread);
+                return;
+            }
+        }
+    }
+
+    private static void closeQuietly(Connection connection) {
+        try {
+            connection.close();
+        } catch (SQLException ignored) {
+        }
+    }
+
+    private static final class Waiter {
+
+        static final int WAITING = 0;
+        static final int SIGNALLED = 1;
+        static final int DONE = 2;
+
+        static final AtomicIntegerFieldUpdater<Waiter> STATE =
+                AtomicIntegerFieldUpdater.newUpdater(Waiter.class, "state");
+
+        final Thread thread;
+
+        volatile int state;
+
+        Waiter(Thread thread) {
+            this.thread = thread;
+        }
+    }
+
+    /**
+     * 池中的一个槽位，包装真实连接并记录借出信息
+     */
+    public static final class PooledConnection implements AutoCloseable {
+
+        static final int IDLE = 0;
+        static final int IN_USE = 1;
+        static final int REMOVED = 2;
+
+        static final AtomicIntegerFieldUpdater<PooledConnection> STATE =
+                AtomicIntegerFieldUpdater.newUpdater(PooledConnection.class, "state");
+
+        private final ConnectionPool pool;
+
+        private volatile Connection connection;
+
+        volatile int state;
+
+        /**
+         * 所在槽位下标，写 state 之前赋值，通过 state 的 volatile 写发布
+         */
+        int index;
+
+        volatile long borrowedAt;
+
+        volatile long lastReturnedAt = System.nanoTime();
+
+        volatile Thread borrower;
+
+        /**
+         * 本次借出是否已经计过泄漏
+         */
+        volatile boolean leakReported;
+
+        /**
+         * 放进 {@link #lastUsed} 的弱引用，每个连接只分配一次
+         */
+        final WeakReference<PooledConnection> self = new WeakReference<>(this);
+
+        PooledConnection(ConnectionPool pool, Connection connection, int state) {
+            this.pool = pool;
+            this.connection = connection;
+            this.state = state;
+        }
+
+        public Connection getConnection() {
+            return connection;
+        }
+
+        /**
+         * 借出该连接的线程，已归还时为 null
+         */
+        public Thread getBorrower() {
+            return borrower;
+        }
+
+        /**
+         * 已借出的时长
+         */
+        public long getHeldTime(TimeUnit unit) {
+            return unit.convert(System.nanoTime() - borrowedAt, TimeUnit.NANOSECONDS);
+        }
+
+        boolean compareAndSetState(int expect, int update) {
+            // 先读再 CAS，槽位被占用时避免无意义的 CAS 写缓存行
+            return state == expect && STATE.compareAndSet(this, expect, update);
+        }
+
+        void replace(Connection fresh) {
+            closeQuietly(connection);
+            connection = fresh;
+        }
+
+        /**
+         * 归还到连接池，便于 try-with-resources
+         */
+        @Override
+        public void close() {
+            pool.returnConnection(this);
+        }
+    }
+}
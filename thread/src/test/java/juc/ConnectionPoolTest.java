@@ -0,0 +1,189 @@
+package juc;
+
+import org.junit.jupiter.api.Test;
+import util.SmallTool;
+
+import java.sql.Connection;
+import java.sql.SQLTimeoutException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * {@link ConnectionPool} 用法示例
+ * <p>和 {@link SemaphoreTest} 一样模拟 50 个线程争抢 10 个连接
+ */
+public class ConnectionPoolTest {
+
+    /**
+     * 50 个线程争抢 10 个连接，所有线程都能在超时时间内拿到连接
+     */
+    @Test
+    public void takeAndReturn() throws InterruptedException {
+        ConnectionPool pool = new ConnectionPool(10, SemaphoreTest.SqlConnection::fetchConnection);
+        ExecutorService executor = Executors.newFixedThreadPool(50);
+        CountDownLatch latch = new CountDownLatch(50);
+        AtomicInteger success = new AtomicInteger();
+        for (int i = 0; i < 50; i++) {
+            executor.execute(() -> {
+                long start = System.currentTimeMillis();
+                try (ConnectionPool.PooledConnection pooled = pool.takeConnection(5, TimeUnit.SECONDS)) {
+                    SmallTool.printTimeAndThread("获取数据库连接耗时[" + (System.currentTimeMillis() - start) + "]ms.");
+                    // 模拟使用连接查询数据
+                    SmallTool.sleepMillis(50);
+                    success.incrementAndGet();
+                } catch (InterruptedException | SQLTimeoutException e) {
+                    e.printStackTrace();
+                } finally {
+                    latch.countDown();
+                }
+            });
+        }
+        latch.await();
+        executor.shutdown();
+        assertEquals(50, success.get());
+    }
+
+    /**
+     * 连接全部借出后，限时获取会抛出 SQLTimeoutException
+     */
+    @Test
+    public void timeout() throws Exception {
+        ConnectionPool pool = new ConnectionPool(1, SemaphoreTest.SqlConnection::fetchConnection);
+        ConnectionPool.PooledConnection pooled = pool.takeConnection(10, TimeUnit.MILLISECONDS);
+        long start = System.currentTimeMillis();
+        assertThrows(SQLTimeoutException.class, () -> pool.takeConnection(50, TimeUnit.MILLISECONDS));
+        SmallTool.printTimeAndThread("等待了" + (System.currentTimeMillis() - start) + "ms");
+        pool.returnConnection(pooled);
+        // 重复归还
+        assertThrows(IllegalStateException.class, () -> pool.returnConnection(pooled));
+    }
+
+    /**
+     * 校验失败的连接会被替换
+     */
+    @Test
+    public void validate() throws Exception {
+        AtomicInteger created = new AtomicInteger();
+        ConnectionPool pool = new ConnectionPool(1, () -> {
+            created.incrementAndGet();
+            return SemaphoreTest.SqlConnection.fetchConnection();
+        }, connection -> created.get() > 1, 30, TimeUnit.SECONDS);
+        ConnectionPool.PooledConnection pooled = pool.takeConnection(10, TimeUnit.MILLISECONDS);
+        Connection connection = pooled.getConnection();
+        pool.returnConnection(pooled);
+        // 初始化时创建 1 个，借出时校验失败又创建 1 个
+        assertEquals(2, created.get());
+        assertNotNull(connection);
+    }
+
+    /**
+     * 固定大小（不扩容）的池，校验失败的连接归还时被丢弃，等待的线程会补建一个，池不会越用越小
+     */
+    @Test
+    public void invalidReturnRefills() throws Exception {
+        AtomicBoolean broken = new AtomicBoolean();
+        ConnectionPool pool = new ConnectionPool(1, SemaphoreTest.SqlConnection::fetchConnection,
+                connection -> !broken.get(), 30, TimeUnit.SECONDS);
+        ConnectionPool.PooledConnection pooled = pool.takeConnection(10, TimeUnit.MILLISECONDS);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<ConnectionPool.PooledConnection> waiter = executor.submit(() -> pool.takeConnection(2, TimeUnit.SECONDS));
+        SmallTool.sleepMillis(50);
+        // 归还时校验失败，之后新建的连接校验通过
+        broken.set(true);
+        pool.returnConnection(pooled);
+        broken.set(false);
+        ConnectionPool.PooledConnection refilled = waiter.get(1, TimeUnit.SECONDS);
+        assertFalse(pooled.getConnection() == refilled.getConnection());
+        pool.returnConnection(refilled);
+        assertEquals(1, pool.getMetrics().getIdle());
+        executor.shutdown();
+    }
+
+    /**
+     * 借出超过阈值未归还的连接会被识别为泄漏
+     */
+    @Test
+    public void leak() throws Exception {
+        ConnectionPool pool = new ConnectionPool(2, SemaphoreTest.SqlConnection::fetchConnection,
+                ConnectionPool.NOT_CLOSED, 20, TimeUnit.MILLISECONDS);
+        ConnectionPool.PooledConnection pooled = pool.takeConnection(10, TimeUnit.MILLISECONDS);
+        assertTrue(pool.findLeaks().isEmpty());
+        SmallTool.sleepMillis(50);
+        assertEquals(1, pool.findLeaks().size());
+        assertSame(Thread.currentThread(), pool.findLeaks().get(0).getBorrower());
+        pool.returnConnection(pooled);
+        assertTrue(pool.findLeaks().isEmpty());
+    }
+
+    /**
+     * 压测后导出指标，根据等待耗时和等待线程数调整池容量
+     */
+    @Test
+    public void metrics() throws Exception {
+        ConnectionPool pool = new ConnectionPool(2, SemaphoreTest.SqlConnection::fetchConnection);
+        ConnectionPool.PooledConnection first = pool.takeConnection(10, TimeUnit.MILLISECONDS);
+        ConnectionPool.PooledConnection second = pool.takeConnection(10, TimeUnit.MILLISECONDS);
+        assertThrows(SQLTimeoutException.class, () -> pool.takeConnection(10, TimeUnit.MILLISECONDS));
+
+        PoolMetrics.Snapshot snapshot = pool.getMetrics();
+        SmallTool.printTimeAndThread(snapshot.toString());
+        assertEquals(2, snapshot.getActive());
+        assertEquals(0, snapshot.getIdle());
+        assertEquals(2, snapshot.getBorrowed());
+        assertEquals(1, snapshot.getTimeouts());
+        assertEquals(3, snapshot.getBorrowWait().getCount());
+        assertTrue(snapshot.getBorrowWait().getMax() >= TimeUnit.MILLISECONDS.toNanos(10));
+
+        pool.returnConnection(first);
+        pool.returnConnection(second);
+        snapshot = pool.getMetrics();
+        SmallTool.printTimeAndThread(snapshot.toMap().toString());
+        assertEquals(0, snapshot.getActive());
+        assertEquals(2, snapshot.getIdle());
+        assertEquals(0, snapshot.getPending());
+    }
+
+    /**
+     * 预热不阻塞构造；等待超过 growThreshold 后扩容；空闲超过 idleTimeout 后回收到 minIdle
+     */
+    @Test
+    public void growAndShrink() throws Exception {
+        ScheduledExecutorService maintenance = Executors.newScheduledThreadPool(2);
+        ConnectionPool pool = new ConnectionPool(2, 5, SemaphoreTest.SqlConnection::fetchConnection,
+                ConnectionPool.NOT_CLOSED, 30_000, 20, 100, TimeUnit.MILLISECONDS, maintenance);
+        // 借满 minIdle，预热没完成的话借连接的线程会自己建连
+        ConnectionPool.PooledConnection first = pool.takeConnection(10, TimeUnit.MILLISECONDS);
+        ConnectionPool.PooledConnection second = pool.takeConnection(10, TimeUnit.MILLISECONDS);
+        assertEquals(2, pool.getPoolSize());
+
+        // 等待超过 20ms 才扩容
+        long start = System.currentTimeMillis();
+        ConnectionPool.PooledConnection third = pool.takeConnection(1, TimeUnit.SECONDS);
+        long waited = System.currentTimeMillis() - start;
+        SmallTool.printTimeAndThread("等待" + waited + "ms 后扩容");
+        assertTrue(waited >= 20);
+        assertEquals(3, pool.getPoolSize());
+
+        pool.returnConnection(first);
+        pool.returnConnection(second);
+        pool.returnConnection(third);
+        // 空闲 100ms 后回收，维护任务每 50ms 执行一次
+        SmallTool.sleepMillis(300);
+        PoolMetrics.Snapshot snapshot = pool.getMetrics();
+        SmallTool.printTimeAndThread(snapshot.toString());
+        assertEquals(2, pool.getPoolSize());
+        assertEquals(2, snapshot.getIdle());
+        assertTrue(snapshot.getEvicted() >= 1);
+
+        pool.close();
+        maintenance.shutdown();
+    }
+}
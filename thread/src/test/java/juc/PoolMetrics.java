@@ -0,0 +1,193 @@
+package juc;
+
+import util.LatencyHistogram;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link ConnectionPool} 的运行指标
+ * <ul>
+ *     <li>计数器：借出次数、超时次数、泄漏次数、校验失败（替换连接）次数、新建和回收的连接数</li>
+ *     <li>直方图：获取连接的等待耗时</li>
+ *     <li>仪表：使用中、空闲、等待中的数量，在 {@link ConnectionPool#getMetrics()} 时计算</li>
+ * </ul>
+ * 借还连接时只会累加 {@link LongAdder} 和直方图，不分配对象，也不像 DBPoolSemaphore 那样每次归还都打印日志；
+ * 需要读数时通过 {@link #snapshot(int, int)} 导出一份快照，可以按压测时的等待耗时和等待线程数来调整池容量
+ */
+public class PoolMetrics {
+
+    private final LongAdder borrowed = new LongAdder();
+
+    private final LongAdder timeouts = new LongAdder();
+
+    private final LongAdder leaks = new LongAdder();
+
+    private final LongAdder invalid = new LongAdder();
+
+    private final LongAdder created = new LongAdder();
+
+    private final LongAdder evicted = new LongAdder();
+
+    private final AtomicInteger pending = new AtomicInteger();
+
+    private final LatencyHistogram borrowWait = new LatencyHistogram();
+
+    void recordBorrow(long waitNanos) {
+        borrowed.increment();
+        borrowWait.record(waitNanos);
+    }
+
+    void recordTimeout(long waitNanos) {
+        timeouts.increment();
+        borrowWait.record(waitNanos);
+    }
+
+    void recordLeak() {
+        leaks.increment();
+    }
+
+    void recordInvalid() {
+        invalid.increment();
+    }
+
+    void recordCreated() {
+        created.increment();
+    }
+
+    void recordEvicted() {
+        evicted.increment();
+    }
+
+    void incrementPending() {
+        pending.incrementAndGet();
+    }
+
+    void decrementPending() {
+        pending.decrementAndGet();
+    }
+
+    /**
+     * 当前等待连接的线程数
+     */
+    public int getPending() {
+        return pending.get();
+    }
+
+    /**
+     * 导出快照
+     *
+     * @param active 使用中的连接数
+     * @param idle   空闲连接数
+     */
+    public Snapshot snapshot(int active, int idle) {
+        return new Snapshot(active, idle, pending.get(), borrowed.sum(), timeouts.sum(), leaks.sum(),
+                invalid.sum(), created.sum(), evicted.sum(), borrowWait.snapshot());
+    }
+
+    /**
+     * 指标快照，不可变
+     */
+    public static final class Snapshot {
+
+        private final int active;
+        private final int idle;
+        private final int pending;
+        private final long borrowed;
+        private final long timeouts;
+        private final long leaks;
+        private final long invalid;
+        private final long created;
+        private final long evicted;
+        private final LatencyHistogram.Snapshot borrowWait;
+
+        Snapshot(int active, int idle, int pending, long borrowed, long timeouts, long leaks, long invalid,
+                 long created, long evicted, LatencyHistogram.Snapshot borrowWait) {
+            this.active = active;
+            this.idle = idle;
+            this.pending = pending;
+            this.borrowed = borrowed;
+            this.timeouts = timeouts;
+            this.leaks = leaks;
+            this.invalid = invalid;
+            this.created = created;
+            this.evicted = evicted;
+            this.borrowWait = borrowWait;
+        }
+
+        public int getActive() {
+            return active;
+        }
+
+        public int getIdle() {
+            return idle;
+        }
+
+        public int getPending() {
+            return pending;
+        }
+
+        public long getBorrowed() {
+            return borrowed;
+        }
+
+        public long getTimeouts() {
+            return timeouts;
+        }
+
+        public long getLeaks() {
+            return leaks;
+        }
+
+        public long getInvalid() {
+            return invalid;
+        }
+
+        public long getCreated() {
+            return created;
+        }
+
+        /**
+         * 空闲超时被回收的连接数
+         */
+        public long getEvicted() {
+            return evicted;
+        }
+
+        /**
+         * 获取连接的等待耗时，包含超时的那部分
+         */
+        public LatencyHistogram.Snapshot getBorrowWait() {
+            return borrowWait;
+        }
+
+        /**
+         * 平铺成 key-value，方便对接监控系统
+         */
+        public Map<String, Number> toMap() {
+            Map<String, Number> map = new LinkedHashMap<>();
+            map.put("pool.active", active);
+            map.put("pool.idle", idle);
+            map.put("pool.pending", pending);
+            map.put("pool.borrowed", borrowed);
+            map.put("pool.timeouts", timeouts);
+            map.put("pool.leaks", leaks);
+            map.put("pool.invalid", invalid);
+            map.put("pool.created", created);
+            map.put("pool.evicted", evicted);
+            map.put("pool.wait.p50", borrowWait.getValueAtPercentile(50));
+            map.put("pool.wait.p99", borrowWait.getValueAtPercentile(99));
+            map.put("pool.wait.max", borrowWait.getMax());
+            return map;
+        }
+
+        @Override
+        public String toString() {
+            return "active=" + active + ", idle=" + idle + ", pending=" + pending
+                    + ", borrowed=" + borrowed + ", timeouts=" + timeouts + ", leaks=" + leaks
+                    + ", invalid=" + invalid + ", created=" + created + ", evicted=" + evicted + ", wait{" + borrowWait + "}";
+        }
+    }
+}
@@ -9,6 +9,8 @@ import java.util.Properties;
 import java.util.Random;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * 参考：<a href="https://mp.weixin.qq.com/s/RNsHdEhijlkj9CfwK83bbQ">JUC 常用并发工具类一网打尽</a>
@@ -45,6 +47,8 @@ public class SemaphoreTest {
                 Connection connection = pool.takeConnection();
                 System.out.println("Thread_"+Thread.currentThread().getId()+
                         "_获取数据库连接耗时["+(System.currentTimeMillis()-start)+"]ms.");
+                System.out.println("当前有"+pool.getQueueLength()+"个线程等待获取连接,,"
+                        +"可用连接有"+pool.availablePermits()+"个");
                 // 模拟使用连接查询数据
                 SmallTool.sleepMillis(100+random.nextInt(100));
                 System.out.println("查询数据完成归还连接");
@@ -55,7 +59,7 @@ public class SemaphoreTest {
         }
     }
 
-    static class SqlConnection implements Connection {
+    public static class SqlConnection implements Connection {
 
         /**
          * 获取数据库连接
@@ -339,7 +343,7 @@ public class SemaphoreTest {
     /**
      * 使用信号量控制数据库的链接和释放
      */
-    static class DBPoolSemaphore {
+    public static class DBPoolSemaphore {
 
         /**
          * 池容量
@@ -358,6 +362,13 @@ public class SemaphoreTest {
          */
         private final static LinkedList<Connection> POOL = new LinkedList<>();
 
+        /**
+         * 保护 POOL 的锁
+         * <p>这里不用 synchronized (POOL)：JDK 21 的虚拟线程在 synchronized 块里阻塞会钉住（pin）载体线程，
+         * 载体线程数量有限，借还连接的虚拟线程一多吞吐量就塌了；ReentrantLock 阻塞时虚拟线程会让出载体线程
+         */
+        private final static Lock POOL_LOCK = new ReentrantLock();
+
         /*
          * 使用静态块初始化池
          */
@@ -383,8 +394,11 @@ public class SemaphoreTest {
             // 可用许可证减一
             useful.acquire();
             Connection connection;
-            synchronized (POOL) {
+            POOL_LOCK.lock();
+            try {
                 connection = POOL.removeFirst();
+            } finally {
+                POOL_LOCK.unlock();
             }
             // 不可用许可证数量加一
             useless.release();
@@ -398,18 +412,33 @@ public class SemaphoreTest {
          */
         public void returnConnection(Connection connection) throws InterruptedException {
             if(null!=connection){
-                // 打印日志
-                System.out.println("当前有"+useful.getQueueLength()+"个线程等待获取连接,,"
-                        +"可用连接有"+useful.availablePermits()+"个");
                 // 不可用许可证减一
                 useless.acquire();
-                synchronized (POOL){
+                POOL_LOCK.lock();
+                try {
                     POOL.addLast(connection);
+                } finally {
+                    POOL_LOCK.unlock();
                 }
                 // 可用许可证加一
                 useful.release();
             }
         }
 
+        /**
+         * 等待获取连接的线程数
+         * <p>原先在 returnConnection 里直接打印，System.out 内部有锁，每次归还都会在这里串行，所以改成由调用方按需读取
+         */
+        public int getQueueLength() {
+            return useful.getQueueLength();
+        }
+
+        /**
+         * 可用连接数
+         */
+        public int availablePermits() {
+            return useful.availablePermits();
+        }
+
     }
 }
@@ -138,7 +138,8 @@ public class AQSTest {
 }
 
 /**
- * 自定义互斥锁,以下类都是按照这个结构实现
+ * 自定义互斥锁,不可重入、非公平，可重入和公平模式见 {@link MyReentrantMutex}
+ * <p>以下类都是按照这个结构实现
  * <p>{@link java.util.concurrent.locks.ReentrantLock}
  * <p>{@link java.util.concurrent.locks.ReentrantReadWriteLock}、
  * <p>{@link java.util.concurrent.Semaphore}
@@ -164,8 +165,8 @@ class MyMutex implements Lock {
 
         @Override
         protected boolean tryRelease(int arg) {
-            // 未拥有锁却让释放，会抛出IMSE
-            if (getState() == 0) {
+            // 未拥有锁却让释放，会抛出IMSE；只判断 state 的话，别的线程也能把锁释放掉
+            if (getState() == 0 || getExclusiveOwnerThread() != Thread.currentThread()) {
                 throw new IllegalMonitorStateException();
             }
             // 可以释放，清空排它线程标记
@@ -175,10 +176,10 @@ class MyMutex implements Lock {
             return true;
         }
 
-        // 是否独占式持有
+        // 是否被当前线程独占式持有；tryAcquire 存的是 arg，不一定是 1，所以按持有线程判断
         @Override
         protected boolean isHeldExclusively() {
-            return getState() == 1;
+            return getState() != 0 && getExclusiveOwnerThread() == Thread.currentThread();
         }
 
         // 后续会用到，主要用于等待/通知机制，每个condition都有一个与之对应的条件等待队列，在锁模型中说明过
@@ -0,0 +1,300 @@
+package lock;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.locks.AbstractQueuedSynchronizer;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.function.Supplier;
+
+/**
+ * 基于 AQS 模板实现的读写锁，额外提供 {@link java.util.concurrent.locks.StampedLock} 那样的乐观读
+ * <p>{@link MyMutex} 是独占的，读多写少的缓存用它的话，读线程之间也要排队。这里：</p>
+ * <ul>
+ *     <li>
+ *         读锁：共享式，重写 {@link AbstractQueuedSynchronizer#tryAcquireShared(int)}，state &gt; 0 表示读锁被持有的次数
+ *         <p>可重入：已经持有读锁的线程再次获取时，即使有写线程在排队也直接放行，否则它在等写线程、写线程在等它释放，互相死等。
+ *         每个线程持有的次数记在 ThreadLocal 里，和 ReentrantReadWriteLock 的 readHolds 一样</p>
+ *     </li>
+ *     <li>
+ *         写锁：独占式，重写 {@link AbstractQueuedSynchronizer#tryAcquire(int)}，state == -1 表示写锁被持有，不可重入
+ *     </li>
+ *     <li>
+ *         乐观读：不获取任何锁，只读一个版本号（stamp），读完数据再 {@link #validate(long)} 检查版本号有没有变；
+ *         变了说明期间有写，改用读锁重读。读线程完全不写共享变量，不会互相争抢缓存行
+ *         <p>版本号在获取写锁和释放写锁时各加一，所以奇数表示正在写</p>
+ *     </li>
+ * </ul>
+ * 乐观读范式（和 StampedLock 一样，乐观读期间读到的数据可能不一致，validate 通过之前不能使用）：
+ * <pre>{@code
+ * long stamp = lock.tryOptimisticRead();
+ * int x = this.x, y = this.y;
+ * if (!lock.validate(stamp)) {
+ *     lock.readLock().lock();
+ *     try {
+ *         x = this.x;
+ *         y = this.y;
+ *     } finally {
+ *         lock.readLock().unlock();
+ *     }
+ * }
+ * }</pre>
+ * 也可以直接用 {@link #optimisticRead(Supplier)}
+ */
+public class MyOptimisticReadWriteLock implements ReadWriteLock {
+
+    /**
+     * sun.misc.Unsafe#loadFence()，validate 用它保证前面对数据的普通读不会被重排到重读版本号之后
+     * <p>Java 8 没有公开的内存屏障 API（Java 9 起是 VarHandle.acquireFence()）。这里用 MethodHandle 查找，源码里不直接引用
+     * sun.misc.Unsafe，javac 不会报那条无法用 @SuppressWarnings 抑制的 proprietary API 警告；
+     * static final 的 MethodHandle 会被 JIT 内联成和直接调用一样的屏障指令</p>
+     */
+    private static final MethodHandle LOAD_FENCE;
+
+    static {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            LOAD_FENCE = MethodHandles.lookup()
+                    .findVirtual(unsafeClass, "loadFence", MethodType.methodType(void.class))
+                    .bindTo(field.get(null));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static final int WRITE_LOCKED = -1;
+
+    private static final class Sync extends AbstractQueuedSynchronizer {
+
+        private static final AtomicLongFieldUpdater<Sync> VERSION = AtomicLongFieldUpdater.newUpdater(Sync.class, "version");
+
+        /**
+         * 写版本号，偶数表示没有写锁，奇数表示写锁被持有；只有持有写锁的线程会修改
+         */
+        volatile long version;
+
+        /**
+         * 当前线程持有读锁的次数
+         */
+        private final ThreadLocal<int[]> readHolds = ThreadLocal.withInitial(() -> new int[1]);
+
+        @Override
+        protected boolean tryAcquire(int arg) {
+            if (getState() == 0 && compareAndSetState(0, WRITE_LOCKED)) {
+                setExclusiveOwnerThread(Thread.currentThread());
+                // 原子加是一次完整的屏障，保证版本号先于后面对数据的写入可见，否则乐观读可能读到新数据却看到旧版本号
+                VERSION.incrementAndGet(this);
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        protected boolean tryRelease(int arg) {
+            if (getState() != WRITE_LOCKED || getExclusiveOwnerThread() != Thread.currentThread()) {
+                throw new IllegalMonitorStateException();
+            }
+            setExclusiveOwnerThread(null);
+            version++;
+            setState(0);
+            return true;
+        }
+
+        @Override
+        protected int tryAcquireShared(int arg) {
+            int[] holds = readHolds.get();
+            for (; ; ) {
+                int c = getState();
+                // 有写锁，或者已经有线程在排队（可能是写线程），新来的读线程不插队，避免写线程饥饿；重入的读不受排队限制
+                if (c == WRITE_LOCKED || (holds[0] == 0 && hasQueuedPredecessors())) {
+                    return -1;
+                }
+                if (compareAndSetState(c, c + 1)) {
+                    holds[0]++;
+                    return 1;
+                }
+            }
+        }
+
+        @Override
+        protected boolean tryReleaseShared(int arg) {
+            int[] holds = readHolds.get();
+            if (holds[0] == 0) {
+                throw new IllegalMonitorStateException();
+            }
+            holds[0]--;
+            for (; ; ) {
+                int c = getState();
+                if (compareAndSetState(c, c - 1)) {
+                    // 最后一个读线程释放后，才需要唤醒排队的写线程
+                    return c == 1;
+                }
+            }
+        }
+
+        @Override
+        protected boolean isHeldExclusively() {
+            return getExclusiveOwnerThread() == Thread.currentThread();
+        }
+
+        int getReadCount() {
+            int c = getState();
+            return c > 0 ? c : 0;
+        }
+
+        Condition newCondition() {
+            return new ConditionObject();
+        }
+    }
+
+    private final Sync sync = new Sync();
+
+    private final ReadLock readLock = new ReadLock();
+
+    private final WriteLock writeLock = new WriteLock();
+
+    /**
+     * 获取乐观读的 stamp
+     *
+     * @return 写锁被持有时返回 0，0 永远无法通过 validate
+     */
+    public long tryOptimisticRead() {
+        long v = sync.version;
+        return (v & 1) == 0 ? v + 2 : 0;
+    }
+
+    /**
+     * stamp 之后是否有过写
+     */
+    public boolean validate(long stamp) {
+        // volatile 读只有 acquire 语义，挡不住它前面的普通读被重排到它后面；和 StampedLock.validate 一样先加一道读屏障再重读版本号
+        loadFence();
+        return stamp != 0 && stamp == sync.version + 2;
+    }
+
+    private static void loadFence() {
+        try {
+            LOAD_FENCE.invokeExact();
+        } catch (Throwable t) {
+            throw new AssertionError(t);
+        }
+    }
+
+    /**
+     * 先乐观读，失败再用读锁重读
+     *
+     * @param reader 读取数据，乐观读阶段可能读到不一致的数据，reader 里不要根据读到的值做有副作用的操作
+     */
+    public <T> T optimisticRead(Supplier<T> reader) {
+        long stamp = tryOptimisticRead();
+        if (stamp != 0) {
+            T result = reader.get();
+            if (validate(stamp)) {
+                return result;
+            }
+        }
+        readLock.lock();
+        try {
+            return reader.get();
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    @Override
+    public Lock readLock() {
+        return readLock;
+    }
+
+    @Override
+    public Lock writeLock() {
+        return writeLock;
+    }
+
+    public boolean isWriteLocked() {
+        return sync.version % 2 == 1;
+    }
+
+    /**
+     * 读锁被持有的次数，同一线程重入算多次
+     */
+    public int getReadLockCount() {
+        return sync.getReadCount();
+    }
+
+    private final class ReadLock implements Lock {
+
+        @Override
+        public void lock() {
+            sync.acquireShared(1);
+        }
+
+        @Override
+        public void lockInterruptibly() throws InterruptedException {
+            sync.acquireSharedInterruptibly(1);
+        }
+
+        @Override
+        public boolean tryLock() {
+            return sync.tryAcquireShared(1) >= 0;
+        }
+
+        @Override
+        public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+            return sync.tryAcquireSharedNanos(1, unit.toNanos(time));
+        }
+
+        @Override
+        public void unlock() {
+            sync.releaseShared(1);
+        }
+
+        /**
+         * 读锁是共享的，不支持条件等待
+         */
+        @Override
+        public Condition newCondition() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private final class WriteLock implements Lock {
+
+        @Override
+        public void lock() {
+            sync.acquire(1);
+        }
+
+        @Override
+        public void lockInterruptibly() throws InterruptedException {
+            sync.acquireInterruptibly(1);
+        }
+
+        @Override
+        public boolean tryLock() {
+            return sync.tryAcquire(1);
+        }
+
+        @Override
+        public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+            return sync.tryAcquireNanos(1, unit.toNanos(time));
+        }
+
+        @Override
+        public void unlock() {
+            sync.release(1);
+        }
+
+        @Override
+        public Condition newCondition() {
+            return sync.newCondition();
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package lock;
+
+import org.junit.jupiter.api.Test;
+import util.SmallTool;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * {@link MyOptimisticReadWriteLock} 用法示例
+ * <p>用一个点 (x, y) 模拟缓存数据，写线程总是同时修改 x 和 y，保持 x == y
+ */
+public class MyOptimisticReadWriteLockTest {
+
+    private final MyOptimisticReadWriteLock lock = new MyOptimisticReadWriteLock();
+
+    private int x, y;
+
+    private void move(int delta) {
+        lock.writeLock().lock();
+        try {
+            x += delta;
+            y += delta;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 没有写的情况下乐观读直接通过，有写之后 stamp 失效
+     */
+    @Test
+    public void optimisticRead() {
+        long stamp = lock.tryOptimisticRead();
+        assertTrue(lock.validate(stamp));
+        move(1);
+        assertFalse(lock.validate(stamp));
+
+        lock.writeLock().lock();
+        try {
+            // 写锁被持有时拿不到有效的 stamp
+            assertEquals(0, lock.tryOptimisticRead());
+            assertTrue(lock.isWriteLocked());
+        } finally {
+            lock.writeLock().unlock();
+        }
+        assertTrue(lock.validate(lock.tryOptimisticRead()));
+    }
+
+    /**
+     * 读锁共享，写锁独占
+     */
+    @Test
+    public void sharedAndExclusive() throws InterruptedException {
+        lock.readLock().lock();
+        CountDownLatch latch = new CountDownLatch(1);
+        boolean[] result = new boolean[2];
+        new Thread(() -> {
+            // 其他线程还能拿到读锁，但拿不到写锁
+            result[0] = lock.readLock().tryLock();
+            lock.readLock().unlock();
+            try {
+                result[1] = lock.writeLock().tryLock(10, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+            latch.countDown();
+        }).start();
+        latch.await();
+        assertEquals(1, lock.getReadLockCount());
+        lock.readLock().unlock();
+        assertTrue(result[0]);
+        assertFalse(result[1]);
+        assertThrows(IllegalMonitorStateException.class, () -> lock.readLock().unlock());
+        assertThrows(IllegalMonitorStateException.class, () -> lock.writeLock().unlock());
+    }
+
+    /**
+     * 写线程已经在排队时，持有读锁的线程还能重入读锁；新来的读线程要排在写线程后面
+     */
+    @Test
+    public void reentrantRead() throws InterruptedException {
+        lock.readLock().lock();
+        Thread writer = new Thread(() -> move(1));
+        writer.start();
+        while (writer.getState() != Thread.State.WAITING) {
+            SmallTool.sleepMillis(1);
+        }
+        boolean[] otherReader = new boolean[1];
+        Thread reader = new Thread(() -> otherReader[0] = lock.readLock().tryLock());
+        reader.start();
+        reader.join();
+        assertFalse(otherReader[0]);
+        assertTrue(lock.readLock().tryLock(100, TimeUnit.MILLISECONDS));
+        assertEquals(2, lock.getReadLockCount());
+        lock.readLock().unlock();
+        lock.readLock().unlock();
+        writer.join();
+        assertEquals(1, x);
+    }
+
+    /**
+     * 写线程不停修改，读线程用 optimisticRead 读到的 x 和 y 始终相等
+     */
+    @Test
+    public void consistency() throws InterruptedException {
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicLong reads = new AtomicLong();
+        Thread writer = new Thread(() -> {
+            while (running.get()) {
+                move(1);
+            }
+        });
+        writer.start();
+        Thread[] readers = new Thread[4];
+        boolean[] broken = new boolean[1];
+        for (int i = 0; i < readers.length; i++) {
+            readers[i] = new Thread(() -> {
+                while (running.get()) {
+                    long diff = lock.optimisticRead(() -> (long) x - y);
+                    if (diff != 0) {
+                        broken[0] = true;
+                    }
+                    reads.incrementAndGet();
+                }
+            });
+            readers[i].start();
+        }
+        SmallTool.sleepMillis(200);
+        running.set(false);
+        writer.join();
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        SmallTool.printTimeAndThread("reads=" + reads.get() + ", x=" + x);
+        assertFalse(broken[0]);
+    }
+}
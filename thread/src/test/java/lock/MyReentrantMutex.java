@@ -0,0 +1,246 @@
+package lock;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.AbstractQueuedSynchronizer;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * 在 {@link MyMutex} 的基础上实现的可重入互斥锁，结构参考 {@link java.util.concurrent.locks.ReentrantLock}
+ * <ul>
+ *     <li>
+ *         可重入
+ *         <p>state 记录重入次数，持有锁的线程再次获取时 state + 1，释放时 state - 1，减到 0 才真正释放</p>
+ *     </li>
+ *     <li>
+ *         非公平（插队）与公平两种模式
+ *         <p>非公平：新来的线程直接 CAS 抢锁，抢不到再排队，吞吐量高，但队列里的线程可能一直抢不到</p>
+ *         <p>公平：先看 {@link AbstractQueuedSynchronizer#hasQueuedPredecessors()}，前面有人排队就乖乖排队，按先来后到获取锁</p>
+ *     </li>
+ *     <li>
+ *         先自旋再 park
+ *         <p>临界区很短时，锁往往马上就会释放，直接进队列 park 要付出一次上下文切换；
+ *         所以进入 AQS 队列前先自旋一小会儿，只读 state（不 CAS），看到 state == 0 才去 CAS（TTAS），减少缓存行争用</p>
+ *     </li>
+ *     <li>
+ *         释放时检查持有者
+ *         <p>非持有线程调用 unlock 会抛出 {@link IllegalMonitorStateException}，和 ReentrantLock 一致</p>
+ *     </li>
+ * </ul>
+ */
+public class MyReentrantMutex implements Lock {
+
+    /**
+     * 自旋次数，单核机器上自旋没有意义
+     */
+    static final int SPINS = Runtime.getRuntime().availableProcessors() > 1 ? 64 : 0;
+
+    abstract static class Sync extends AbstractQueuedSynchronizer {
+
+        /**
+         * 非阻塞获取，tryLock() 不管公平与否都会插队，和 ReentrantLock 一致
+         */
+        final boolean nonfairTryAcquire(int acquires) {
+            Thread current = Thread.currentThread();
+            int c = getState();
+            if (c == 0) {
+                if (compareAndSetState(0, acquires)) {
+                    setExclusiveOwnerThread(current);
+                    return true;
+                }
+            } else if (current == getExclusiveOwnerThread()) {
+                // 重入，只有持有锁的线程会走到这里，不需要 CAS
+                int next = c + acquires;
+                if (next < 0) {
+                    throw new Error("Maximum lock count exceeded");
+                }
+                setState(next);
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * 自旋一小会儿，期间看到锁空闲就去抢；当前线程已经持有锁时不自旋，直接重入
+         */
+        final boolean spinAcquire(int acquires) {
+            if (getExclusiveOwnerThread() == Thread.currentThread()) {
+                // 重入不用等任何人，直接走 tryAcquire 的重入分支
+                return tryAcquire(acquires);
+            }
+            for (int i = 0; i < SPINS; i++) {
+                if (getState() == 0 && canBarge() && tryAcquire(acquires)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * 自旋时是否允许去抢锁
+         */
+        abstract boolean canBarge();
+
+        @Override
+        protected final boolean tryRelease(int releases) {
+            // 只有持有锁的线程才能释放
+            if (Thread.currentThread() != getExclusiveOwnerThread()) {
+                throw new IllegalMonitorStateException();
+            }
+            int c = getState() - releases;
+            boolean free = c == 0;
+            if (free) {
+                setExclusiveOwnerThread(null);
+            }
+            // state 是 volatile 的，最后写保证前面的修改对下一个获取锁的线程可见
+            setState(c);
+            return free;
+        }
+
+        @Override
+        protected final boolean isHeldExclusively() {
+            return getExclusiveOwnerThread() == Thread.currentThread();
+        }
+
+        final Thread getOwner() {
+            return getState() == 0 ? null : getExclusiveOwnerThread();
+        }
+
+        final int getHoldCount() {
+            return isHeldExclusively() ? getState() : 0;
+        }
+
+        final Condition newCondition() {
+            return new ConditionObject();
+        }
+    }
+
+    static class NonfairSync extends Sync {
+
+        @Override
+        protected boolean tryAcquire(int acquires) {
+            return nonfairTryAcquire(acquires);
+        }
+
+        @Override
+        boolean canBarge() {
+            return true;
+        }
+    }
+
+    static class FairSync extends Sync {
+
+        @Override
+        protected boolean tryAcquire(int acquires) {
+            Thread current = Thread.currentThread();
+            int c = getState();
+            if (c == 0) {
+                // 和非公平的唯一区别：前面有人排队就不抢
+                if (!hasQueuedPredecessors() && compareAndSetState(0, acquires)) {
+                    setExclusiveOwnerThread(current);
+                    return true;
+                }
+            } else if (current == getExclusiveOwnerThread()) {
+                int next = c + acquires;
+                if (next < 0) {
+                    throw new Error("Maximum lock count exceeded");
+                }
+                setState(next);
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        boolean canBarge() {
+            // 有人排队时自旋也不插队，直接进队列
+            return !hasQueuedThreads();
+        }
+    }
+
+    private final Sync sync;
+
+    /**
+     * 默认非公平
+     */
+    public MyReentrantMutex() {
+        this(false);
+    }
+
+    public MyReentrantMutex(boolean fair) {
+        this(fair ? new FairSync() : new NonfairSync());
+    }
+
+    /**
+     * 使用指定的同步器，比如 {@link StripedLock} 里带填充的子类
+     */
+    MyReentrantMutex(Sync sync) {
+        this.sync = sync;
+    }
+
+    @Override
+    public void lock() {
+        if (!sync.spinAcquire(1)) {
+            sync.acquire(1);
+        }
+    }
+
+    @Override
+    public void lockInterruptibly() throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        if (!sync.spinAcquire(1)) {
+            sync.acquireInterruptibly(1);
+        }
+    }
+
+    @Override
+    public boolean tryLock() {
+        return sync.nonfairTryAcquire(1);
+    }
+
+    @Override
+    public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+        return sync.tryAcquireNanos(1, unit.toNanos(time));
+    }
+
+    @Override
+    public void unlock() {
+        sync.release(1);
+    }
+
+    @Override
+    public Condition newCondition() {
+        return sync.newCondition();
+    }
+
+    public boolean isFair() {
+        return sync instanceof FairSync;
+    }
+
+    public boolean isLocked() {
+        return sync.getOwner() != null;
+    }
+
+    public boolean isHeldByCurrentThread() {
+        return sync.isHeldExclusively();
+    }
+
+    /**
+     * 当前线程的重入次数
+     */
+    public int getHoldCount() {
+        return sync.getHoldCount();
+    }
+
+    public int getQueueLength() {
+        return sync.getQueueLength();
+    }
+
+    @Override
+    public String toString() {
+        Thread owner = sync.getOwner();
+        return super.toString() + (owner == null ? "[Unlocked]" : "[Locked by thread " + owner.getName() + "]");
+    }
+}
@@ -0,0 +1,156 @@
+package lock;
+
+import org.junit.jupiter.api.Test;
+import util.SmallTool;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * {@link MyReentrantMutex} 用法示例
+ */
+public class MyReentrantMutexTest {
+
+    private int count;
+
+    /**
+     * 同一个线程可以重复获取，获取几次就要释放几次
+     */
+    @Test
+    public void reentrant() {
+        MyReentrantMutex lock = new MyReentrantMutex();
+        lock.lock();
+        try {
+            lock.lock();
+            try {
+                assertEquals(2, lock.getHoldCount());
+            } finally {
+                lock.unlock();
+            }
+            assertTrue(lock.isLocked());
+        } finally {
+            lock.unlock();
+        }
+        assertFalse(lock.isLocked());
+    }
+
+    /**
+     * 非持有线程释放锁抛出 IllegalMonitorStateException
+     */
+    @Test
+    public void ownerCheckedRelease() throws InterruptedException {
+        MyReentrantMutex lock = new MyReentrantMutex();
+        assertThrows(IllegalMonitorStateException.class, lock::unlock);
+        lock.lock();
+        Thread other = new Thread(() -> assertThrows(IllegalMonitorStateException.class, lock::unlock));
+        other.start();
+        other.join();
+        assertTrue(lock.isHeldByCurrentThread());
+        lock.unlock();
+    }
+
+    /**
+     * 公平模式下按排队顺序获取锁
+     */
+    @Test
+    public void fair() throws InterruptedException {
+        MyReentrantMutex lock = new MyReentrantMutex(true);
+        List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        lock.lock();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            int id = i;
+            Thread thread = new Thread(() -> {
+                lock.lock();
+                try {
+                    order.add(id);
+                } finally {
+                    lock.unlock();
+                }
+            });
+            thread.start();
+            threads.add(thread);
+            // 等上一个线程进入队列再启动下一个
+            while (lock.getQueueLength() <= i) {
+                SmallTool.sleepMillis(1);
+            }
+        }
+        lock.unlock();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        SmallTool.printTimeAndThread(order.toString());
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4), order);
+    }
+
+    /**
+     * 多线程累加，结果正确说明互斥
+     */
+    @Test
+    public void mutualExclusion() throws InterruptedException {
+        for (boolean fair : new boolean[]{false, true}) {
+            MyReentrantMutex lock = new MyReentrantMutex(fair);
+            count = 0;
+            ExecutorService executor = Executors.newFixedThreadPool(8);
+            CountDownLatch latch = new CountDownLatch(8);
+            for (int i = 0; i < 8; i++) {
+                executor.execute(() -> {
+                    for (int j = 0; j < 10_000; j++) {
+                        lock.lock();
+                        try {
+                            count++;
+                        } finally {
+                            lock.unlock();
+                        }
+                    }
+                    latch.countDown();
+                });
+            }
+            latch.await();
+            executor.shutdown();
+            assertEquals(80_000, count);
+        }
+    }
+
+    @Test
+    public void tryLockAndCondition() throws InterruptedException {
+        MyReentrantMutex lock = new MyReentrantMutex();
+        Condition condition = lock.newCondition();
+        lock.lock();
+        // 锁被 main 持有，其他线程限时获取失败
+        boolean[] acquired = new boolean[1];
+        Thread tryLockThread = new Thread(() -> {
+            try {
+                acquired[0] = lock.tryLock(10, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        });
+        tryLockThread.start();
+        tryLockThread.join();
+        assertFalse(acquired[0]);
+
+        Thread signalThread = new Thread(() -> {
+            lock.lock();
+            try {
+                condition.signal();
+            } finally {
+                lock.unlock();
+            }
+        });
+        signalThread.start();
+        // await 释放锁，signalThread 才能拿到锁并 signal
+        assertTrue(condition.await(1, TimeUnit.SECONDS));
+        lock.unlock();
+        signalThread.join();
+    }
+}
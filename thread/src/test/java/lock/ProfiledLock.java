@@ -0,0 +1,510 @@
+package lock;
+
+import util.LatencyHistogram;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+
+/**
+ * 锁争用分析：包装任意 {@link Lock}（{@link MyMutex}、{@link MyReentrantMutex}、ReentrantLock、读写锁的读锁/写锁……），
+ * 统计谁在等锁、等了多久、拿着锁多久
+ * <p>{@link LockTest} 讲了 lock/tryLock/lockInterruptibly 怎么用，但线上哪把锁是热点只能挂 profiler 去看。
+ * 用这个装饰器包一层，运行时就能查到：</p>
+ * <ul>
+ *     <li>获取次数、发生争用的次数：每次都统计，只是累加 {@link LongAdder}</li>
+ *     <li>等待的线程数：当前值、峰值、发生争用时平均有几个线程在等</li>
+ *     <li>等待耗时、持有耗时的直方图：抽样统计</li>
+ *     <li>争用最多的调用点：抽样时发生了争用才抓一次调用栈，抓栈很贵，只在已经要阻塞的时候做</li>
+ * </ul>
+ * 开销：先 {@link Lock#tryLock()} 一次，成功就是无争用的快路径，只多了几次 LongAdder 累加和一次 ThreadLocal 读写；
+ * 失败才走计时、计数的慢路径
+ * <p>公平的 ReentrantLock、{@link MyReentrantMutex} 不能先 tryLock：tryLock 会插队，包一层就把公平锁变成了非公平的。
+ * 这两种锁改为先看一眼状态（有人持有或者有人排队就算争用），再直接调用阻塞的获取方法；看状态和获取之间不是原子的，争用次数是估计值</p>
+ * <p>通过 {@link #profile(String, Lock)} 创建的锁会登记到全局，{@link #hottest(int)} 按总等待时间列出最热的锁</p>
+ * <p>注意：在 {@link #newCondition()} 上 await 期间锁其实被释放了，但持有耗时仍然会把这段时间算进去</p>
+ */
+public class ProfiledLock implements Lock {
+
+    private static final Map<String, ProfiledLock> REGISTRY = new ConcurrentHashMap<>();
+
+    /**
+     * 最多记录多少个不同的调用点，超出的计入 {@link #OTHER_SITES}，防止内存无限增长
+     */
+    static final int MAX_SITES = 256;
+
+    static final String OTHER_SITES = "<other>";
+
+    /**
+     * 快路径已经拿到了锁
+     */
+    private static final int ACQUIRED = 0;
+
+    /**
+     * 公平锁看上去空闲，还没拿锁，接着调用阻塞的获取方法
+     */
+    private static final int FREE = 1;
+
+    /**
+     * 发生争用，走计时、计数的慢路径
+     */
+    private static final int BUSY = 2;
+
+    private final String name;
+
+    private final Lock delegate;
+
+    /**
+     * 公平锁的争用探测，非公平的锁为 null，直接 tryLock
+     */
+    private final BooleanSupplier fairBusy;
+
+    /**
+     * 每 sampleEvery 次获取抽样一次
+     */
+    private final int sampleEvery;
+
+    private final LongAdder acquisitions = new LongAdder();
+
+    private final LongAdder contended = new LongAdder();
+
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    private final LongAccumulator maxWaiting = new LongAccumulator(Math::max, 0);
+
+    /**
+     * 每次发生争用时已经在等的线程数之和，用来算平均值
+     */
+    private final LongAdder waitingSum = new LongAdder();
+
+    private final LatencyHistogram waitTime = new LatencyHistogram();
+
+    private final LatencyHistogram holdTime = new LatencyHistogram();
+
+    private final Map<String, LongAdder> callSites = new ConcurrentHashMap<>();
+
+    /**
+     * 当前线程在这把锁上的重入深度，以及最外层获取的时间（没被抽中时为 0）
+     * <p>读锁是共享的，不能像独占锁那样把时间记在锁对象上，所以按线程记
+     */
+    private final ThreadLocal<Hold> hold = ThreadLocal.withInitial(Hold::new);
+
+    public ProfiledLock(String name, Lock delegate) {
+        this(name, delegate, 16);
+    }
+
+    /**
+     * @param sampleEvery 抽样间隔，1 表示每次都统计耗时
+     */
+    public ProfiledLock(String name, Lock delegate, int sampleEvery) {
+        if (delegate == null) {
+            throw new NullPointerException();
+        }
+        if (sampleEvery <= 0) {
+            throw new IllegalArgumentException();
+        }
+        this.name = name;
+        this.delegate = delegate;
+        this.sampleEvery = sampleEvery;
+        this.fairBusy = fairBusy(delegate);
+    }
+
+    /**
+     * 能识别的公平锁返回一个只读状态、不获取锁的探测：当前线程会不会被挡住
+     */
+    static BooleanSupplier fairBusy(Lock lock) {
+        if (lock instanceof ReentrantLock && ((ReentrantLock) lock).isFair()) {
+            ReentrantLock l = (ReentrantLock) lock;
+            return () -> !l.isHeldByCurrentThread() && (l.isLocked() || l.hasQueuedThreads());
+        }
+        if (lock instanceof MyReentrantMutex && ((MyReentrantMutex) lock).isFair()) {
+            MyReentrantMutex l = (MyReentrantMutex) lock;
+            return () -> !l.isHeldByCurrentThread() && (l.isLocked() || l.getQueueLength() > 0);
+        }
+        return null;
+    }
+
+    /**
+     * 包装并登记到全局，同名的锁会被替换
+     */
+    public static ProfiledLock profile(String name, Lock delegate) {
+        ProfiledLock lock = new ProfiledLock(name, delegate);
+        REGISTRY.put(name, lock);
+        return lock;
+    }
+
+    public static void unregister(String name) {
+        REGISTRY.remove(name);
+    }
+
+    /**
+     * 所有登记过的锁的统计
+     */
+    public static List<Stats> allStats() {
+        Collection<ProfiledLock> locks = REGISTRY.values();
+        List<Stats> result = new ArrayList<>(locks.size());
+        for (ProfiledLock lock : locks) {
+            result.add(lock.stats());
+        }
+        return result;
+    }
+
+    /**
+     * 按总等待时间（抽样估算）从大到小，列出最热的 n 把锁
+     */
+    public static List<Stats> hottest(int n) {
+        List<Stats> result = allStats();
+        result.sort(Comparator.comparingDouble(Stats::getEstimatedTotalWaitNanos).reversed());
+        return result.size() > n ? new ArrayList<>(result.subList(0, n)) : result;
+    }
+
+    @Override
+    public void lock() {
+        boolean sampled = sampled();
+        int fast = fastPath();
+        if (fast == BUSY) {
+            long start = beforeWait(sampled);
+            try {
+                delegate.lock();
+            } finally {
+                waiting.decrementAndGet();
+            }
+            afterWait(sampled, start);
+        } else {
+            if (fast == FREE) {
+                delegate.lock();
+            }
+            if (sampled) {
+                waitTime.record(0);
+            }
+        }
+        acquired(sampled);
+    }
+
+    @Override
+    public void lockInterruptibly() throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        boolean sampled = sampled();
+        int fast = fastPath();
+        if (fast == BUSY) {
+            long start = beforeWait(sampled);
+            try {
+                delegate.lockInterruptibly();
+            } finally {
+                waiting.decrementAndGet();
+            }
+            afterWait(sampled, start);
+        } else {
+            if (fast == FREE) {
+                delegate.lockInterruptibly();
+            }
+            if (sampled) {
+                waitTime.record(0);
+            }
+        }
+        acquired(sampled);
+    }
+
+    @Override
+    public boolean tryLock() {
+        if (!delegate.tryLock()) {
+            return false;
+        }
+        acquired(sampled());
+        return true;
+    }
+
+    @Override
+    public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+        boolean sampled = sampled();
+        int fast = fastPath();
+        if (fast == BUSY) {
+            long start = beforeWait(sampled);
+            boolean locked;
+            try {
+                locked = delegate.tryLock(time, unit);
+            } finally {
+                waiting.decrementAndGet();
+            }
+            // 超时没拿到也算一次等待
+            afterWait(sampled, start);
+            if (!locked) {
+                return false;
+            }
+        } else {
+            if (fast == FREE && !delegate.tryLock(time, unit)) {
+                return false;
+            }
+            if (sampled) {
+                waitTime.record(0);
+            }
+        }
+        acquired(sampled);
+        return true;
+    }
+
+    @Override
+    public void unlock() {
+        Hold h = hold.get();
+        if (h.depth == 0) {
+            // 没拿锁就释放，交给被包装的锁抛异常
+            delegate.unlock();
+            return;
+        }
+        long start = h.start;
+        if (--h.depth == 0) {
+            h.start = 0;
+        }
+        delegate.unlock();
+        if (h.depth == 0 && start != 0) {
+            holdTime.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public Condition newCondition() {
+        return delegate.newCondition();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Stats stats() {
+        List<CallSite> sites = new ArrayList<>(callSites.size());
+        for (Map.Entry<String, LongAdder> entry : callSites.entrySet()) {
+            sites.add(new CallSite(entry.getKey(), entry.getValue().sum()));
+        }
+        sites.sort(Comparator.comparingLong(CallSite::getCount).reversed());
+        return new Stats(name, sampleEvery, acquisitions.sum(), contended.sum(), waiting.get(), maxWaiting.get(),
+                waitingSum.sum(), waitTime.snapshot(), holdTime.snapshot(), sites);
+    }
+
+    public void reset() {
+        acquisitions.reset();
+        contended.reset();
+        maxWaiting.reset();
+        waitingSum.reset();
+        waitTime.reset();
+        holdTime.reset();
+        callSites.clear();
+    }
+
+    private int fastPath() {
+        if (fairBusy == null) {
+            return delegate.tryLock() ? ACQUIRED : BUSY;
+        }
+        return fairBusy.getAsBoolean() ? BUSY : FREE;
+    }
+
+    private boolean sampled() {
+        return sampleEvery == 1 || ThreadLocalRandom.current().nextInt(sampleEvery) == 0;
+    }
+
+    private long beforeWait(boolean sampled) {
+        contended.increment();
+        int others = waiting.getAndIncrement();
+        waitingSum.add(others);
+        maxWaiting.accumulate(others + 1);
+        if (sampled) {
+            recordCallSite();
+            return System.nanoTime();
+        }
+        return 0;
+    }
+
+    private void afterWait(boolean sampled, long start) {
+        if (sampled) {
+            waitTime.record(System.nanoTime() - start);
+        }
+    }
+
+    private void acquired(boolean sampled) {
+        acquisitions.increment();
+        Hold h = hold.get();
+        if (h.depth++ == 0 && sampled) {
+            h.start = System.nanoTime();
+        }
+    }
+
+    private void recordCallSite() {
+        String site = callSite(new Throwable().getStackTrace());
+        LongAdder counter = callSites.get(site);
+        if (counter == null) {
+            if (callSites.size() >= MAX_SITES) {
+                site = OTHER_SITES;
+            }
+            counter = callSites.computeIfAbsent(site, k -> new LongAdder());
+        }
+        counter.increment();
+    }
+
+    /**
+     * 第一个不属于 ProfiledLock 的栈帧
+     */
+    static String callSite(StackTraceElement[] stack) {
+        for (StackTraceElement element : stack) {
+            if (!element.getClassName().equals(ProfiledLock.class.getName())) {
+                return element.getClassName() + "." + element.getMethodName() + ":" + element.getLineNumber();
+            }
+        }
+        return "<unknown>";
+    }
+
+    private static final class Hold {
+
+        int depth;
+
+        long start;
+    }
+
+    /**
+     * 调用点及其发生争用的次数（抽样值）
+     */
+    public static final class CallSite {
+
+        private final String site;
+
+        private final long count;
+
+        CallSite(String site, long count) {
+            this.site = site;
+            this.count = count;
+        }
+
+        public String getSite() {
+            return site;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        @Override
+        public String toString() {
+            return site + "=" + count;
+        }
+    }
+
+    /**
+     * 统计快照，不可变
+     */
+    public static final class Stats {
+
+        private final String name;
+        private final int sampleEvery;
+        private final long acquisitions;
+        private final long contended;
+        private final int waiting;
+        private final long maxWaiting;
+        private final long waitingSum;
+        private final LatencyHistogram.Snapshot waitTime;
+        private final LatencyHistogram.Snapshot holdTime;
+        private final List<CallSite> callSites;
+
+        Stats(String name, int sampleEvery, long acquisitions, long contended, int waiting, long maxWaiting,
+              long waitingSum, LatencyHistogram.Snapshot waitTime, LatencyHistogram.Snapshot holdTime,
+              List<CallSite> callSites) {
+            this.name = name;
+            this.sampleEvery = sampleEvery;
+            this.acquisitions = acquisitions;
+            this.contended = contended;
+            this.waiting = waiting;
+            this.maxWaiting = maxWaiting;
+            this.waitingSum = waitingSum;
+            this.waitTime = waitTime;
+            this.holdTime = holdTime;
+            this.callSites = callSites;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getAcquisitions() {
+            return acquisitions;
+        }
+
+        /**
+         * 第一次 tryLock 没拿到、需要等待的次数
+         */
+        public long getContended() {
+            return contended;
+        }
+
+        public double getContentionRate() {
+            return acquisitions == 0 ? 0 : (double) contended / acquisitions;
+        }
+
+        /**
+         * 当前正在等锁的线程数
+         */
+        public int getWaiting() {
+            return waiting;
+        }
+
+        /**
+         * 同时等锁的线程数峰值
+         */
+        public long getMaxWaiting() {
+            return maxWaiting;
+        }
+
+        /**
+         * 发生争用时，平均已经有几个线程在等
+         */
+        public double getAverageWaiting() {
+            return contended == 0 ? 0 : (double) waitingSum / contended;
+        }
+
+        /**
+         * 抽样的等待耗时，包含无争用时的 0
+         */
+        public LatencyHistogram.Snapshot getWaitTime() {
+            return waitTime;
+        }
+
+        /**
+         * 抽样的持有耗时，从最外层获取到最外层释放
+         */
+        public LatencyHistogram.Snapshot getHoldTime() {
+            return holdTime;
+        }
+
+        /**
+         * 按抽样值推算的总等待时间
+         */
+        public double getEstimatedTotalWaitNanos() {
+            return waitTime.getMean() * acquisitions;
+        }
+
+        /**
+         * 争用最多的调用点，从多到少
+         */
+        public List<CallSite> getTopCallSites(int n) {
+            return callSites.size() > n ? callSites.subList(0, n) : callSites;
+        }
+
+        @Override
+        public String toString() {
+            return name + ": acquisitions=" + acquisitions + ", contended=" + contended
+                    + ", waiting=" + waiting + ", maxWaiting=" + maxWaiting
+                    + ", sampleEvery=" + sampleEvery
+                    + ", wait{" + waitTime + "}, hold{" + holdTime + "}, top=" + getTopCallSites(3);
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package lock;
+
+import org.junit.jupiter.api.Test;
+import util.SmallTool;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * {@link ProfiledLock} 用法示例
+ */
+public class ProfiledLockTest {
+
+    /**
+     * 包装 {@link MyMutex}，多线程争抢，统计每次都抽样
+     */
+    @Test
+    public void profileMyMutex() throws InterruptedException {
+        ProfiledLock lock = new ProfiledLock("myMutex", new MyMutex(), 1);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        CountDownLatch latch = new CountDownLatch(4);
+        for (int t = 0; t < 4; t++) {
+            executor.execute(() -> {
+                for (int i = 0; i < 50; i++) {
+                    lock.lock();
+                    try {
+                        SmallTool.sleepMillis(1);
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+                latch.countDown();
+            });
+        }
+        latch.await();
+        executor.shutdown();
+
+        ProfiledLock.Stats stats = lock.stats();
+        SmallTool.printTimeAndThread(stats.toString());
+        assertEquals(200, stats.getAcquisitions());
+        assertTrue(stats.getContended() > 0);
+        assertTrue(stats.getMaxWaiting() >= 2);
+        assertEquals(0, stats.getWaiting());
+        assertEquals(200, stats.getHoldTime().getCount());
+        assertTrue(stats.getHoldTime().getValueAtPercentile(50) >= TimeUnit.MILLISECONDS.toNanos(1));
+        assertTrue(stats.getTopCallSites(1).get(0).getSite().startsWith(ProfiledLockTest.class.getName()));
+    }
+
+    /**
+     * 重入时只在最外层统计持有时间；tryLock 超时也算一次等待
+     */
+    @Test
+    public void reentrantAndTimeout() throws InterruptedException {
+        ProfiledLock lock = new ProfiledLock("reentrant", new ReentrantLock(), 1);
+        lock.lock();
+        lock.lock();
+        lock.unlock();
+        lock.unlock();
+        assertEquals(2, lock.stats().getAcquisitions());
+        assertEquals(1, lock.stats().getHoldTime().getCount());
+
+        lock.lock();
+        Thread thread = new Thread(() -> {
+            try {
+                assertFalse(lock.tryLock(10, TimeUnit.MILLISECONDS));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        thread.start();
+        thread.join();
+        lock.unlock();
+        ProfiledLock.Stats stats = lock.stats();
+        assertEquals(3, stats.getAcquisitions());
+        assertEquals(1, stats.getContended());
+        assertTrue(stats.getWaitTime().getMax() >= TimeUnit.MILLISECONDS.toNanos(10));
+    }
+
+    /**
+     * 登记到全局后可以按总等待时间找出最热的锁
+     */
+    @Test
+    public void hottest() throws InterruptedException {
+        Lock hot = ProfiledLock.profile("hot", new ReentrantLock());
+        Lock cold = ProfiledLock.profile("cold", new ReentrantLock());
+        try {
+            ExecutorService executor = Executors.newFixedThreadPool(4);
+            CountDownLatch latch = new CountDownLatch(4);
+            for (int t = 0; t < 4; t++) {
+                executor.execute(() -> {
+                    for (int i = 0; i < 200; i++) {
+                        hot.lock();
+                        try {
+                            SmallTool.sleepMillis(1);
+                        } finally {
+                            hot.unlock();
+                        }
+                        cold.lock();
+                        cold.unlock();
+                    }
+                    latch.countDown();
+                });
+            }
+            latch.await();
+            executor.shutdown();
+            ProfiledLock.hottest(2).forEach(stats -> SmallTool.printTimeAndThread(stats.toString()));
+            assertEquals("hot", ProfiledLock.hottest(1).get(0).getName());
+        } finally {
+            ProfiledLock.unregister("hot");
+            ProfiledLock.unregister("cold");
+        }
+    }
+
+    /**
+     * 包装公平锁不会插队：已经有线程在排队时，刚释放锁的线程再次 lock 要排到它后面
+     */
+    @Test
+    public void fairStaysFair() throws InterruptedException {
+        ReentrantLock fair = new ReentrantLock(true);
+        ProfiledLock lock = new ProfiledLock("fair", fair, 1);
+        List<String> order = new CopyOnWriteArrayList<>();
+        lock.lock();
+        Thread waiter = new Thread(() -> {
+            lock.lock();
+            try {
+                order.add("waiter");
+            } finally {
+                lock.unlock();
+            }
+        });
+        waiter.start();
+        while (!fair.hasQueuedThreads()) {
+            SmallTool.sleepMillis(1);
+        }
+        lock.unlock();
+        lock.lock();
+        try {
+            order.add("main");
+        } finally {
+            lock.unlock();
+        }
+        waiter.join();
+        assertEquals(Arrays.asList("waiter", "main"), order);
+        // waiter 一定记为争用；main 再次 lock 时 waiter 可能已经执行完了，不一定算争用
+        assertTrue(lock.stats().getContended() >= 1);
+    }
+}
@@ -0,0 +1,161 @@
+package lock;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * 分段锁：按 key 加锁，又不用给每个 key 建一把锁
+ * <p>{@link LockTest}、{@link MyMutex} 都只有一把全局锁，按账户、按连接加锁时所有 key 都在一把锁上排队；
+ * 给每个 key 一把锁又会让锁的数量跟着 key 无限增长。分段锁取个折中：固定 N 把锁（stripe），key 按 hash 落到其中一把上，
+ * 不同 key 大概率落在不同的锁上，可以并发执行
+ * <ul>
+ *     <li>
+ *         每一段用 {@link MyReentrantMutex}，可重入，同一线程先后拿两个落在同一段的 key 不会自己锁死自己
+ *     </li>
+ *     <li>
+ *         避免伪共享
+ *         <p>N 把锁连续创建，它们的 state 在内存中挨得很近，可能落在同一个缓存行里，
+ *         一个 CPU 修改某一段的 state 会让其他 CPU 上缓存的相邻段失效。频繁修改的 state、exclusiveOwnerThread 在同步器（AQS）对象里，
+ *         不在锁对象里，所以填充要加在同步器上：HotSpot 把子类字段排在父类字段之后，同步器子类的 64 字节填充紧跟在 state 后面，
+ *         各段按顺序分配时，下一段的同步器在这段填充之后，相邻两段的 state 至少隔着一个缓存行</p>
+ *         <p>这只是尽力而为：第一段前面是什么对象、GC 移动对象之后的相对位置都管不了；
+ *         JDK 内部用的 @Contended 在 Java 8 里要加 -XX:-RestrictContended 才对应用代码生效</p>
+ *     </li>
+ *     <li>
+ *         多个 key 一起加锁时按段的下标从小到大加锁，所有线程加锁顺序一致，不会出现 A 等 B、B 等 A 的死锁
+ *     </li>
+ * </ul>
+ * <pre>{@code
+ * try (StripedLock.Locked ignored = stripedLock.lockAll(from, to)) {
+ *     transfer(from, to, amount);
+ * }
+ * }</pre>
+ */
+public class StripedLock {
+
+    private final Lock[] stripes;
+
+    private final int mask;
+
+    /**
+     * @param stripes 段数，向上取整到 2 的幂
+     */
+    public StripedLock(int stripes) {
+        this(stripes, false);
+    }
+
+    /**
+     * @param stripes 段数，向上取整到 2 的幂
+     * @param fair    每一段是否为公平锁
+     */
+    public StripedLock(int stripes, boolean fair) {
+        if (stripes <= 0 || stripes > 1 << 30) {
+            throw new IllegalArgumentException();
+        }
+        int n = stripes == 1 ? 1 : Integer.highestOneBit(stripes - 1) << 1;
+        this.stripes = new Lock[n];
+        this.mask = n - 1;
+        for (int i = 0; i < n; i++) {
+            this.stripes[i] = new MyReentrantMutex(fair ? new PaddedFairSync() : new PaddedNonfairSync());
+        }
+    }
+
+    /**
+     * key 对应的锁
+     */
+    public Lock get(Object key) {
+        return stripes[indexFor(key)];
+    }
+
+    /**
+     * 给多个 key 加锁，按段下标升序加锁，重复的段只加一次
+     *
+     * @return 用于释放的句柄，按加锁的相反顺序释放
+     */
+    public Locked lockAll(Object... keys) {
+        int[] indexes = new int[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            indexes[i] = indexFor(keys[i]);
+        }
+        Arrays.sort(indexes);
+        // 去重
+        int size = 0;
+        for (int i = 0; i < indexes.length; i++) {
+            if (i == 0 || indexes[i] != indexes[i - 1]) {
+                indexes[size++] = indexes[i];
+            }
+        }
+        Lock[] locked = new Lock[size];
+        int acquired = 0;
+        try {
+            for (; acquired < size; acquired++) {
+                locked[acquired] = stripes[indexes[acquired]];
+                locked[acquired].lock();
+            }
+        } catch (RuntimeException | Error e) {
+            // 加锁过程中出错，把已经拿到的锁释放掉
+            unlock(locked, acquired);
+            throw e;
+        }
+        return new Locked(locked);
+    }
+
+    public int size() {
+        return stripes.length;
+    }
+
+    int indexFor(Object key) {
+        int h = key == null ? 0 : key.hashCode();
+        // 和 HashMap 一样把高位混到低位，避免只看低位时 hash 分布不均
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    private static void unlock(Lock[] locks, int count) {
+        for (int i = count - 1; i >= 0; i--) {
+            locks[i].unlock();
+        }
+    }
+
+    /**
+     * {@link #lockAll(Object...)} 拿到的一组锁
+     */
+    public static final class Locked implements AutoCloseable {
+
+        private final Lock[] locks;
+
+        private boolean closed;
+
+        Locked(Lock[] locks) {
+            this.locks = locks;
+        }
+
+        /**
+         * 释放全部锁，只能由加锁线程调用，重复调用无效
+         */
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                unlock(locks, locks.length);
+            }
+        }
+    }
+
+    /**
+     * 带填充的非公平同步器，填充字段排在 AQS 的 state 之后
+     */
+    @SuppressWarnings("unused")
+    static final class PaddedNonfairSync extends MyReentrantMutex.NonfairSync {
+
+        long p0, p1, p2, p3, p4, p5, p6, p7;
+    }
+
+    /**
+     * 带填充的公平同步器
+     */
+    @SuppressWarnings("unused")
+    static final class PaddedFairSync extends MyReentrantMutex.FairSync {
+
+        long p0, p1, p2, p3, p4, p5, p6, p7;
+    }
+}
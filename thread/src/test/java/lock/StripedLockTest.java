@@ -0,0 +1,74 @@
+package lock;
+
+import org.junit.jupiter.api.Test;
+import util.SmallTool;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.Lock;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * {@link StripedLock} 用法示例：按账户加锁转账
+ */
+public class StripedLockTest {
+
+    private static final int ACCOUNTS = 100;
+
+    private final long[] balances = new long[ACCOUNTS];
+
+    @Test
+    public void get() {
+        StripedLock stripedLock = new StripedLock(10);
+        // 向上取整到 2 的幂
+        assertEquals(16, stripedLock.size());
+        assertSame(stripedLock.get("account-1"), stripedLock.get("account-1"));
+        Lock lock = stripedLock.get(1);
+        lock.lock();
+        try {
+            // 可重入
+            lock.lock();
+            lock.unlock();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 多线程随机互相转账，双方账户一起加锁；加锁顺序不一致的话很快就会死锁
+     */
+    @Test
+    public void transfer() throws InterruptedException {
+        StripedLock stripedLock = new StripedLock(16);
+        for (int i = 0; i < ACCOUNTS; i++) {
+            balances[i] = 1000;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        CountDownLatch latch = new CountDownLatch(8);
+        for (int t = 0; t < 8; t++) {
+            executor.execute(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < 20_000; i++) {
+                    int from = random.nextInt(ACCOUNTS);
+                    int to = random.nextInt(ACCOUNTS);
+                    try (StripedLock.Locked ignored = stripedLock.lockAll(from, to)) {
+                        balances[from] -= 1;
+                        balances[to] += 1;
+                    }
+                }
+                latch.countDown();
+            });
+        }
+        latch.await();
+        executor.shutdown();
+        long total = 0;
+        for (long balance : balances) {
+            total += balance;
+        }
+        SmallTool.printTimeAndThread("total=" + total);
+        assertEquals(1000L * ACCOUNTS, total);
+    }
+}
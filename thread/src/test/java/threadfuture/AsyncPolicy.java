@@ -0,0 +1,414 @@
+package threadfuture;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import threadpool.HashedWheelTimer;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * 异步调用的容错组合：超时、截止时间、带抖动的退避重试、舱壁、熔断
+ * <p>{@link CompletableFutureTest#applyToEither_exceptionally()} 里 700 路坏了就叫出租车，但是没有超时（车一直不来就一直等）、
+ * 不会重试，下游一直失败也还是一直调用。这里把几种常见的容错手段组合在一起，每次尝试的顺序：</p>
+ * <ol>
+ *     <li>舱壁（bulkhead）：同时在途的调用数有上限，满了直接拒绝，一个慢依赖占不满调用方的所有资源</li>
+ *     <li>熔断（{@link CircuitBreaker}）：打开时直接拒绝，不调用下游</li>
+ *     <li>单次超时：到期把这次尝试的 Future 取消，当作失败</li>
+ *     <li>
+ *         重试：失败且可重试时，等一段退避时间再发起下一次。退避时间是 [0, min(maxBackoff, baseBackoff * 2^n)] 里的随机数（full jitter），
+ *         大量调用方同时失败时，重试不会在同一时刻一起打到下游
+ *     </li>
+ *     <li>截止时间：整个调用（包括所有重试）的总时限</li>
+ * </ol>
+ * 超时、退避都挂在同一个 {@link HashedWheelTimer} 上，schedule 和 cancel 都是 O(1)，不会每次调用都往 ScheduledThreadPoolExecutor 的堆里插一个任务。
+ * 定时器线程只负责完成 Future，重试的调用转交给 executor 执行
+ * <p>同时支持 {@link CompletableFuture} 和 Guava 的 {@link ListenableFuture}，两者之间用 {@link FutureBridge} 转换</p>
+ */
+public final class AsyncPolicy {
+
+    private static final long NONE = 0;
+
+    private final HashedWheelTimer timer;
+
+    private final Executor executor;
+
+    private final long attemptTimeoutNanos;
+
+    private final long deadlineNanos;
+
+    private final int maxAttempts;
+
+    private final long baseBackoffNanos;
+
+    private final long maxBackoffNanos;
+
+    private final Predicate<Throwable> retryOn;
+
+    private final Semaphore bulkhead;
+
+    private final CircuitBreaker circuitBreaker;
+
+    private final LongAdder retries = new LongAdder();
+
+    private final LongAdder timeouts = new LongAdder();
+
+    private final LongAdder bulkheadRejected = new LongAdder();
+
+    private AsyncPolicy(Builder builder) {
+        this.timer = builder.timer != null ? builder.timer : SharedTimer.INSTANCE;
+        this.executor = builder.executor != null ? builder.executor : ForkJoinPool.commonPool();
+        this.attemptTimeoutNanos = builder.attemptTimeoutNanos;
+        this.deadlineNanos = builder.deadlineNanos;
+        this.maxAttempts = builder.maxAttempts;
+        this.baseBackoffNanos = builder.baseBackoffNanos;
+        this.maxBackoffNanos = builder.maxBackoffNanos;
+        this.retryOn = builder.retryOn;
+        this.bulkhead = builder.maxConcurrentCalls > 0 ? new Semaphore(builder.maxConcurrentCalls) : null;
+        this.circuitBreaker = builder.circuitBreaker;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * 按策略执行异步调用；第一次尝试在调用线程里发起，重试在 executor 里发起
+     *
+     * @param call 每次尝试调用一次，返回这次尝试的 Future
+     */
+    public <T> CompletableFuture<T> call(Supplier<? extends CompletionStage<T>> call) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Execution<T> execution = new Execution<>(call, result);
+        if (deadlineNanos != NONE) {
+            HashedWheelTimer.Timeout deadline = timer.newTimeout(
+                    () -> execution.expire(new TimeoutException("deadline exceeded")),
+                    deadlineNanos, TimeUnit.NANOSECONDS);
+            result.whenComplete((v, t) -> deadline.cancel());
+        }
+        // 调用方取消了，把正在进行的尝试也取消
+        result.whenComplete((v, t) -> execution.cancelCurrent());
+        execution.attempt(1);
+        return result;
+    }
+
+    /**
+     * {@link #call(Supplier)} 的 ListenableFuture 版本
+     */
+    public <T> ListenableFuture<T> callListenable(Supplier<? extends ListenableFuture<T>> call) {
+        return FutureBridge.toListenable(call(() -> FutureBridge.toCompletable(call.get())));
+    }
+
+    /**
+     * 给一个 Future 加超时：到期返回的 Future 以 {@link TimeoutException} 失败，原 Future 被取消
+     */
+    public <T> CompletableFuture<T> withTimeout(CompletionStage<T> stage, long timeout, TimeUnit unit) {
+        CompletableFuture<T> source = stage.toCompletableFuture();
+        return withTimeout(source, source, timeout, unit);
+    }
+
+    /**
+     * 到期取消 source，结果跟着 watched 走；watched 是 source 的下游，保证 source 完成时挂在它上面的回调先执行完
+     */
+    private <T> CompletableFuture<T> withTimeout(CompletableFuture<?> source, CompletableFuture<T> watched,
+                                                 long timeout, TimeUnit unit) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        AtomicBoolean timedOut = new AtomicBoolean();
+        HashedWheelTimer.Timeout expiry = timer.newTimeout(() -> {
+            if (!result.isDone() && timedOut.compareAndSet(false, true)) {
+                // 先计数、取消原 Future 再完成 result，等在 result 上的线程醒来时这些都已经发生了
+                timeouts.increment();
+                source.cancel(true);
+                result.completeExceptionally(new TimeoutException());
+            }
+        }, timeout, unit);
+        watched.whenComplete((v, t) -> {
+            expiry.cancel();
+            if (timedOut.get()) {
+                result.completeExceptionally(new TimeoutException());
+            } else if (t == null) {
+                result.complete(v);
+            } else {
+                result.completeExceptionally(unwrap(t));
+            }
+        });
+        return result;
+    }
+
+    /**
+     * {@link #withTimeout(CompletionStage, long, TimeUnit)} 的 ListenableFuture 版本
+     */
+    public <T> ListenableFuture<T> withTimeout(ListenableFuture<T> future, long timeout, TimeUnit unit) {
+        return FutureBridge.toListenable(withTimeout(FutureBridge.toCompletable(future), timeout, unit));
+    }
+
+    /**
+     * 重试次数（不含第一次）
+     */
+    public long getRetries() {
+        return retries.sum();
+    }
+
+    /**
+     * 单次超时的次数
+     */
+    public long getTimeouts() {
+        return timeouts.sum();
+    }
+
+    /**
+     * 因为舱壁满了被拒绝的次数
+     */
+    public long getBulkheadRejected() {
+        return bulkheadRejected.sum();
+    }
+
+    /**
+     * 舱壁剩余的名额，没有配置舱壁时为 -1
+     */
+    public int getAvailableConcurrentCalls() {
+        return bulkhead == null ? -1 : bulkhead.availablePermits();
+    }
+
+    private long backoffNanos(int attempt) {
+        if (baseBackoffNanos == NONE) {
+            return 0;
+        }
+        long cap = attempt - 1 >= 62 || baseBackoffNanos > (maxBackoffNanos >> (attempt - 1))
+                ? maxBackoffNanos : baseBackoffNanos << (attempt - 1);
+        return ThreadLocalRandom.current().nextLong(cap + 1);
+    }
+
+    private static Throwable unwrap(Throwable t) {
+        return t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+    }
+
+    /**
+     * 一次 {@link #call(Supplier)} 的状态
+     */
+    private final class Execution<T> {
+
+        final Supplier<? extends CompletionStage<T>> call;
+
+        final CompletableFuture<T> result;
+
+        /**
+         * 正在进行的尝试，是 call 返回的原始 Future，不是加了单次超时的包装：取消要取消到真正的调用上
+         */
+        volatile Future<?> current;
+
+        /**
+         * 截止时间到了时的异常，被取消的尝试失败时用它完成 result，而不是 CancellationException
+         */
+        volatile Throwable expired;
+
+        Execution(Supplier<? extends CompletionStage<T>> call, CompletableFuture<T> result) {
+            this.call = call;
+            this.result = result;
+        }
+
+        void attempt(int n) {
+            if (result.isDone()) {
+                return;
+            }
+            if (bulkhead != null && !bulkhead.tryAcquire()) {
+                bulkheadRejected.increment();
+                onFailure(n, new RejectedExecutionException("bulkhead full"));
+                return;
+            }
+            if (circuitBreaker != null && !circuitBreaker.tryAcquirePermission()) {
+                release();
+                onFailure(n, new RejectedExecutionException("circuit breaker open"));
+                return;
+            }
+            CompletableFuture<T> source;
+            try {
+                source = call.get().toCompletableFuture();
+            } catch (Throwable t) {
+                source = new CompletableFuture<>();
+                source.completeExceptionally(t);
+            }
+            current = source;
+            // 舱壁名额跟着真正的调用走，单次超时后调用还没结束就不归还；下面的结果处理都排在归还之后，重试时名额已经空出来了
+            CompletableFuture<T> attempt = source.whenComplete((v, t) -> release());
+            if (attemptTimeoutNanos != NONE) {
+                attempt = withTimeout(source, attempt, attemptTimeoutNanos, TimeUnit.NANOSECONDS);
+            }
+            attempt.whenComplete((v, t) -> {
+                if (t == null) {
+                    if (circuitBreaker != null) {
+                        circuitBreaker.onSuccess();
+                    }
+                    result.complete(v);
+                    return;
+                }
+                Throwable cause = unwrap(t);
+                if (circuitBreaker != null) {
+                    if (cause instanceof CancellationException) {
+                        circuitBreaker.releasePermission();
+                    } else {
+                        circuitBreaker.onFailure();
+                    }
+                }
+                onFailure(n, cause);
+            });
+            if (result.isDone()) {
+                // 发起尝试的同时截止时间到了，call() 里的取消可能没看到这次尝试
+                source.cancel(true);
+            }
+        }
+
+        /**
+         * 截止时间到了：先取消正在进行的尝试再完成 result，等在 result 上的线程醒来时它已经被取消、舱壁名额已经归还
+         */
+        void expire(Throwable cause) {
+            expired = cause;
+            cancelCurrent();
+            result.completeExceptionally(cause);
+        }
+
+        void cancelCurrent() {
+            Future<?> attempt = current;
+            if (attempt != null && !attempt.isDone()) {
+                attempt.cancel(true);
+            }
+        }
+
+        void onFailure(int n, Throwable cause) {
+            Throwable expired = this.expired;
+            if (expired != null) {
+                result.completeExceptionally(expired);
+                return;
+            }
+            if (n >= maxAttempts || result.isDone() || !retryOn.test(cause)) {
+                result.completeExceptionally(cause);
+                return;
+            }
+            retries.increment();
+            long backoff = backoffNanos(n);
+            Runnable next = () -> executor.execute(() -> attempt(n + 1));
+            if (backoff <= 0) {
+                next.run();
+            } else {
+                timer.newTimeout(next, backoff, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        void release() {
+            if (bulkhead != null) {
+                bulkhead.release();
+            }
+        }
+    }
+
+    /**
+     * 没有指定定时器时，所有策略共用一个
+     */
+    private static final class SharedTimer {
+
+        static final HashedWheelTimer INSTANCE = new HashedWheelTimer();
+    }
+
+    public static final class Builder {
+
+        private HashedWheelTimer timer;
+
+        private Executor executor;
+
+        private long attemptTimeoutNanos = NONE;
+
+        private long deadlineNanos = NONE;
+
+        private int maxAttempts = 1;
+
+        private long baseBackoffNanos = NONE;
+
+        private long maxBackoffNanos = NONE;
+
+        private Predicate<Throwable> retryOn = t -> !(t instanceof RejectedExecutionException)
+                && !(t instanceof CancellationException);
+
+        private int maxConcurrentCalls;
+
+        private CircuitBreaker circuitBreaker;
+
+        private Builder() {
+        }
+
+        /**
+         * 共用的定时器，默认是进程内共享的一个 {@link HashedWheelTimer}
+         */
+        public Builder timer(HashedWheelTimer timer) {
+            this.timer = timer;
+            return this;
+        }
+
+        /**
+         * 发起重试的线程池，默认 {@link ForkJoinPool#commonPool()}
+         */
+        public Builder executor(Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        /**
+         * 单次尝试的超时
+         */
+        public Builder timeout(long timeout, TimeUnit unit) {
+            this.attemptTimeoutNanos = unit.toNanos(timeout);
+            return this;
+        }
+
+        /**
+         * 整个调用（包括所有重试）的截止时间
+         */
+        public Builder deadline(long timeout, TimeUnit unit) {
+            this.deadlineNanos = unit.toNanos(timeout);
+            return this;
+        }
+
+        /**
+         * @param maxAttempts 最多尝试几次（含第一次）
+         * @param baseBackoff 第一次重试前的最大退避时间，之后每次翻倍，不超过 maxBackoff
+         */
+        public Builder retry(int maxAttempts, long baseBackoff, long maxBackoff, TimeUnit unit) {
+            if (maxAttempts <= 0 || baseBackoff < 0 || maxBackoff < baseBackoff) {
+                throw new IllegalArgumentException();
+            }
+            this.maxAttempts = maxAttempts;
+            this.baseBackoffNanos = unit.toNanos(baseBackoff);
+            this.maxBackoffNanos = unit.toNanos(maxBackoff);
+            return this;
+        }
+
+        /**
+         * 哪些异常可以重试，默认除了舱壁、熔断的拒绝和取消之外都重试
+         */
+        public Builder retryOn(Predicate<Throwable> retryOn) {
+            this.retryOn = retryOn;
+            return this;
+        }
+
+        /**
+         * 舱壁：同时在途的调用数上限
+         */
+        public Builder bulkhead(int maxConcurrentCalls) {
+            if (maxConcurrentCalls <= 0) {
+                throw new IllegalArgumentException();
+            }
+            this.maxConcurrentCalls = maxConcurrentCalls;
+            return this;
+        }
+
+        public Builder circuitBreaker(CircuitBreaker circuitBreaker) {
+            this.circuitBreaker = circuitBreaker;
+            return this;
+        }
+
+        public AsyncPolicy build() {
+            return new AsyncPolicy(this);
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package threadfuture;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.junit.jupiter.api.Test;
+import util.SmallTool;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * {@link AsyncPolicy}、{@link CircuitBreaker} 用法示例
+ */
+public class AsyncPolicyTest {
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(10);
+
+    /**
+     * {@link CompletableFutureTest#applyToEither_exceptionally()} 的改写：700 路 100ms 还没来就不等了，叫出租车
+     */
+    @Test
+    public void timeout() {
+        AsyncPolicy policy = AsyncPolicy.builder().timeout(100, TimeUnit.MILLISECONDS).build();
+        long start = System.currentTimeMillis();
+        String result = policy.<String>call(() -> CompletableFuture.supplyAsync(() -> {
+            SmallTool.printTimeAndThread("700路公交正在赶来");
+            SmallTool.sleepMillis(500);
+            return "700路到了";
+        }, executor)).exceptionally(e -> {
+            SmallTool.printTimeAndThread(e + "，小白叫出租车");
+            return "出租车 叫到了";
+        }).join();
+        SmallTool.printTimeAndThread(result + "，小白坐车回家");
+        assertEquals("出租车 叫到了", result);
+        assertTrue(System.currentTimeMillis() - start < 400);
+        assertEquals(1, policy.getTimeouts());
+        executor.shutdown();
+    }
+
+    /**
+     * 失败两次，第三次成功；重试之间有随机的退避
+     */
+    @Test
+    public void retry() {
+        AtomicInteger attempts = new AtomicInteger();
+        AsyncPolicy policy = AsyncPolicy.builder()
+                .executor(executor)
+                .retry(5, 10, 100, TimeUnit.MILLISECONDS)
+                .build();
+        String result = policy.<String>call(() -> CompletableFuture.supplyAsync(() -> {
+            if (attempts.incrementAndGet() < 3) {
+                throw new IllegalStateException("700路公交车故障");
+            }
+            return "700路到了";
+        }, executor)).join();
+        assertEquals("700路到了", result);
+        assertEquals(3, attempts.get());
+        assertEquals(2, policy.getRetries());
+
+        // 不可重试的异常直接失败
+        AsyncPolicy noRetryOnIllegalArgument = AsyncPolicy.builder()
+                .retry(5, 0, 0, TimeUnit.MILLISECONDS)
+                .retryOn(t -> !(t instanceof IllegalArgumentException))
+                .build();
+        attempts.set(0);
+        CompletionException e = assertThrows(CompletionException.class, () -> noRetryOnIllegalArgument.<String>call(() -> {
+            attempts.incrementAndGet();
+            throw new IllegalArgumentException("wrong bus");
+        }).join());
+        assertTrue(e.getCause() instanceof IllegalArgumentException);
+        assertEquals(1, attempts.get());
+        executor.shutdown();
+    }
+
+    /**
+     * 每次都超时，重试到截止时间为止
+     */
+    @Test
+    public void deadline() {
+        AtomicInteger attempts = new AtomicInteger();
+        AsyncPolicy policy = AsyncPolicy.builder()
+                .executor(executor)
+                .timeout(30, TimeUnit.MILLISECONDS)
+                .retry(100, 0, 0, TimeUnit.MILLISECONDS)
+                .deadline(200, TimeUnit.MILLISECONDS)
+                .build();
+        long start = System.currentTimeMillis();
+        CompletionException e = assertThrows(CompletionException.class, () -> policy.<String>call(() -> {
+            attempts.incrementAndGet();
+            return new CompletableFuture<>();
+        }).join());
+        long elapsed = System.currentTimeMillis() - start;
+        SmallTool.printTimeAndThread("尝试了 " + attempts.get() + " 次，耗时 " + elapsed + "ms");
+        assertTrue(e.getCause() instanceof TimeoutException);
+        assertTrue(elapsed >= 190 && elapsed < 500, "elapsed " + elapsed);
+        assertTrue(attempts.get() > 1 && attempts.get() < 100);
+
+        // 单次超时比截止时间长：截止时间到了要取消真正在途的调用，舱壁名额在它结束时才归还
+        CompletableFuture<String> inFlight = new CompletableFuture<>();
+        AsyncPolicy slow = AsyncPolicy.builder()
+                .timeout(10, TimeUnit.SECONDS)
+                .deadline(200, TimeUnit.MILLISECONDS)
+                .bulkhead(1)
+                .build();
+        CompletableFuture<String> call = slow.call(() -> inFlight);
+        assertEquals(0, slow.getAvailableConcurrentCalls());
+        e = assertThrows(CompletionException.class, call::join);
+        assertTrue(e.getCause() instanceof TimeoutException);
+        assertTrue(inFlight.isCancelled());
+        assertEquals(1, slow.getAvailableConcurrentCalls());
+        executor.shutdown();
+    }
+
+    /**
+     * 舱壁：同时最多 2 个调用，第 3 个直接拒绝
+     */
+    @Test
+    public void bulkhead() {
+        AsyncPolicy policy = AsyncPolicy.builder().bulkhead(2).build();
+        CompletableFuture<String> first = new CompletableFuture<>();
+        CompletableFuture<String> second = new CompletableFuture<>();
+        CompletableFuture<String> a = policy.call(() -> first);
+        CompletableFuture<String> b = policy.call(() -> second);
+        CompletableFuture<String> c = policy.call(() -> CompletableFuture.completedFuture("c"));
+        assertEquals(0, policy.getAvailableConcurrentCalls());
+        CompletionException e = assertThrows(CompletionException.class, c::join);
+        assertTrue(e.getCause() instanceof RejectedExecutionException);
+        assertEquals(1, policy.getBulkheadRejected());
+        first.complete("a");
+        second.complete("b");
+        assertEquals("a", a.join());
+        assertEquals("b", b.join());
+        assertEquals("d", policy.call(() -> CompletableFuture.completedFuture("d")).join());
+        assertEquals(2, policy.getAvailableConcurrentCalls());
+        executor.shutdown();
+    }
+
+    /**
+     * 失败率达到 50% 打开，打开期间不调用下游；100ms 后半开，试探成功就关闭
+     */
+    @Test
+    public void circuitBreaker() {
+        CircuitBreaker breaker = new CircuitBreaker(10, 0.5, 100, TimeUnit.MILLISECONDS, 2);
+        AsyncPolicy policy = AsyncPolicy.builder().circuitBreaker(breaker).build();
+        AtomicInteger calls = new AtomicInteger();
+        for (int i = 0; i < 10; i++) {
+            boolean fail = i % 2 == 0;
+            policy.call(() -> {
+                calls.incrementAndGet();
+                CompletableFuture<String> future = new CompletableFuture<>();
+                if (fail) {
+                    future.completeExceptionally(new IllegalStateException("down"));
+                } else {
+                    future.complete("ok");
+                }
+                return future;
+            });
+        }
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        for (int i = 0; i < 5; i++) {
+            CompletionException e = assertThrows(CompletionException.class,
+                    () -> policy.call(() -> CompletableFuture.completedFuture(calls.incrementAndGet())).join());
+            assertEquals("circuit breaker open", e.getCause().getMessage());
+        }
+        assertEquals(10, calls.get());
+        assertEquals(5, breaker.getRejected());
+
+        SmallTool.sleepMillis(120);
+        assertEquals(Integer.valueOf(11), policy.call(() -> CompletableFuture.completedFuture(calls.incrementAndGet())).join());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertEquals(Integer.valueOf(12), policy.call(() -> CompletableFuture.completedFuture(calls.incrementAndGet())).join());
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        executor.shutdown();
+    }
+
+    /**
+     * Guava ListenableFuture 也能用，超时的原 Future 被取消
+     */
+    @Test
+    public void listenable() throws Exception {
+        ListeningExecutorService les = MoreExecutors.listeningDecorator(executor);
+        AsyncPolicy policy = AsyncPolicy.builder()
+                .timeout(50, TimeUnit.MILLISECONDS)
+                .retry(3, 0, 0, TimeUnit.MILLISECONDS)
+                .build();
+        AtomicInteger attempts = new AtomicInteger();
+        ListenableFuture<String> result = policy.callListenable(() -> les.submit(() -> {
+            if (attempts.incrementAndGet() == 1) {
+                SmallTool.sleepMillis(1000);
+            }
+            return "second try";
+        }));
+        assertEquals("second try", result.get(1, TimeUnit.SECONDS));
+
+        ListenableFuture<String> slow = les.submit(() -> {
+            SmallTool.sleepMillis(1000);
+            return "slow";
+        });
+        ExecutionException e = assertThrows(ExecutionException.class,
+                () -> policy.withTimeout(slow, 50, TimeUnit.MILLISECONDS).get());
+        assertTrue(e.getCause() instanceof TimeoutException);
+        assertTrue(slow.isCancelled());
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,185 @@
+package threadfuture;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 熔断器：下游持续失败时暂时不再调用，给它恢复的时间，也避免调用方的线程、连接都耗在必然失败的请求上
+ * <ul>
+ *     <li>CLOSED：正常调用，每 windowSize 次调用统计一次失败率，达到阈值就打开</li>
+ *     <li>OPEN：直接拒绝，不调用下游；过了 openDuration 转为半开</li>
+ *     <li>HALF_OPEN：放行 trialCalls 个试探请求，全部成功才关闭，有一个失败就重新打开</li>
+ * </ul>
+ * 状态是一个不可变对象，转换用 CAS 替换；OPEN 到 HALF_OPEN 在下一次调用时顺便检查，不需要定时器。
+ * 一个下游依赖一个熔断器，多个 {@link AsyncPolicy} 可以共用
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final int windowSize;
+
+    private final double failureRateThreshold;
+
+    private final long openNanos;
+
+    private final int trialCalls;
+
+    private final AtomicReference<Status> status;
+
+    private final LongAdder rejected = new LongAdder();
+
+    private final LongAdder opened = new LongAdder();
+
+    /**
+     * @param windowSize           每多少次调用统计一次失败率
+     * @param failureRateThreshold 失败率阈值，0~1
+     * @param openDuration         打开后多久进入半开
+     * @param trialCalls           半开时放行的试探请求数
+     */
+    public CircuitBreaker(int windowSize, double failureRateThreshold, long openDuration, TimeUnit unit, int trialCalls) {
+        if (windowSize <= 0 || failureRateThreshold <= 0 || failureRateThreshold > 1 || trialCalls <= 0) {
+            throw new IllegalArgumentException();
+        }
+        this.windowSize = windowSize;
+        this.failureRateThreshold = failureRateThreshold;
+        this.openNanos = unit.toNanos(openDuration);
+        this.trialCalls = trialCalls;
+        this.status = new AtomicReference<>(closed());
+    }
+
+    /**
+     * 调用前申请许可；拿到许可的调用结束后必须调用 {@link #onSuccess()}、{@link #onFailure()} 或 {@link #releasePermission()}
+     */
+    public boolean tryAcquirePermission() {
+        for (; ; ) {
+            Status current = status.get();
+            switch (current.state) {
+                case CLOSED:
+                    return true;
+                case OPEN:
+                    if (System.nanoTime() - current.openedAt < openNanos) {
+                        rejected.increment();
+                        return false;
+                    }
+                    status.compareAndSet(current, new Status(State.HALF_OPEN, 0, trialCalls));
+                    break;
+                default:
+                    if (current.permits.getAndDecrement() > 0) {
+                        return true;
+                    }
+                    current.permits.incrementAndGet();
+                    rejected.increment();
+                    return false;
+            }
+        }
+    }
+
+    /**
+     * 拿到许可但没有真正调用（比如被取消），把半开状态的试探名额还回去
+     */
+    public void releasePermission() {
+        Status current = status.get();
+        if (current.state == State.HALF_OPEN) {
+            current.permits.incrementAndGet();
+        }
+    }
+
+    public void onSuccess() {
+        Status current = status.get();
+        if (current.state == State.HALF_OPEN) {
+            if (current.successes.incrementAndGet() >= trialCalls) {
+                status.compareAndSet(current, closed());
+            }
+        } else if (current.state == State.CLOSED) {
+            record(current, false);
+        }
+    }
+
+    public void onFailure() {
+        Status current = status.get();
+        if (current.state == State.HALF_OPEN) {
+            open(current);
+        } else if (current.state == State.CLOSED) {
+            record(current, true);
+        }
+    }
+
+    public State getState() {
+        return status.get().state;
+    }
+
+    /**
+     * 因为熔断被拒绝的调用数
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    /**
+     * 打开过的次数
+     */
+    public long getOpened() {
+        return opened.sum();
+    }
+
+    private void record(Status current, boolean failure) {
+        // 先记失败再记次数，统计到第 windowSize 次的线程一定看得到窗口内所有的失败
+        if (failure) {
+            current.failures.incrementAndGet();
+        }
+        if (current.calls.incrementAndGet() != windowSize) {
+            return;
+        }
+        if (current.failures.get() >= failureRateThreshold * windowSize) {
+            open(current);
+        } else {
+            // 滚动到下一个窗口
+            status.compareAndSet(current, closed());
+        }
+    }
+
+    private void open(Status current) {
+        if (status.compareAndSet(current, new Status(State.OPEN, System.nanoTime(), 0))) {
+            opened.increment();
+        }
+    }
+
+    private Status closed() {
+        return new Status(State.CLOSED, 0, 0);
+    }
+
+    /**
+     * 一个状态以及这个状态下的计数，换状态就换一个新对象，计数自然清零
+     */
+    private static final class Status {
+
+        final State state;
+
+        final long openedAt;
+
+        /**
+         * CLOSED：本窗口的调用数和失败数
+         */
+        final AtomicInteger calls = new AtomicInteger();
+
+        final AtomicInteger failures = new AtomicInteger();
+
+        /**
+         * HALF_OPEN：剩余的试探名额和已成功的试探数
+         */
+        final AtomicInteger permits;
+
+        final AtomicInteger successes = new AtomicInteger();
+
+        Status(State state, long openedAt, int permits) {
+            this.state = state;
+            this.openedAt = openedAt;
+            this.permits = new AtomicInteger(permits);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package threadfuture;
+
+import com.google.common.util.concurrent.AbstractFuture;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.function.BiConsumer;
+
+/**
+ * Guava {@link ListenableFuture} 与 {@link CompletableFuture} 的双向转换
+ * <p>常见的写法是 {@code CompletableFuture.supplyAsync(() -> listenable.get())}，为了等结果占住一个线程；
+ * 或者 SettableFuture 加 whenComplete，只传了结果，取消传不过去。这里：</p>
+ * <ul>
+ *     <li>
+ *         完成的传递靠原 Future 的回调，在完成原 Future 的线程里直接执行（directExecutor），不占线程、不阻塞；
+ *         转换出来的对象本身就是回调，每次转换只多分配这一个对象
+ *     </li>
+ *     <li>
+ *         取消双向传递：取消转换出来的 Future 会取消原 Future（mayInterruptIfRunning 原样传过去）；
+ *         原 Future 被取消，转换出来的也是取消状态，而不是以 CancellationException 失败
+ *     </li>
+ *     <li>失败的异常去掉 CompletionException / ExecutionException 的包装，两边拿到的是同一个原始异常</li>
+ *     <li>
+ *         往返不套娃：转换出来的对象再转回去，直接返回原来的 Future。转换出来的 CompletableFuture 不要再手动 complete，
+ *         否则往返后拿到的原 Future 看不到这个结果
+ *     </li>
+ * </ul>
+ */
+public final class FutureBridge {
+
+    private FutureBridge() {
+    }
+
+    /**
+     * ListenableFuture 转 CompletableFuture
+     */
+    public static <T> CompletableFuture<T> toCompletable(ListenableFuture<T> future) {
+        if (future instanceof ListenableView) {
+            return ((ListenableView<T>) future).source;
+        }
+        CompletableView<T> view = new CompletableView<>(future);
+        future.addListener(view, MoreExecutors.directExecutor());
+        return view;
+    }
+
+    /**
+     * CompletionStage（包括 CompletableFuture）转 ListenableFuture
+     */
+    public static <T> ListenableFuture<T> toListenable(CompletionStage<T> stage) {
+        if (stage instanceof CompletableView) {
+            return ((CompletableView<T>) stage).source;
+        }
+        CompletableFuture<T> source = stage.toCompletableFuture();
+        ListenableView<T> view = new ListenableView<>(source);
+        source.whenComplete(view);
+        return view;
+    }
+
+    static Throwable unwrap(Throwable t) {
+        return (t instanceof CompletionException || t instanceof ExecutionException) && t.getCause() != null ? t.getCause() : t;
+    }
+
+    /**
+     * 由 ListenableFuture 完成的 CompletableFuture，自己就是挂在原 Future 上的监听器
+     */
+    private static final class CompletableView<T> extends CompletableFuture<T> implements Runnable {
+
+        private final ListenableFuture<T> source;
+
+        CompletableView(ListenableFuture<T> source) {
+            this.source = source;
+        }
+
+        @Override
+        public void run() {
+            if (source.isCancelled()) {
+                super.cancel(false);
+                return;
+            }
+            try {
+                complete(Futures.getDone(source));
+            } catch (ExecutionException e) {
+                completeExceptionally(unwrap(e));
+            } catch (CancellationException e) {
+                super.cancel(false);
+            }
+        }
+
+        /**
+         * 先取消原 Future 再取消自己，等在自己（以及下游）上的线程醒来时原 Future 已经是取消状态。
+         * 原 Future 的取消会经回调就地把自己也取消，所以两边都要算上
+         */
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean sourceCancelled = !isDone() && source.cancel(mayInterruptIfRunning);
+            return super.cancel(mayInterruptIfRunning) || sourceCancelled;
+        }
+    }
+
+    /**
+     * 由 CompletableFuture 完成的 ListenableFuture，自己就是原 Future 的 whenComplete 回调
+     */
+    private static final class ListenableView<T> extends AbstractFuture<T> implements BiConsumer<T, Throwable> {
+
+        private final CompletableFuture<T> source;
+
+        ListenableView(CompletableFuture<T> source) {
+            this.source = source;
+        }
+
+        @Override
+        public void accept(T value, Throwable t) {
+            if (t == null) {
+                set(value);
+            } else if (source.isCancelled()) {
+                super.cancel(false);
+            } else {
+                setException(unwrap(t));
+            }
+        }
+
+        /**
+         * 和 {@link CompletableView#cancel(boolean)} 一样先取消原 Future
+         */
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean sourceCancelled = !isDone() && source.cancel(mayInterruptIfRunning);
+            return super.cancel(mayInterruptIfRunning) || sourceCancelled;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package threadfuture;
+
+import com.google.common.util.concurrent.*;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import util.SmallTool;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * {@link FutureBridge} 用法示例
+ */
+public class FutureBridgeTest {
+
+    private final ListeningExecutorService les = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(10));
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(10);
+
+    @AfterEach
+    public void tearDown() {
+        les.shutdownNow();
+        executor.shutdownNow();
+    }
+
+    /**
+     * ListenableFuture 转 CompletableFuture，接着用 thenApply 编排；回调在完成原 Future 的线程里执行，没有多占线程
+     */
+    @Test
+    public void listenableToCompletable() {
+        AtomicReference<Thread> taskThread = new AtomicReference<>();
+        AtomicReference<Thread> callbackThread = new AtomicReference<>();
+        ListenableFuture<String> future = les.submit(() -> {
+            taskThread.set(Thread.currentThread());
+            SmallTool.sleepMillis(100);
+            return "番茄炒蛋";
+        });
+        String result = FutureBridge.toCompletable(future).thenApply(dish -> {
+            callbackThread.set(Thread.currentThread());
+            return dish + " + 米饭";
+        }).join();
+        SmallTool.printTimeAndThread(result);
+        assertEquals("番茄炒蛋 + 米饭", result);
+        assertSame(taskThread.get(), callbackThread.get());
+    }
+
+    @Test
+    public void completableToListenable() throws Exception {
+        CompletableFuture<String> future = CompletableFuture.supplyAsync(() -> {
+            SmallTool.sleepMillis(100);
+            return "番茄炒蛋";
+        }, executor);
+        ListenableFuture<String> listenable = Futures.transform(FutureBridge.toListenable(future), dish -> dish + " + 米饭",
+                MoreExecutors.directExecutor());
+        assertEquals("番茄炒蛋 + 米饭", listenable.get(1, TimeUnit.SECONDS));
+    }
+
+    /**
+     * 两个方向的失败都是原始异常，不带 CompletionException / ExecutionException 的包装
+     */
+    @Test
+    public void failure() {
+        IllegalStateException boom = new IllegalStateException("厨师不在");
+        CompletableFuture<String> completable = FutureBridge.toCompletable(Futures.immediateFailedFuture(boom));
+        ExecutionException e1 = assertThrows(ExecutionException.class, completable::get);
+        assertSame(boom, e1.getCause());
+
+        CompletableFuture<String> source = CompletableFuture.supplyAsync(() -> {
+            throw boom;
+        }, executor);
+        ExecutionException e2 = assertThrows(ExecutionException.class, () -> FutureBridge.toListenable(source).get());
+        assertSame(boom, e2.getCause());
+    }
+
+    /**
+     * 取消转换出来的 CompletableFuture，原 ListenableFuture 也被取消，正在执行的任务被打断
+     */
+    @Test
+    public void cancelCompletable() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        ListenableFuture<String> future = les.submit(() -> {
+            started.countDown();
+            try {
+                Thread.sleep(10_000);
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+                throw e;
+            }
+            return "番茄炒蛋";
+        });
+        CompletableFuture<String> completable = FutureBridge.toCompletable(future);
+        assertTrue(started.await(1, TimeUnit.SECONDS));
+        assertTrue(completable.cancel(true));
+        assertTrue(future.isCancelled());
+        assertTrue(interrupted.await(1, TimeUnit.SECONDS));
+    }
+
+    /**
+     * 取消转换出来的 ListenableFuture，原 CompletableFuture 也被取消；原 Future 被取消，转换出来的也是取消状态
+     */
+    @Test
+    public void cancelListenable() {
+        CompletableFuture<String> source = new CompletableFuture<>();
+        ListenableFuture<String> listenable = FutureBridge.toListenable(source);
+        assertTrue(listenable.cancel(false));
+        assertTrue(source.isCancelled());
+
+        SettableFuture<String> settable = SettableFuture.create();
+        CompletableFuture<String> completable = FutureBridge.toCompletable(settable);
+        settable.cancel(false);
+        assertTrue(completable.isCancelled());
+    }
+
+    /**
+     * 往返转换拿到的是原来的 Future，不会一层套一层
+     */
+    @Test
+    public void roundTrip() {
+        SettableFuture<String> settable = SettableFuture.create();
+        assertSame(settable, FutureBridge.toListenable(FutureBridge.toCompletable(settable)));
+        CompletableFuture<String> completable = new CompletableFuture<>();
+        assertSame(completable, FutureBridge.toCompletable(FutureBridge.toListenable(completable)));
+    }
+}
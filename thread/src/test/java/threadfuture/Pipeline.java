@@ -0,0 +1,177 @@
+package threadfuture;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+
+/**
+ * 基于 {@link CompletableFuture} 的流水线，每个阶段在哪个线程执行是确定的
+ * <p>{@link CompletableFutureTest#thenApply()} 里 thenApply 的回调可能在上一阶段的线程执行，也可能在 main 执行；
+ * 全换成 thenApplyAsync 线程确定了，但每个阶段都要新建一个 CompletableFuture、往线程池提交一次、换一次线程，
+ * 阶段很轻的时候这些开销比阶段本身大得多。流水线的做法：</p>
+ * <ul>
+ *     <li>{@link Builder#then(Function)}：轻量阶段，紧跟在上一阶段后面、在同一个线程里执行；第一个阶段就是调用 {@link #apply(Object)} 的线程</li>
+ *     <li>{@link Builder#thenAsync(Function, Executor)}：把阶段固定到某个线程池</li>
+ *     <li>
+ *         相邻的阶段只要在同一个线程里执行就合并成一段（fusion）：then 合并到上一段，
+ *         固定到同一个线程池的相邻 thenAsync 也合并，已经在这个线程池里了，没必要再提交一次。
+ *         每一段只对应一个 CompletableFuture、一次提交，段内的阶段是一个普通的 for 循环
+ *     </li>
+ * </ul>
+ * 构建好的流水线不可变，可以反复执行
+ *
+ * @param <I> 输入类型
+ * @param <O> 输出类型
+ */
+public final class Pipeline<I, O> {
+
+    private final Segment[] segments;
+
+    private final int stageCount;
+
+    private Pipeline(List<Segment> segments, int stageCount) {
+        this.segments = segments.toArray(new Segment[0]);
+        this.stageCount = stageCount;
+    }
+
+    /**
+     * 开始构建一条流水线
+     */
+    public static <I> Builder<I, I> builder() {
+        return new Builder<>();
+    }
+
+    /**
+     * 执行流水线；第一段没有固定线程池时，在调用线程里同步执行
+     */
+    @SuppressWarnings("unchecked")
+    public CompletableFuture<O> apply(I input) {
+        CompletableFuture<Object> future;
+        Segment first = segments[0];
+        if (first.executor == null) {
+            future = new CompletableFuture<>();
+            try {
+                future.complete(first.apply(input));
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+            }
+        } else {
+            future = CompletableFuture.supplyAsync(() -> first.apply(input), first.executor);
+        }
+        for (int i = 1; i < segments.length; i++) {
+            // 除第一段外，每一段都固定了线程池，没有固定的阶段已经合并到前一段
+            future = future.thenApplyAsync(segments[i], segments[i].executor);
+        }
+        return (CompletableFuture<O>) future;
+    }
+
+    /**
+     * 合并后的段数，也就是每次执行要提交到线程池的次数（第一段同步执行时不算）
+     */
+    public int getSegmentCount() {
+        return segments.length;
+    }
+
+    /**
+     * 合并前的阶段数
+     */
+    public int getStageCount() {
+        return stageCount;
+    }
+
+    /**
+     * 同一个线程里连续执行的几个阶段
+     */
+    private static final class Segment implements Function<Object, Object> {
+
+        /**
+         * null 表示在调用线程里执行，只有第一段可能为 null
+         */
+        final Executor executor;
+
+        final Function<Object, Object>[] stages;
+
+        Segment(Executor executor, Function<Object, Object>[] stages) {
+            this.executor = executor;
+            this.stages = stages;
+        }
+
+        @Override
+        public Object apply(Object value) {
+            for (Function<Object, Object> stage : stages) {
+                value = stage.apply(value);
+            }
+            return value;
+        }
+    }
+
+    /**
+     * 流水线构建器，类型参数 T 是当前最后一个阶段的输出类型；每次 then 返回的还是同一个构建器，只是类型变了
+     */
+    public static final class Builder<I, T> {
+
+        private final List<Executor> executors = new ArrayList<>();
+
+        private final List<List<Function<Object, Object>>> stages = new ArrayList<>();
+
+        private int stageCount;
+
+        private Builder() {
+        }
+
+        /**
+         * 轻量阶段，在上一阶段的线程里执行
+         */
+        public <R> Builder<I, R> then(Function<? super T, ? extends R> fn) {
+            if (stages.isEmpty()) {
+                return append(null, fn);
+            }
+            return append(executors.get(executors.size() - 1), fn);
+        }
+
+        /**
+         * 固定在 executor 里执行的阶段；和上一段是同一个线程池时合并，不再提交
+         */
+        public <R> Builder<I, R> thenAsync(Function<? super T, ? extends R> fn, Executor executor) {
+            if (executor == null) {
+                throw new NullPointerException();
+            }
+            return append(executor, fn);
+        }
+
+        public Pipeline<I, T> build() {
+            if (stages.isEmpty()) {
+                throw new IllegalStateException("empty pipeline");
+            }
+            List<Segment> segments = new ArrayList<>(stages.size());
+            for (int i = 0; i < stages.size(); i++) {
+                segments.add(newSegment(executors.get(i), stages.get(i)));
+            }
+            return new Pipeline<>(segments, stageCount);
+        }
+
+        private static Segment newSegment(Executor executor, List<Function<Object, Object>> functions) {
+            @SuppressWarnings("unchecked")
+            Function<Object, Object>[] array = (Function<Object, Object>[]) functions.toArray(new Function<?, ?>[0]);
+            return new Segment(executor, array);
+        }
+
+        @SuppressWarnings("unchecked")
+        private <R> Builder<I, R> append(Executor executor, Function<? super T, ? extends R> fn) {
+            if (fn == null) {
+                throw new NullPointerException();
+            }
+            int last = stages.size() - 1;
+            if (last < 0 || executors.get(last) != executor) {
+                executors.add(executor);
+                stages.add(new ArrayList<>());
+                last++;
+            }
+            stages.get(last).add((Function<Object, Object>) fn);
+            stageCount++;
+            return (Builder<I, R>) this;
+        }
+    }
+}
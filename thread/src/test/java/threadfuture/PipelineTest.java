@@ -0,0 +1,103 @@
+package threadfuture;
+
+import org.junit.jupiter.api.Test;
+import util.SmallTool;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * {@link Pipeline} 用法示例
+ */
+public class PipelineTest {
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(10, r -> new Thread(r, "executor"));
+
+    private final ExecutorService waiter = Executors.newFixedThreadPool(2, r -> new Thread(r, "waiter"));
+
+    /**
+     * 和 {@link CompletableFutureTest#thenApply()} 一样的点餐流程，但每一步在哪个线程执行是确定的
+     * <ol>
+     *     <li>小白点了番茄炒蛋+米饭 main</li>
+     *     <li>厨师炒饭 executor</li>
+     *     <li>装盘 executor（和炒饭合并成一段，不换线程）</li>
+     *     <li>服务员打饭 waiter</li>
+     *     <li>番茄炒蛋 + 米饭,小白开吃 main</li>
+     * </ol>
+     */
+    @Test
+    public void affinity() {
+        Pipeline<String, String> pipeline = Pipeline.<String>builder()
+                .then(order -> {
+                    SmallTool.printTimeAndThread("小白点了" + order);
+                    assertEquals("main", Thread.currentThread().getName());
+                    return order;
+                })
+                .thenAsync(order -> {
+                    SmallTool.printTimeAndThread("厨师炒饭");
+                    assertEquals("executor", Thread.currentThread().getName());
+                    return "番茄炒蛋";
+                }, executor)
+                .then(dish -> {
+                    SmallTool.printTimeAndThread("装盘");
+                    assertEquals("executor", Thread.currentThread().getName());
+                    return dish;
+                })
+                .thenAsync(dish -> {
+                    SmallTool.printTimeAndThread("服务员打饭");
+                    assertEquals("waiter", Thread.currentThread().getName());
+                    return dish + " + 米饭";
+                }, waiter)
+                .build();
+        assertEquals(4, pipeline.getStageCount());
+        assertEquals(3, pipeline.getSegmentCount());
+        SmallTool.printTimeAndThread(pipeline.apply("番茄炒蛋+米饭").join() + ",小白开吃");
+        executor.shutdown();
+        waiter.shutdown();
+    }
+
+    /**
+     * 固定到同一个线程池的 5 个阶段合并成一段，只提交一次
+     */
+    @Test
+    public void fusion() throws Exception {
+        Pipeline<Integer, Integer> pipeline = Pipeline.<Integer>builder()
+                .thenAsync(x -> x + 1, executor)
+                .thenAsync(x -> x * 2, executor)
+                .thenAsync(x -> x - 3, executor)
+                .then(x -> x * x)
+                .thenAsync(x -> x + 1, executor)
+                .build();
+        assertEquals(5, pipeline.getStageCount());
+        assertEquals(1, pipeline.getSegmentCount());
+        for (int i = 0; i < 100; i++) {
+            int expected = ((i + 1) * 2 - 3) * ((i + 1) * 2 - 3) + 1;
+            assertEquals(Integer.valueOf(expected), pipeline.apply(i).get(1, TimeUnit.SECONDS));
+        }
+        executor.shutdown();
+        waiter.shutdown();
+    }
+
+    /**
+     * 某个阶段抛异常，后面的阶段都跳过，异常传给返回的 CompletableFuture
+     */
+    @Test
+    public void exceptionally() {
+        Pipeline<List<String>, String> pipeline = Pipeline.<List<String>>builder()
+                .then(list -> list.get(0))
+                .thenAsync(String::trim, executor)
+                .thenAsync(String::toUpperCase, waiter)
+                .build();
+        assertEquals("A", pipeline.apply(Collections.singletonList(" a ")).join());
+        CompletableFuture<String> failed = pipeline.apply(Collections.emptyList());
+        CompletionException e = assertThrows(CompletionException.class, failed::join);
+        assertTrue(e.getCause() instanceof IndexOutOfBoundsException);
+        assertEquals("recovered", pipeline.apply(Collections.singletonList(null))
+                .exceptionally(t -> "recovered").join());
+        executor.shutdown();
+        waiter.shutdown();
+    }
+}
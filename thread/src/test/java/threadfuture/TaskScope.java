@@ -0,0 +1,309 @@
+package threadfuture;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 结构化并发的作用域：子任务的生命周期不超过作用域
+ * <p>{@link CompletableFutureTest#allOf()} 的问题：三个 runAsync 同时往一个 HashMap 里写，是数据竞争；
+ * 一个失败了另外几个照样执行，也没有超时。这里参考 JDK 21 的 StructuredTaskScope，但只依赖 Java 8 的 {@link Executor}：</p>
+ * <ul>
+ *     <li>{@link #joinAll(Executor)}：等全部成功；有一个失败就取消（中断）其余的兄弟任务，join 抛出这个异常</li>
+ *     <li>{@link #joinFirst(Executor)}：等第一个成功的，然后取消其余的；全部失败才抛异常</li>
+ *     <li>{@link #join(long, TimeUnit)} 带截止时间，到期取消所有子任务并抛出 {@link TimeoutException}</li>
+ *     <li>
+ *         {@link #close()} 取消还没完成的子任务，并且等正在执行的子任务真正退出，
+ *         try-with-resources 结束后不会有子任务还在后台跑
+ *     </li>
+ *     <li>
+ *         每个子任务的结果就存在它自己的 {@link Subtask} 里，子任务列表是 {@link ConcurrentLinkedQueue}，
+ *         失败、赢家都用 CAS 记录，整个过程不加锁；调用 join 的线程用 {@link LockSupport#park} 等待
+ *     </li>
+ * </ul>
+ * 只有创建作用域的线程（owner）可以 fork、join、close。executor 可以是普通线程池，
+ * 也可以是 JDK 21 的 Executors.newVirtualThreadPerTaskExecutor()，每个子任务一个虚拟线程
+ *
+ * @param <T> 子任务的结果类型
+ */
+public class TaskScope<T> implements AutoCloseable {
+
+    private final Executor executor;
+
+    /**
+     * true：第一个成功就结束；false：第一个失败就结束
+     */
+    private final boolean firstWins;
+
+    private final Thread owner = Thread.currentThread();
+
+    /**
+     * 按 fork 顺序排列；owner 添加，关闭作用域的线程（可能是失败的子任务）遍历
+     */
+    private final ConcurrentLinkedQueue<Subtask<T>> subtasks = new ConcurrentLinkedQueue<>();
+
+    /**
+     * 还没完成（成功、失败、取消）的子任务数
+     */
+    private final AtomicInteger pending = new AtomicInteger();
+
+    /**
+     * 正在 run() 里的子任务数，close 要等它归零
+     */
+    private final AtomicInteger active = new AtomicInteger();
+
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    private final AtomicReference<Subtask<T>> winner = new AtomicReference<>();
+
+    private volatile boolean shutdown;
+
+    /**
+     * close 已经开始，由最后一个退出 run() 的子任务唤醒 owner
+     */
+    private volatile boolean closed;
+
+    private boolean joined;
+
+    private TaskScope(Executor executor, boolean firstWins) {
+        if (executor == null) {
+            throw new NullPointerException();
+        }
+        this.executor = executor;
+        this.firstWins = firstWins;
+    }
+
+    /**
+     * 全部成功才算成功，一个失败就取消其余的
+     */
+    public static <T> TaskScope<T> joinAll(Executor executor) {
+        return new TaskScope<>(executor, false);
+    }
+
+    /**
+     * 第一个成功的结果，拿到后取消其余的
+     */
+    public static <T> TaskScope<T> joinFirst(Executor executor) {
+        return new TaskScope<>(executor, true);
+    }
+
+    /**
+     * 提交一个子任务；作用域已经结束（失败、已有赢家、超时）时，子任务直接被取消，不会执行
+     */
+    @SuppressWarnings("unchecked")
+    public Subtask<T> fork(Callable<? extends T> task) {
+        checkOwner();
+        if (closed) {
+            throw new IllegalStateException("scope closed");
+        }
+        Subtask<T> subtask = new Subtask<>(this, (Callable<T>) task);
+        pending.incrementAndGet();
+        subtasks.add(subtask);
+        // 先加入列表再读 shutdown，和 shutdown() 的先写标记再遍历配对，两边至少有一边看得到对方
+        if (shutdown) {
+            subtask.cancel(false);
+            return subtask;
+        }
+        try {
+            executor.execute(subtask);
+        } catch (RejectedExecutionException e) {
+            subtask.setException(e);
+        }
+        return subtask;
+    }
+
+    /**
+     * 等待，直到全部完成，或者出现了第一个失败（joinAll）/第一个成功（joinFirst）
+     *
+     * @throws ExecutionException joinAll 有子任务失败；joinFirst 全部失败
+     */
+    public TaskScope<T> join() throws InterruptedException, ExecutionException {
+        try {
+            return join(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * 带截止时间的 join，到期取消所有子任务
+     */
+    public TaskScope<T> join(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        checkOwner();
+        long deadline = System.nanoTime() + Math.min(unit.toNanos(timeout), Long.MAX_VALUE / 2);
+        while (!settled()) {
+            if (Thread.interrupted()) {
+                shutdown();
+                throw new InterruptedException();
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                shutdown();
+                throw new TimeoutException();
+            }
+            LockSupport.parkNanos(this, remaining);
+        }
+        joined = true;
+        if (firstWins) {
+            if (winner.get() == null) {
+                throw new ExecutionException("no subtask succeeded", failure.get());
+            }
+            shutdown();
+        } else if (failure.get() != null) {
+            throw new ExecutionException(failure.get());
+        }
+        return this;
+    }
+
+    /**
+     * joinAll 成功后，按 fork 顺序返回所有结果
+     */
+    public List<T> results() {
+        checkJoined();
+        if (firstWins) {
+            throw new IllegalStateException("results() is for joinAll scopes");
+        }
+        List<T> results = new ArrayList<>(subtasks.size());
+        for (Subtask<T> subtask : subtasks) {
+            results.add(subtask.resultNow());
+        }
+        return results;
+    }
+
+    /**
+     * joinFirst 成功后，返回第一个成功的结果
+     */
+    public T result() {
+        checkJoined();
+        if (!firstWins) {
+            throw new IllegalStateException("result() is for joinFirst scopes");
+        }
+        return winner.get().resultNow();
+    }
+
+    /**
+     * 结束作用域：不再执行新 fork 的子任务，中断还没完成的子任务。任何线程都可以调用
+     */
+    public void shutdown() {
+        shutdown = true;
+        for (Subtask<T> subtask : subtasks) {
+            subtask.cancel(true);
+        }
+    }
+
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    /**
+     * 结束作用域，并等正在执行的子任务退出
+     */
+    @Override
+    public void close() {
+        checkOwner();
+        if (closed) {
+            return;
+        }
+        closed = true;
+        shutdown();
+        boolean interrupted = false;
+        while (active.get() > 0) {
+            LockSupport.park(this);
+            if (Thread.interrupted()) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            owner.interrupt();
+        }
+    }
+
+    private boolean settled() {
+        if (pending.get() == 0) {
+            return true;
+        }
+        return firstWins ? winner.get() != null : failure.get() != null;
+    }
+
+    private void checkOwner() {
+        if (Thread.currentThread() != owner) {
+            throw new IllegalStateException("not the owner of this scope");
+        }
+    }
+
+    private void checkJoined() {
+        checkOwner();
+        if (!joined) {
+            throw new IllegalStateException("not joined");
+        }
+    }
+
+    /**
+     * 子任务句柄，也是提交给 executor 的任务本身
+     */
+    public static final class Subtask<T> extends FutureTask<T> {
+
+        private final TaskScope<T> scope;
+
+        Subtask(TaskScope<T> scope, Callable<T> callable) {
+            super(callable);
+            this.scope = scope;
+        }
+
+        @Override
+        public void run() {
+            // 先计数再检查状态（在 super.run 里），和 close 的先取消再读计数配对：
+            // close 读到 0 的话，这里一定看得到已取消，不会再执行
+            scope.active.incrementAndGet();
+            try {
+                super.run();
+            } finally {
+                if (scope.active.decrementAndGet() == 0 && scope.closed) {
+                    LockSupport.unpark(scope.owner);
+                }
+            }
+        }
+
+        @Override
+        protected void set(T t) {
+            boolean first = scope.firstWins && !isCancelled() && scope.winner.compareAndSet(null, this);
+            super.set(t);
+            if (first) {
+                scope.shutdown();
+            }
+        }
+
+        @Override
+        protected void setException(Throwable t) {
+            // 先记录失败再完成，owner 被 done() 唤醒时一定看得到失败；被兄弟取消后中断抛出的异常不算
+            boolean first = !isCancelled() && scope.failure.compareAndSet(null, t);
+            super.setException(t);
+            if (first && !scope.firstWins) {
+                scope.shutdown();
+            }
+        }
+
+        @Override
+        protected void done() {
+            scope.pending.decrementAndGet();
+            LockSupport.unpark(scope.owner);
+        }
+
+        /**
+         * 已经成功完成的子任务的结果
+         */
+        public T resultNow() {
+            if (!isDone() || isCancelled()) {
+                throw new IllegalStateException("subtask not completed successfully");
+            }
+            try {
+                return get();
+            } catch (InterruptedException | ExecutionException e) {
+                throw new IllegalStateException("subtask not completed successfully", e);
+            }
+        }
+    }
+}
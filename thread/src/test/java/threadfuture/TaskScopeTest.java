@@ -0,0 +1,129 @@
+package threadfuture;
+
+import org.junit.jupiter.api.Test;
+import util.SmallTool;
+
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * {@link TaskScope} 用法示例
+ */
+public class TaskScopeTest {
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(10);
+
+    /**
+     * {@link CompletableFutureTest#allOf()} 的改写：每个子任务返回自己的结果，不再共享 HashMap
+     */
+    @Test
+    public void joinAll() throws Exception {
+        try (TaskScope<String> scope = TaskScope.joinAll(executor)) {
+            TaskScope.Subtask<String> key1 = scope.fork(() -> "value1");
+            scope.fork(() -> "value2");
+            scope.fork(() -> {
+                SmallTool.sleepMillis(50);
+                return "value3";
+            });
+            List<String> results = scope.join(1, TimeUnit.SECONDS).results();
+            SmallTool.printTimeAndThread("result = " + results);
+            assertEquals("[value1, value2, value3]", results.toString());
+            assertEquals("value1", key1.resultNow());
+        }
+        executor.shutdown();
+    }
+
+    /**
+     * 一个失败，其余的兄弟任务被中断，join 马上抛出这个失败
+     */
+    @Test
+    public void cancelSiblingsOnFailure() throws Exception {
+        CountDownLatch interrupted = new CountDownLatch(2);
+        long start = System.nanoTime();
+        TaskScope.Subtask<String> slow;
+        try (TaskScope<String> scope = TaskScope.joinAll(executor)) {
+            for (int i = 0; i < 2; i++) {
+                scope.fork(() -> {
+                    try {
+                        Thread.sleep(10_000);
+                    } catch (InterruptedException e) {
+                        interrupted.countDown();
+                        throw e;
+                    }
+                    return "slow";
+                });
+            }
+            slow = scope.fork(() -> {
+                SmallTool.sleepMillis(50);
+                throw new IllegalStateException("failed");
+            });
+            ExecutionException e = assertThrows(ExecutionException.class, scope::join);
+            assertEquals("failed", e.getCause().getMessage());
+        }
+        // close 之后兄弟任务已经退出
+        assertEquals(0, interrupted.getCount());
+        assertTrue(slow.isDone());
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1000);
+        executor.shutdown();
+    }
+
+    /**
+     * 第一个成功的结果，失败的不算，其余的被取消
+     */
+    @Test
+    public void joinFirst() throws Exception {
+        AtomicInteger finished = new AtomicInteger();
+        try (TaskScope<String> scope = TaskScope.joinFirst(executor)) {
+            scope.fork(() -> {
+                throw new IllegalStateException("replica 1 down");
+            });
+            scope.fork(() -> {
+                SmallTool.sleepMillis(20);
+                return "replica 2";
+            });
+            scope.fork(() -> {
+                Thread.sleep(10_000);
+                finished.incrementAndGet();
+                return "replica 3";
+            });
+            assertEquals("replica 2", scope.join().result());
+        }
+        assertEquals(0, finished.get());
+
+        try (TaskScope<String> scope = TaskScope.joinFirst(executor)) {
+            scope.fork(() -> {
+                throw new IllegalStateException("all down");
+            });
+            ExecutionException e = assertThrows(ExecutionException.class, scope::join);
+            assertEquals("all down", e.getCause().getMessage());
+        }
+        executor.shutdown();
+    }
+
+    /**
+     * 截止时间到了，取消所有子任务；之后 fork 的子任务不会执行
+     */
+    @Test
+    public void deadline() throws Exception {
+        AtomicInteger ran = new AtomicInteger();
+        try (TaskScope<String> scope = TaskScope.joinAll(executor)) {
+            TaskScope.Subtask<String> slow = scope.fork(() -> {
+                Thread.sleep(10_000);
+                return "slow";
+            });
+            assertThrows(TimeoutException.class, () -> scope.join(50, TimeUnit.MILLISECONDS));
+            assertTrue(slow.isCancelled());
+            assertTrue(scope.isShutdown());
+            TaskScope.Subtask<String> late = scope.fork(() -> {
+                ran.incrementAndGet();
+                return "late";
+            });
+            assertTrue(late.isCancelled());
+        }
+        assertEquals(0, ran.get());
+        executor.shutdown();
+    }
+}
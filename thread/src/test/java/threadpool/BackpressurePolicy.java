@@ -0,0 +1,364 @@
+package threadpool;
+
+import util.LatencyHistogram;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 过载时的拒绝策略，同时对外暴露背压信号
+ * <p>{@link ThreadPoolExecutorTest.MyRejectedExecutionHandler} 和 CallerRunsPolicy 一样，队列满了就让提交任务的线程自己执行。
+ * 过载时请求线程被拖住的时间没有上限，而且从外面看不出线程池已经过载了。这里提供三种策略：</p>
+ * <ul>
+ *     <li>{@link #blocking(long, TimeUnit)}：提交线程最多阻塞等待一段时间，等到队列有空位就入队，超时抛出拒绝异常</li>
+ *     <li>{@link #shedByPriority(int)}：按优先级丢弃，新任务比队列里最低优先级的任务重要，就把后者挤出去，否则拒绝新任务</li>
+ *     <li>{@link #callerRuns(int)}：带预算的调用者执行，同时最多允许几个提交线程自己执行任务，超出预算直接拒绝</li>
+ * </ul>
+ * 拒绝时都抛 {@link RejectedExecutionException}，把过载暴露给调用方，而不是悄悄吞掉
+ * <p>背压信号 {@link #isSaturated(ThreadPoolExecutor)}：按线程池当前的状态判断，线程都在忙、队列也满了就是饱和，
+ * 调用方可以在提交之前先看一眼，饱和了就提前降级（比如直接返回 503），不用等到真的被拒绝。
+ * 忙碌的线程数由策略自己计数，需要线程池在 beforeExecute/afterExecute 里回调 {@link #beforeExecute()}/{@link #afterExecute()}，
+ * {@link #newExecutor} 创建的线程池已经接好；一个策略对象只给一个线程池用</p>
+ */
+public abstract class BackpressurePolicy implements RejectedExecutionHandler {
+
+    private final LongAdder saturations = new LongAdder();
+
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * 最近一次触发拒绝策略的线程池，{@link #isSaturated()} 和 {@link #toMap()} 读它的状态
+     */
+    private volatile ThreadPoolExecutor executor;
+
+    /**
+     * 正在执行任务的工作线程数，由线程池的钩子维护，读的时候不用拿线程池的 mainLock
+     */
+    private final AtomicInteger busy = new AtomicInteger();
+
+    /**
+     * 线程池有没有回调钩子，没有的话只能退回 getActiveCount
+     */
+    private volatile boolean tracked;
+
+    public static BlockingSubmit blocking(long timeout, TimeUnit unit) {
+        return new BlockingSubmit(unit.toNanos(timeout));
+    }
+
+    public static PriorityShedding shedByPriority(int defaultPriority) {
+        return new PriorityShedding(defaultPriority);
+    }
+
+    public static BudgetedCallerRuns callerRuns(int maxConcurrentCallers) {
+        return new BudgetedCallerRuns(maxConcurrentCallers);
+    }
+
+    /**
+     * 创建一个用这个策略做拒绝策略、并且回调忙碌计数钩子的线程池
+     */
+    public ThreadPoolExecutor newExecutor(int corePoolSize, int maximumPoolSize, long keepAliveTime, TimeUnit unit,
+                                          BlockingQueue<Runnable> workQueue, ThreadFactory threadFactory) {
+        return new ThreadPoolExecutor(corePoolSize, maximumPoolSize, keepAliveTime, unit, workQueue, threadFactory, this) {
+            @Override
+            protected void beforeExecute(Thread t, Runnable r) {
+                super.beforeExecute(t, r);
+                BackpressurePolicy.this.beforeExecute();
+            }
+
+            @Override
+            protected void afterExecute(Runnable r, Throwable t) {
+                BackpressurePolicy.this.afterExecute();
+                super.afterExecute(r, t);
+            }
+        };
+    }
+
+    /**
+     * 工作线程开始执行任务，在线程池的 beforeExecute 里调用
+     */
+    public void beforeExecute() {
+        if (!tracked) {
+            tracked = true;
+        }
+        busy.incrementAndGet();
+    }
+
+    /**
+     * 工作线程执行完任务，在线程池的 afterExecute 里调用
+     */
+    public void afterExecute() {
+        busy.decrementAndGet();
+    }
+
+    @Override
+    public final void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+        saturations.increment();
+        this.executor = executor;
+        if (executor.isShutdown()) {
+            reject(r, "executor has been shut down");
+        }
+        handle(r, executor);
+    }
+
+    /**
+     * 线程和队列都满了才会调用，要么让任务最终得到执行，要么调用 {@link #reject(Runnable, String)}
+     */
+    protected abstract void handle(Runnable r, ThreadPoolExecutor executor);
+
+    /**
+     * 线程池当前是否饱和：工作线程都在执行任务、已经到了最大线程数，队列也没有空位，这时再提交就会触发拒绝策略
+     * <p>忙碌线程数读的是策略自己的计数，不加锁，可以在每次提交前调用；
+     * 线程池没有回调 {@link #beforeExecute()} 时退回 getActiveCount，它会短暂获取线程池的 mainLock</p>
+     */
+    public boolean isSaturated(ThreadPoolExecutor executor) {
+        if (executor.getQueue().remainingCapacity() != 0) {
+            return false;
+        }
+        int active = tracked ? busy.get() : executor.getActiveCount();
+        return active >= executor.getMaximumPoolSize();
+    }
+
+    /**
+     * 最近一次触发拒绝策略的线程池当前是否饱和，还没触发过时返回 false
+     */
+    public boolean isSaturated() {
+        ThreadPoolExecutor executor = this.executor;
+        return executor != null && isSaturated(executor);
+    }
+
+    /**
+     * 触发拒绝策略的次数（线程和队列都满了）
+     */
+    public long getSaturations() {
+        return saturations.sum();
+    }
+
+    /**
+     * 最终拒绝、抛异常给调用方的次数
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    /**
+     * 平铺成 key-value，方便对接监控系统
+     */
+    public Map<String, Number> toMap() {
+        Map<String, Number> map = new LinkedHashMap<>();
+        map.put("backpressure.saturated", isSaturated() ? 1 : 0);
+        map.put("backpressure.saturations", getSaturations());
+        map.put("backpressure.rejected", getRejected());
+        addMetrics(map);
+        return map;
+    }
+
+    protected void addMetrics(Map<String, Number> map) {
+    }
+
+    protected final void reject(Runnable r, String reason) {
+        rejected.increment();
+        throw new RejectedExecutionException("Task " + r + " rejected: " + reason);
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + toMap();
+    }
+
+    /**
+     * 阻塞提交：在队列上等待空位，最多等 timeout
+     */
+    public static final class BlockingSubmit extends BackpressurePolicy {
+
+        private final long timeoutNanos;
+
+        private final LongAdder accepted = new LongAdder();
+
+        private final LatencyHistogram blockedTime = new LatencyHistogram();
+
+        BlockingSubmit(long timeoutNanos) {
+            this.timeoutNanos = timeoutNanos;
+        }
+
+        @Override
+        protected void handle(Runnable r, ThreadPoolExecutor executor) {
+            long start = System.nanoTime();
+            boolean offered;
+            try {
+                offered = executor.getQueue().offer(r, timeoutNanos, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                offered = false;
+            }
+            blockedTime.record(System.nanoTime() - start);
+            if (!offered) {
+                reject(r, "queue still full after " + TimeUnit.NANOSECONDS.toMillis(timeoutNanos) + "ms");
+            }
+            // 直接入队绕过了 execute 对线程池状态的检查，入队期间被关闭的话要撤回
+            if (executor.isShutdown() && executor.remove(r)) {
+                reject(r, "executor has been shut down");
+            }
+            // 等待期间工作线程可能都已经空闲回收，没有线程来取队列里的任务，补一个核心线程
+            if (executor.getPoolSize() == 0) {
+                executor.prestartCoreThread();
+            }
+            accepted.increment();
+        }
+
+        /**
+         * 等待之后成功入队的次数
+         */
+        public long getAccepted() {
+            return accepted.sum();
+        }
+
+        public LatencyHistogram.Snapshot getBlockedTime() {
+            return blockedTime.snapshot();
+        }
+
+        @Override
+        protected void addMetrics(Map<String, Number> map) {
+            LatencyHistogram.Snapshot blocked = blockedTime.snapshot();
+            map.put("backpressure.accepted", getAccepted());
+            map.put("backpressure.blocked.p99", blocked.getValueAtPercentile(99));
+            map.put("backpressure.blocked.max", blocked.getMax());
+        }
+    }
+
+    /**
+     * 按优先级丢弃：优先级取自 {@link PriorityLevelQueue.Prioritized}，数字越小越重要
+     * <p>被挤出队列的任务如果是 {@link Future}（submit 提交的），会被取消，提交者 get 时得到 {@link CancellationException}，不会一直等下去；
+     * execute 提交的 Runnable 被挤出后只计数</p>
+     */
+    public static final class PriorityShedding extends BackpressurePolicy {
+
+        private static final int MAX_RETRIES = 3;
+
+        private final int defaultPriority;
+
+        private final LongAdder evicted = new LongAdder();
+
+        PriorityShedding(int defaultPriority) {
+            this.defaultPriority = defaultPriority;
+        }
+
+        @Override
+        protected void handle(Runnable r, ThreadPoolExecutor executor) {
+            int priority = priorityOf(r);
+            BlockingQueue<Runnable> queue = executor.getQueue();
+            for (int i = 0; i < MAX_RETRIES; i++) {
+                Runnable victim = lowestPriority(queue);
+                if (victim == null || priorityOf(victim) <= priority) {
+                    break;
+                }
+                // 可能刚被工作线程取走，重新找
+                if (!queue.remove(victim)) {
+                    continue;
+                }
+                if (queue.offer(r)) {
+                    shed(victim);
+                    return;
+                }
+                // 腾出来的空位被别的提交抢走了，新任务进不去，把 victim 放回去；放不回去才丢弃它
+                if (!queue.offer(victim)) {
+                    shed(victim);
+                }
+            }
+            reject(r, "priority " + priority + " shed");
+        }
+
+        private void shed(Runnable victim) {
+            evicted.increment();
+            if (victim instanceof Future) {
+                ((Future<?>) victim).cancel(false);
+            }
+        }
+
+        /**
+         * 优先级最低的任务里最后入队的一个
+         */
+        private Runnable lowestPriority(BlockingQueue<Runnable> queue) {
+            Runnable victim = null;
+            int lowest = Integer.MIN_VALUE;
+            for (Iterator<Runnable> it = queue.iterator(); it.hasNext(); ) {
+                Runnable task = it.next();
+                int priority = priorityOf(task);
+                if (priority >= lowest) {
+                    lowest = priority;
+                    victim = task;
+                }
+            }
+            return victim;
+        }
+
+        private int priorityOf(Runnable r) {
+            return r instanceof PriorityLevelQueue.Prioritized ? ((PriorityLevelQueue.Prioritized) r).getPriority() : defaultPriority;
+        }
+
+        /**
+         * 被挤出队列的任务数
+         */
+        public long getEvicted() {
+            return evicted.sum();
+        }
+
+        @Override
+        protected void addMetrics(Map<String, Number> map) {
+            map.put("backpressure.evicted", getEvicted());
+        }
+    }
+
+    /**
+     * 带预算的调用者执行：最多 maxConcurrentCallers 个提交线程同时在自己的线程里执行任务
+     */
+    public static final class BudgetedCallerRuns extends BackpressurePolicy {
+
+        private final Semaphore budget;
+
+        private final LongAdder callerRuns = new LongAdder();
+
+        private final LatencyHistogram callerRunTime = new LatencyHistogram();
+
+        BudgetedCallerRuns(int maxConcurrentCallers) {
+            this.budget = new Semaphore(maxConcurrentCallers);
+        }
+
+        @Override
+        protected void handle(Runnable r, ThreadPoolExecutor executor) {
+            if (!budget.tryAcquire()) {
+                reject(r, "caller-runs budget exhausted");
+            }
+            long start = System.nanoTime();
+            try {
+                r.run();
+            } finally {
+                callerRunTime.record(System.nanoTime() - start);
+                callerRuns.increment();
+                budget.release();
+            }
+        }
+
+        /**
+         * 在提交线程里执行的任务数
+         */
+        public long getCallerRuns() {
+            return callerRuns.sum();
+        }
+
+        public LatencyHistogram.Snapshot getCallerRunTime() {
+            return callerRunTime.snapshot();
+        }
+
+        @Override
+        protected void addMetrics(Map<String, Number> map) {
+            LatencyHistogram.Snapshot runTime = callerRunTime.snapshot();
+            map.put("backpressure.callerRuns", getCallerRuns());
+            map.put("backpressure.callerRun.p99", runTime.getValueAtPercentile(99));
+            map.put("backpressure.callerRun.max", runTime.getMax());
+        }
+    }
+}
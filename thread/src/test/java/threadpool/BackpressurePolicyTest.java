@@ -0,0 +1,201 @@
+package threadpool;
+
+import org.junit.jupiter.api.Test;
+import util.SmallTool;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * {@link BackpressurePolicy} 用法示例
+ * <p>都用 1 个线程、队列容量 1 的线程池，先用一个阻塞的任务占住线程、再放一个任务占满队列，之后的提交都会触发拒绝策略
+ */
+public class BackpressurePolicyTest {
+
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    private final CountDownLatch started = new CountDownLatch(1);
+
+    private final Runnable blocked = () -> {
+        started.countDown();
+        try {
+            release.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    };
+
+    private ThreadPoolExecutor saturatedPool(BackpressurePolicy policy) throws InterruptedException {
+        ThreadPoolExecutor executor = policy.newExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(1), new ThreadPoolExecutorTest.DefaultThreadFactory());
+        executor.execute(blocked);
+        // 等工作线程真正开始执行，忙碌计数才会加上
+        started.await();
+        executor.execute(() -> SmallTool.printTimeAndThread("queued"));
+        // 还没触发过拒绝策略，但按线程池当前状态已经饱和了
+        assertFalse(policy.isSaturated());
+        assertTrue(policy.isSaturated(executor));
+        return executor;
+    }
+
+    /**
+     * 阻塞提交：等待超时抛出拒绝异常；等待期间队列腾出空位则入队成功
+     */
+    @Test
+    public void blocking() throws Exception {
+        BackpressurePolicy.BlockingSubmit policy = BackpressurePolicy.blocking(50, TimeUnit.MILLISECONDS);
+        ThreadPoolExecutor executor = saturatedPool(policy);
+
+        long start = System.nanoTime();
+        assertThrows(RejectedExecutionException.class, () -> executor.execute(() -> {
+        }));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+        assertTrue(policy.isSaturated());
+
+        // 20ms 后放行，提交线程等到队列有空位
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        scheduler.schedule(release::countDown, 20, TimeUnit.MILLISECONDS);
+        Future<String> future = executor.submit(() -> "accepted");
+        assertEquals("accepted", future.get());
+        scheduler.shutdown();
+        // 队列已经排空，不再饱和
+        assertFalse(policy.isSaturated());
+
+        SmallTool.printTimeAndThread(policy.toString());
+        assertEquals(2, policy.getSaturations());
+        assertEquals(1, policy.getRejected());
+        assertEquals(1, policy.getAccepted());
+        executor.shutdown();
+    }
+
+    /**
+     * 提交线程等到空位时工作线程已经全部空闲回收，直接入队的任务要补一个线程来执行，不能一直留在队列里
+     */
+    @Test
+    public void blockingRestartsWorker() throws Exception {
+        BackpressurePolicy.BlockingSubmit policy = BackpressurePolicy.blocking(1, TimeUnit.SECONDS);
+        AtomicReference<ThreadPoolExecutor> pool = new AtomicReference<>();
+        // 模拟最坏的时机：等到工作线程都回收了才入队成功
+        BlockingQueue<Runnable> queue = new ArrayBlockingQueue<Runnable>(1) {
+            @Override
+            public boolean offer(Runnable task, long timeout, TimeUnit unit) throws InterruptedException {
+                while (pool.get().getPoolSize() > 0) {
+                    Thread.sleep(1);
+                }
+                return super.offer(task, timeout, unit);
+            }
+        };
+        ThreadPoolExecutor executor = policy.newExecutor(1, 1, 10, TimeUnit.MILLISECONDS,
+                queue, new ThreadPoolExecutorTest.DefaultThreadFactory());
+        executor.allowCoreThreadTimeOut(true);
+        pool.set(executor);
+        executor.execute(blocked);
+        started.await();
+        executor.execute(() -> SmallTool.printTimeAndThread("queued"));
+
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        scheduler.schedule(release::countDown, 20, TimeUnit.MILLISECONDS);
+        Future<String> future = executor.submit(() -> "accepted");
+        assertEquals("accepted", future.get(1, TimeUnit.SECONDS));
+        scheduler.shutdown();
+        executor.shutdown();
+    }
+
+    /**
+     * 按优先级丢弃：高优先级任务把队列里的低优先级任务挤出去，低优先级任务直接被拒绝
+     */
+    @Test
+    public void shedByPriority() throws Exception {
+        BackpressurePolicy.PriorityShedding policy = BackpressurePolicy.shedByPriority(PriorityThreadPoolExecutor.NORMAL);
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(1), new ThreadPoolExecutorTest.DefaultThreadFactory(), policy);
+        executor.execute(blocked);
+        PriorityThreadPoolExecutor.PriorityFutureTask<String> batch =
+                new PriorityThreadPoolExecutor.PriorityFutureTask<>(() -> "batch", PriorityThreadPoolExecutor.LOWEST);
+        executor.execute(batch);
+
+        // 同样是低优先级，挤不掉，拒绝
+        assertThrows(RejectedExecutionException.class, () -> executor.execute(
+                new PriorityThreadPoolExecutor.PriorityRunnable(() -> {
+                }, PriorityThreadPoolExecutor.LOWEST)));
+
+        PriorityThreadPoolExecutor.PriorityFutureTask<String> request =
+                new PriorityThreadPoolExecutor.PriorityFutureTask<>(() -> "request", PriorityThreadPoolExecutor.HIGHEST);
+        executor.execute(request);
+        release.countDown();
+
+        assertEquals("request", request.get());
+        assertThrows(CancellationException.class, batch::get);
+        SmallTool.printTimeAndThread(policy.toString());
+        assertEquals(1, policy.getEvicted());
+        assertEquals(1, policy.getRejected());
+        executor.shutdown();
+    }
+
+    /**
+     * 挤出低优先级任务后新任务还是进不了队列（空位被别人抢了），被挤出的任务放回队列，不会两个都丢
+     */
+    @Test
+    public void shedPutsVictimBack() throws Exception {
+        BackpressurePolicy.PriorityShedding policy = BackpressurePolicy.shedByPriority(PriorityThreadPoolExecutor.NORMAL);
+        PriorityThreadPoolExecutor.PriorityFutureTask<String> request =
+                new PriorityThreadPoolExecutor.PriorityFutureTask<>(() -> "request", PriorityThreadPoolExecutor.HIGHEST);
+        // 模拟空位总被别人抢走：request 永远入不了队
+        BlockingQueue<Runnable> queue = new ArrayBlockingQueue<Runnable>(1) {
+            @Override
+            public boolean offer(Runnable task) {
+                return task != request && super.offer(task);
+            }
+        };
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                queue, new ThreadPoolExecutorTest.DefaultThreadFactory(), policy);
+        executor.execute(blocked);
+        PriorityThreadPoolExecutor.PriorityFutureTask<String> batch =
+                new PriorityThreadPoolExecutor.PriorityFutureTask<>(() -> "batch", PriorityThreadPoolExecutor.LOWEST);
+        executor.execute(batch);
+
+        assertThrows(RejectedExecutionException.class, () -> executor.execute(request));
+        assertSame(batch, queue.peek());
+        release.countDown();
+        assertEquals("batch", batch.get());
+        assertEquals(0, policy.getEvicted());
+        executor.shutdown();
+    }
+
+    /**
+     * 调用者执行：预算 1，第一个提交线程自己执行任务期间，第二个提交线程被拒绝
+     */
+    @Test
+    public void callerRuns() throws Exception {
+        BackpressurePolicy.BudgetedCallerRuns policy = BackpressurePolicy.callerRuns(1);
+        ThreadPoolExecutor executor = saturatedPool(policy);
+
+        CountDownLatch callerRunning = new CountDownLatch(1);
+        CountDownLatch callerRelease = new CountDownLatch(1);
+        Thread caller = new Thread(() -> executor.execute(() -> {
+            callerRunning.countDown();
+            try {
+                callerRelease.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+        caller.start();
+        callerRunning.await();
+
+        // 在调用方提交前先检查背压信号
+        assertTrue(policy.isSaturated());
+        assertThrows(RejectedExecutionException.class, () -> executor.execute(() -> {
+        }));
+
+        callerRelease.countDown();
+        caller.join();
+        release.countDown();
+        SmallTool.printTimeAndThread(policy.toString());
+        assertEquals(1, policy.getCallerRuns());
+        assertEquals(1, policy.getRejected());
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,338 @@
+package threadpool;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+
+/**
+ * 一批任务的句柄，由 {@link #submitAll(Executor, Collection, int)} 批量提交
+ * <p>{@link ExecutorServiceTest#invokeAll()} 逐个提交任务，每个任务都要一次入队、可能还要唤醒一个线程，
+ * 再包装成一个 FutureTask；任务本身很小的时候，这些开销比任务还大。批量提交：</p>
+ * <ul>
+ *     <li>
+ *         整批任务只往线程池提交一个 runner，队列只操作一次。runner 开始执行时，
+ *         如果剩下的任务比正在干活的 runner 多，就再提交一个 runner，一个叫醒一个，最多 parallelism 个，
+ *         任务少的时候不会把所有线程都叫醒
+ *     </li>
+ *     <li>runner 从共享的游标上一次领一段下标（CAS），领到的任务直接执行，不再包装</li>
+ *     <li>
+ *         结果放在数组里，按完成顺序把下标写进另一个数组，{@link #takeCompleted()} 按完成顺序流式读取，
+ *         不用等整批完成；{@link #get()} 等全部完成后按提交顺序返回
+ *     </li>
+ * </ul>
+ * 取消只会跳过还没领取的任务，正在执行的任务不中断；和 FutureTask 一样，取消之后 {@link #isDone()} 立即返回 true，
+ * {@link #get()} 立即抛出 {@link CancellationException}，不用等正在执行的任务跑完
+ */
+public class BatchFuture<T> implements Future<List<T>> {
+
+    private final Callable<? extends T>[] tasks;
+
+    private final Object[] results;
+
+    private final Throwable[] errors;
+
+    private final Executor executor;
+
+    private final int parallelism;
+
+    /**
+     * 每次领取的任务数
+     */
+    private final int chunk;
+
+    /**
+     * 下一个待领取的下标，取消时直接拨到末尾
+     */
+    private final AtomicInteger cursor = new AtomicInteger();
+
+    private final AtomicInteger runners = new AtomicInteger();
+
+    /**
+     * 已完成的任务数，也是完成顺序数组的写入位置
+     */
+    private final AtomicInteger completed = new AtomicInteger();
+
+    /**
+     * 按完成顺序记录的下标，-1 表示还没写入
+     */
+    private final AtomicIntegerArray completionOrder;
+
+    /**
+     * 每个任务是否已完成，0 未完成，1 已完成
+     */
+    private final AtomicIntegerArray done;
+
+    private final AtomicInteger consumed = new AtomicInteger();
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition progress = lock.newCondition();
+
+    /**
+     * 等待中的线程数，为 0 时任务完成不用加锁通知
+     */
+    private volatile int waiters;
+
+    private volatile boolean cancelled;
+
+    private BatchFuture(Executor executor, Collection<? extends Callable<? extends T>> tasks, int parallelism) {
+        this.executor = executor;
+        @SuppressWarnings("unchecked")
+        Callable<? extends T>[] array = (Callable<? extends T>[]) tasks.toArray(new Callable<?>[0]);
+        this.tasks = array;
+        this.results = new Object[this.tasks.length];
+        this.errors = new Throwable[this.tasks.length];
+        this.parallelism = parallelism;
+        this.chunk = Math.max(1, this.tasks.length / (parallelism * 8));
+        this.completionOrder = new AtomicIntegerArray(this.tasks.length);
+        this.done = new AtomicIntegerArray(this.tasks.length);
+        for (int i = 0; i < this.tasks.length; i++) {
+            completionOrder.set(i, -1);
+        }
+    }
+
+    /**
+     * 批量提交
+     *
+     * @param parallelism 最多同时执行这批任务的线程数，一般等于线程池的线程数
+     */
+    public static <T> BatchFuture<T> submitAll(Executor executor, Collection<? extends Callable<? extends T>> tasks,
+                                               int parallelism) {
+        if (executor == null || tasks == null) {
+            throw new NullPointerException();
+        }
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException();
+        }
+        BatchFuture<T> batch = new BatchFuture<>(executor, tasks, parallelism);
+        if (batch.size() > 0) {
+            batch.runners.set(1);
+            executor.execute(batch.new Runner());
+        }
+        return batch;
+    }
+
+    public int size() {
+        return tasks.length;
+    }
+
+    public int getCompletedCount() {
+        return completed.get();
+    }
+
+    /**
+     * 按完成顺序取下一个完成的任务下标，没有完成的就等待
+     *
+     * @return 任务下标，所有任务都取完了返回 -1
+     */
+    public int takeCompleted() throws InterruptedException {
+        // 等到这个位置写入之后再领取，等待中被中断不会把位置白白占掉
+        for (; ; ) {
+            int position = consumed.get();
+            if (position >= tasks.length) {
+                return -1;
+            }
+            awaitUntil(() -> completionOrder.get(position) >= 0);
+            if (consumed.compareAndSet(position, position + 1)) {
+                return completionOrder.get(position);
+            }
+        }
+    }
+
+    /**
+     * 下标为 index 的任务的结果，必须已经完成（比如 {@link #takeCompleted()} 返回的下标）
+     *
+     * @throws ExecutionException    任务抛出了异常
+     * @throws CancellationException 任务被取消
+     */
+    @SuppressWarnings("unchecked")
+    public T resultOf(int index) throws ExecutionException {
+        if (done.get(index) == 0) {
+            throw new IllegalStateException("task " + index + " not completed");
+        }
+        Throwable error = errors[index];
+        if (error instanceof CancellationException) {
+            throw (CancellationException) error;
+        }
+        if (error != null) {
+            throw new ExecutionException(error);
+        }
+        return (T) results[index];
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        int from = cursor.getAndSet(tasks.length);
+        if (from >= tasks.length) {
+            // 都已经领走了，没有可取消的
+            return false;
+        }
+        cancelled = true;
+        for (int i = from; i < tasks.length; i++) {
+            complete(i, null, new CancellationException());
+        }
+        // 正在执行的任务可能还没完成，等在 get 上的线程要马上醒来
+        signalWaiters();
+        return true;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    @Override
+    public boolean isDone() {
+        return cancelled || completed.get() == tasks.length;
+    }
+
+    /**
+     * 等全部完成，按提交顺序返回结果
+     *
+     * @throws ExecutionException 有任务失败时，抛出下标最小的那个
+     */
+    @Override
+    public List<T> get() throws InterruptedException, ExecutionException {
+        awaitUntil(this::isDone);
+        return collect();
+    }
+
+    @Override
+    public List<T> get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        if (!awaitNanos(this::isDone, unit.toNanos(timeout))) {
+            throw new TimeoutException();
+        }
+        return collect();
+    }
+
+    private List<T> collect() throws ExecutionException {
+        if (cancelled) {
+            throw new CancellationException();
+        }
+        List<T> list = new ArrayList<>(tasks.length);
+        for (int i = 0; i < tasks.length; i++) {
+            list.add(resultOf(i));
+        }
+        return list;
+    }
+
+    private void complete(int index, Object result, Throwable error) {
+        // 先写结果，再用 volatile 写发布，读到 done 或完成顺序的线程一定能看到结果
+        results[index] = result;
+        errors[index] = error;
+        done.set(index, 1);
+        completionOrder.set(completed.getAndIncrement(), index);
+        signalWaiters();
+    }
+
+    private void signalWaiters() {
+        if (waiters > 0) {
+            lock.lock();
+            try {
+                progress.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void awaitUntil(BooleanSupplier condition) throws InterruptedException {
+        if (condition.getAsBoolean()) {
+            return;
+        }
+        lock.lockInterruptibly();
+        try {
+            waiters++;
+            try {
+                while (!condition.getAsBoolean()) {
+                    progress.await();
+                }
+            } finally {
+                waiters--;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean awaitNanos(BooleanSupplier condition, long nanos) throws InterruptedException {
+        if (condition.getAsBoolean()) {
+            return true;
+        }
+        lock.lockInterruptibly();
+        try {
+            waiters++;
+            try {
+                while (!condition.getAsBoolean()) {
+                    if (nanos <= 0) {
+                        return false;
+                    }
+                    nanos = progress.awaitNanos(nanos);
+                }
+                return true;
+            } finally {
+                waiters--;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private final class Runner implements Runnable {
+
+        @Override
+        public void run() {
+            try {
+                forkIfNeeded();
+                int start;
+                while ((start = cursor.getAndAdd(chunk)) < tasks.length) {
+                    int end = Math.min(start + chunk, tasks.length);
+                    for (int i = start; i < end; i++) {
+                        runTask(i);
+                    }
+                }
+            } finally {
+                runners.decrementAndGet();
+            }
+        }
+
+        /**
+         * 剩下的任务段数比 runner 多，就再叫一个线程来帮忙
+         */
+        private void forkIfNeeded() {
+            for (; ; ) {
+                int r = runners.get();
+                int remaining = tasks.length - cursor.get();
+                if (r >= parallelism || remaining <= r * chunk) {
+                    return;
+                }
+                if (runners.compareAndSet(r, r + 1)) {
+                    try {
+                        executor.execute(new Runner());
+                    } catch (RejectedExecutionException e) {
+                        // 线程池满了就由现有的 runner 做完
+                        runners.decrementAndGet();
+                    }
+                    return;
+                }
+            }
+        }
+
+        private void runTask(int index) {
+            T result;
+            try {
+                result = tasks[index].call();
+            } catch (Throwable t) {
+                complete(index, null, t);
+                return;
+            }
+            complete(index, result, null);
+        }
+    }
+}
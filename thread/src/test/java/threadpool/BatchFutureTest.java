@@ -0,0 +1,155 @@
+package threadpool;
+
+import org.junit.jupiter.api.Test;
+import util.SmallTool;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * {@link BatchFuture} 用法示例
+ */
+public class BatchFutureTest {
+
+    private final ExecutorService executorService = Executors.newFixedThreadPool(4);
+
+    /**
+     * 10000 个小任务一次提交，按提交顺序取结果
+     */
+    @Test
+    public void submitAll() throws Exception {
+        List<Callable<Integer>> tasks = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            int n = i;
+            tasks.add(() -> n);
+        }
+        BatchFuture<Integer> batch = BatchFuture.submitAll(executorService, tasks, 4);
+        List<Integer> results = batch.get(5, TimeUnit.SECONDS);
+        assertEquals(10_000, results.size());
+        for (int i = 0; i < results.size(); i++) {
+            assertEquals(Integer.valueOf(i), results.get(i));
+        }
+        assertEquals(10_000, batch.getCompletedCount());
+        executorService.shutdown();
+    }
+
+    /**
+     * 和 {@link ExecutorServiceTest#invokeAll()} 一样的三个任务，按完成顺序处理，慢的 c 不会拖住 a、b
+     */
+    @Test
+    public void takeCompleted() throws Exception {
+        List<Callable<String>> tasks = Arrays.asList(
+                () -> {
+                    SmallTool.sleepMillis(100);
+                    return "c";
+                },
+                () -> "a",
+                () -> {
+                    throw new IllegalStateException("b failed");
+                });
+        BatchFuture<String> batch = BatchFuture.submitAll(executorService, tasks, 3);
+        List<String> order = new ArrayList<>();
+        int index;
+        while ((index = batch.takeCompleted()) >= 0) {
+            try {
+                order.add(batch.resultOf(index));
+            } catch (ExecutionException e) {
+                order.add(e.getCause().getMessage());
+            }
+        }
+        SmallTool.printTimeAndThread(order.toString());
+        assertEquals("c", order.get(2));
+        assertThrows(ExecutionException.class, batch::get);
+        executorService.shutdown();
+    }
+
+    /**
+     * 取消会跳过还没开始的任务
+     */
+    @Test
+    public void cancel() throws InterruptedException {
+        ExecutorService single = Executors.newSingleThreadExecutor();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<Callable<String>> tasks = new ArrayList<>();
+        tasks.add(() -> {
+            started.countDown();
+            release.await();
+            return "first";
+        });
+        for (int i = 0; i < 10; i++) {
+            tasks.add(() -> "rest");
+        }
+        BatchFuture<String> batch = BatchFuture.submitAll(single, tasks, 1);
+        started.await();
+        assertTrue(batch.cancel(false));
+        // 正在执行的第一个任务还没完成，取消之后也立即算完成
+        assertTrue(batch.isCancelled());
+        assertTrue(batch.isDone());
+        assertThrows(CancellationException.class, batch::get);
+        release.countDown();
+        single.shutdown();
+        executorService.shutdown();
+    }
+
+    /**
+     * 等在 get 上的线程在取消时马上醒来，不用等正在执行的任务
+     */
+    @Test
+    public void cancelWakesWaiter() throws Exception {
+        ExecutorService single = Executors.newSingleThreadExecutor();
+        CountDownLatch release = new CountDownLatch(1);
+        BatchFuture<String> batch = BatchFuture.submitAll(single, Arrays.asList(() -> {
+            release.await();
+            return "first";
+        }, () -> "second"), 1);
+        Future<Throwable> waiter = executorService.submit(() -> {
+            try {
+                batch.get();
+                return null;
+            } catch (Throwable t) {
+                return t;
+            }
+        });
+        SmallTool.sleepMillis(50);
+        assertTrue(batch.cancel(false));
+        assertTrue(waiter.get(1, TimeUnit.SECONDS) instanceof CancellationException);
+        release.countDown();
+        single.shutdown();
+        executorService.shutdown();
+    }
+
+    /**
+     * 等在 takeCompleted 上的线程被中断，不会占掉这个位置，之后再取还能拿到对应的任务
+     */
+    @Test
+    public void takeCompletedInterrupted() throws Exception {
+        ExecutorService single = Executors.newSingleThreadExecutor();
+        CountDownLatch release = new CountDownLatch(1);
+        BatchFuture<String> batch = BatchFuture.submitAll(single, Collections.singletonList(() -> {
+            release.await();
+            return "only";
+        }), 1);
+        Future<Throwable> taker = executorService.submit(() -> {
+            try {
+                batch.takeCompleted();
+                return null;
+            } catch (Throwable t) {
+                return t;
+            }
+        });
+        SmallTool.sleepMillis(50);
+        executorService.shutdownNow();
+        assertTrue(taker.get(1, TimeUnit.SECONDS) instanceof InterruptedException);
+        release.countDown();
+        assertEquals(0, batch.takeCompleted());
+        assertEquals("only", batch.resultOf(0));
+        assertEquals(-1, batch.takeCompleted());
+        single.shutdown();
+    }
+}
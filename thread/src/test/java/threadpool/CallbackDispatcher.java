@@ -0,0 +1,146 @@
+package threadpool;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 监听器分派：每个回调按声明的开销决定是就地执行（directExecutor 语义）还是交给线程池
+ * <p>{@link MoreExecutorsTest#MoreExecutors_1()} 的 addListener、addCallback 都传了 les，回调哪怕只是打一行日志、
+ * 完成另一个 Future，也要入一次队、换一次线程。回调很轻的时候，这次交接比回调本身贵得多。这里：</p>
+ * <ul>
+ *     <li>{@link Cost#CHEAP}：不阻塞、几微秒以内的回调，在完成 Future 的线程里（或者注册时已经完成，就在注册的线程里）直接执行</li>
+ *     <li>{@link Cost#EXPENSIVE}：可能阻塞或者耗时的回调，照常交给线程池，不占用完成 Future 的线程（可能是 IO 线程、时间轮线程）</li>
+ *     <li>
+ *         递归深度保护：就地执行的回调里又完成了别的 Future，下一层回调还会就地执行，一条长链会一直压栈。
+ *         每个线程记录当前嵌套的就地执行层数，超过 maxInlineDepth 的改为交给线程池，从新线程的栈底重新开始
+ *     </li>
+ * </ul>
+ * {@link #executor(Cost)} 返回的 Executor 也可以直接传给 Futures.transform 等方法
+ */
+public class CallbackDispatcher {
+
+    /**
+     * 回调的开销声明
+     */
+    public enum Cost {
+        /**
+         * 不阻塞、很快，可以就地执行
+         */
+        CHEAP,
+        /**
+         * 可能阻塞或者耗时，总是交给线程池
+         */
+        EXPENSIVE
+    }
+
+    /**
+     * 每个线程当前嵌套的就地执行层数
+     */
+    private static final ThreadLocal<int[]> DEPTH = ThreadLocal.withInitial(() -> new int[1]);
+
+    private final Executor executor;
+
+    private final int maxInlineDepth;
+
+    private final Executor cheap = this::executeCheap;
+
+    private final Executor expensive = this::dispatch;
+
+    private final LongAdder inlined = new LongAdder();
+
+    private final LongAdder dispatched = new LongAdder();
+
+    private final LongAdder depthLimited = new LongAdder();
+
+    public CallbackDispatcher(Executor executor) {
+        this(executor, 16);
+    }
+
+    /**
+     * @param executor       EXPENSIVE 回调和超过深度的 CHEAP 回调在这里执行
+     * @param maxInlineDepth 一个线程里最多嵌套几层就地执行
+     */
+    public CallbackDispatcher(Executor executor, int maxInlineDepth) {
+        if (maxInlineDepth < 0) {
+            throw new IllegalArgumentException();
+        }
+        this.executor = executor;
+        this.maxInlineDepth = maxInlineDepth;
+    }
+
+    public void addListener(ListenableFuture<?> future, Runnable listener, Cost cost) {
+        future.addListener(listener, executor(cost));
+    }
+
+    public <V> void addCallback(ListenableFuture<V> future, FutureCallback<? super V> callback, Cost cost) {
+        Futures.addCallback(future, callback, executor(cost));
+    }
+
+    /**
+     * 按开销选择的 Executor
+     */
+    public Executor executor(Cost cost) {
+        return cost == Cost.CHEAP ? cheap : expensive;
+    }
+
+    private void executeCheap(Runnable command) {
+        int[] depth = DEPTH.get();
+        if (depth[0] >= maxInlineDepth) {
+            depthLimited.increment();
+            dispatch(command);
+            return;
+        }
+        inlined.increment();
+        depth[0]++;
+        try {
+            command.run();
+        } finally {
+            depth[0]--;
+        }
+    }
+
+    private void dispatch(Runnable command) {
+        dispatched.increment();
+        executor.execute(command);
+    }
+
+    /**
+     * 就地执行的回调数，也就是省下的线程池交接次数
+     */
+    public long getInlined() {
+        return inlined.sum();
+    }
+
+    /**
+     * 交给线程池的回调数，包括超过深度的 CHEAP 回调
+     */
+    public long getDispatched() {
+        return dispatched.sum();
+    }
+
+    /**
+     * 声明为 CHEAP 但因为嵌套太深交给线程池的回调数
+     */
+    public long getDepthLimited() {
+        return depthLimited.sum();
+    }
+
+    public Map<String, Long> toMap() {
+        Map<String, Long> map = new LinkedHashMap<>();
+        map.put("callback.inlined", getInlined());
+        map.put("callback.dispatched", getDispatched());
+        map.put("callback.depthLimited", getDepthLimited());
+        return map;
+    }
+
+    @Override
+    public String toString() {
+        return toMap().toString();
+    }
+}
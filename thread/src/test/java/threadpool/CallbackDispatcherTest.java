@@ -0,0 +1,117 @@
+package threadpool;
+
+import com.google.common.util.concurrent.*;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import util.SmallTool;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * {@link CallbackDispatcher} 用法示例，和 {@link MoreExecutorsTest#MoreExecutors_1()} 对照
+ */
+public class CallbackDispatcherTest {
+
+    private final ListeningExecutorService les = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(10));
+
+    private final ExecutorService callbackPool = Executors.newFixedThreadPool(2, r -> new Thread(r, "callback-pool"));
+
+    private final CallbackDispatcher dispatcher = new CallbackDispatcher(callbackPool);
+
+    @AfterEach
+    public void tearDown() {
+        les.shutdownNow();
+        callbackPool.shutdownNow();
+    }
+
+    /**
+     * 打日志的回调很轻，在完成 Future 的线程里直接执行；写文件的回调可能阻塞，交给线程池
+     */
+    @Test
+    public void cheapInlineExpensiveDispatched() throws InterruptedException {
+        AtomicReference<String> taskThread = new AtomicReference<>();
+        AtomicReference<String> cheapThread = new AtomicReference<>();
+        AtomicReference<String> expensiveThread = new AtomicReference<>();
+        CountDownLatch done = new CountDownLatch(2);
+        ListenableFuture<String> future = les.submit(() -> {
+            taskThread.set(Thread.currentThread().getName());
+            SmallTool.sleepMillis(100);
+            return "result";
+        });
+        dispatcher.addCallback(future, new FutureCallback<String>() {
+            @Override
+            public void onSuccess(String result) {
+                SmallTool.printTimeAndThread("addCallback " + result);
+                cheapThread.set(Thread.currentThread().getName());
+                done.countDown();
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                SmallTool.printTimeAndThread(t.getMessage());
+            }
+        }, CallbackDispatcher.Cost.CHEAP);
+        dispatcher.addListener(future, () -> {
+            SmallTool.printTimeAndThread("addListener，假装在写文件");
+            expensiveThread.set(Thread.currentThread().getName());
+            done.countDown();
+        }, CallbackDispatcher.Cost.EXPENSIVE);
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+        assertEquals(taskThread.get(), cheapThread.get());
+        assertEquals("callback-pool", expensiveThread.get());
+        assertEquals(1L, dispatcher.getInlined());
+        assertEquals(1L, dispatcher.getDispatched());
+    }
+
+    /**
+     * 注册时 Future 已经完成，CHEAP 回调在注册的线程里直接执行
+     */
+    @Test
+    public void alreadyDone() {
+        AtomicReference<Thread> thread = new AtomicReference<>();
+        dispatcher.addListener(Futures.immediateFuture("done"), () -> thread.set(Thread.currentThread()), CallbackDispatcher.Cost.CHEAP);
+        assertSame(Thread.currentThread(), thread.get());
+    }
+
+    /**
+     * 1 万个 Future 串成一条链，每个 CHEAP 回调完成下一个：就地执行的话栈会越压越深，
+     * 超过 16 层的交给线程池，从新线程的栈底重新开始
+     */
+    @Test
+    public void depthGuard() throws Exception {
+        int length = 10_000;
+        List<SettableFuture<Integer>> chain = new ArrayList<>();
+        for (int i = 0; i < length; i++) {
+            chain.add(SettableFuture.create());
+        }
+        AtomicInteger maxDepth = new AtomicInteger();
+        for (int i = 0; i < length - 1; i++) {
+            SettableFuture<Integer> next = chain.get(i + 1);
+            dispatcher.addCallback(chain.get(i), new FutureCallback<Integer>() {
+                @Override
+                public void onSuccess(Integer value) {
+                    maxDepth.accumulateAndGet(Thread.currentThread().getStackTrace().length, Math::max);
+                    next.set(value + 1);
+                }
+
+                @Override
+                public void onFailure(Throwable t) {
+                    next.setException(t);
+                }
+            }, CallbackDispatcher.Cost.CHEAP);
+        }
+        chain.get(0).set(0);
+        assertEquals(Integer.valueOf(length - 1), chain.get(length - 1).get(5, TimeUnit.SECONDS));
+        SmallTool.printTimeAndThread(dispatcher + "，最深的栈 " + maxDepth.get() + " 帧");
+        assertEquals(length - 1, dispatcher.getInlined() + dispatcher.getDepthLimited());
+        // 每 17 个回调里有 1 个交给线程池
+        assertTrue(dispatcher.getDepthLimited() >= (length - 1) / 17);
+        assertTrue(maxDepth.get() < 1000, "stack depth " + maxDepth.get());
+    }
+}
@@ -0,0 +1,351 @@
+package threadpool;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 合并周期任务的调度器
+ * <p>{@link ScheduledThreadPoolExecutorTest#scheduleAtFixedRate()} 每个周期任务都是延迟队列里的一个任务，
+ * 几千个健康检查、缓存刷新就是几千次入队出队、几千次唤醒，每次都要抢延迟队列的锁。这里：</p>
+ * <ul>
+ *     <li>
+ *         周期按 resolution 取整（比如 50ms），取整后相同的任务归为一组，一组只在 ticker 上注册一个周期任务，
+ *         唤醒次数和延迟队列的锁操作只和组数有关，和任务数无关
+ *     </li>
+ *     <li>
+ *         抖动：每组把一个周期分成 jitterPhases 个相位，任务注册时随机分到一个相位，组的 ticker 每 period / jitterPhases 醒一次，
+ *         只执行当前相位的任务。几千个任务不会在同一时刻一起打到下游，又仍然是成批执行的
+ *     </li>
+ *     <li>一个相位的任务按 maxBatchSize 切成几批，每批作为一个任务提交给 workers，批内顺序执行</li>
+ *     <li>
+ *         错过的 tick（missed tick）：ticker 被耽误、醒来时已经晚了不止一个 tick，中间的 tick 不补执行，只计数；
+ *         超时（overrun）：任务上一次还没执行完又轮到了，这次跳过；或者一次执行的耗时超过了周期
+ *     </li>
+ * </ul>
+ * 批内顺序执行，任务应该很短；耗时的任务（比如带 IO 的健康检查）自己再转交给别的线程池
+ * <p>一组的最后一个任务取消后，这一组从 ticker 上撤下来；{@link #shutdown()} 之后不再接受注册，抛出 {@link RejectedExecutionException}</p>
+ */
+public class CoalescingScheduler {
+
+    private final ScheduledExecutorService ticker;
+
+    private final Executor workers;
+
+    private final long resolutionNanos;
+
+    private final int jitterPhases;
+
+    private final int maxBatchSize;
+
+    private final ConcurrentHashMap<Long, Group> groups = new ConcurrentHashMap<>();
+
+    private final LongAdder wakeups = new LongAdder();
+
+    private final LongAdder batches = new LongAdder();
+
+    private final LongAdder runs = new LongAdder();
+
+    private final LongAdder overruns = new LongAdder();
+
+    private final LongAdder missedTicks = new LongAdder();
+
+    private volatile boolean shutdown;
+
+    /**
+     * @param ticker       负责唤醒的调度器，一组只占用它一个周期任务
+     * @param workers      执行任务的线程池
+     * @param resolution   周期取整的粒度，越大合并得越多，周期误差也越大
+     * @param jitterPhases 每个周期分成几个相位，1 表示不抖动，同一组的任务同时执行
+     */
+    public CoalescingScheduler(ScheduledExecutorService ticker, Executor workers, long resolution, TimeUnit unit,
+                               int jitterPhases, int maxBatchSize) {
+        if (resolution <= 0 || jitterPhases <= 0 || maxBatchSize <= 0) {
+            throw new IllegalArgumentException();
+        }
+        this.ticker = ticker;
+        this.workers = workers;
+        this.resolutionNanos = unit.toNanos(resolution);
+        this.jitterPhases = jitterPhases;
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * 注册一个周期任务，周期按 resolution 四舍五入取整；第一次执行在一个周期之内
+     */
+    public Job scheduleAtFixedRate(Runnable task, long period, TimeUnit unit) {
+        long periodNanos = unit.toNanos(period);
+        if (periodNanos <= 0) {
+            throw new IllegalArgumentException();
+        }
+        if (shutdown) {
+            throw new RejectedExecutionException("scheduler has been shut down");
+        }
+        long slots = Math.max(1, Math.round((double) periodNanos / resolutionNanos));
+        for (; ; ) {
+            Group group = groups.computeIfAbsent(slots * resolutionNanos, Group::new);
+            Job job = new Job(task, group);
+            synchronized (group) {
+                if (group.retired) {
+                    // 最后一个任务刚取消，这一组已经撤下来了，重新建一组
+                    continue;
+                }
+                group.phases[ThreadLocalRandom.current().nextInt(group.phases.length)].add(job);
+            }
+            // 和 shutdown 的先写标记再遍历组配对：要么 shutdown 看到了这一组，要么这里看到了标记
+            if (shutdown) {
+                group.retire();
+                throw new RejectedExecutionException("scheduler has been shut down");
+            }
+            return job;
+        }
+    }
+
+    /**
+     * 停止所有组的 ticker，之后不再接受注册，正在执行的批次执行完
+     */
+    public void shutdown() {
+        shutdown = true;
+        for (Group group : groups.values()) {
+            group.retire();
+        }
+    }
+
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    /**
+     * 组数，也就是在 ticker 上注册的周期任务数
+     */
+    public int getGroupCount() {
+        return groups.size();
+    }
+
+    /**
+     * ticker 唤醒的次数
+     */
+    public long getWakeups() {
+        return wakeups.sum();
+    }
+
+    /**
+     * 提交给 workers 的批次数
+     */
+    public long getBatches() {
+        return batches.sum();
+    }
+
+    public long getRuns() {
+        return runs.sum();
+    }
+
+    public long getOverruns() {
+        return overruns.sum();
+    }
+
+    public long getMissedTicks() {
+        return missedTicks.sum();
+    }
+
+    public Map<String, Long> toMap() {
+        Map<String, Long> map = new LinkedHashMap<>();
+        map.put("scheduler.groups", (long) getGroupCount());
+        map.put("scheduler.wakeups", getWakeups());
+        map.put("scheduler.batches", getBatches());
+        map.put("scheduler.runs", getRuns());
+        map.put("scheduler.overruns", getOverruns());
+        map.put("scheduler.missedTicks", getMissedTicks());
+        return map;
+    }
+
+    @Override
+    public String toString() {
+        return toMap().toString();
+    }
+
+    /**
+     * 周期相同的一组任务，在 ticker 上只有一个周期任务
+     */
+    private final class Group implements Runnable {
+
+        final long periodNanos;
+
+        final long tickNanos;
+
+        /**
+         * 每个相位的任务；注册、取消很少，每个 tick 都要遍历，用写时复制
+         */
+        final CopyOnWriteArrayList<Job>[] phases;
+
+        final long start;
+
+        final ScheduledFuture<?> future;
+
+        /**
+         * 已经从 ticker 上撤下、从 groups 里移除，不能再往里加任务；注册、取消、撤下都在 synchronized (this) 里
+         */
+        boolean retired;
+
+        /**
+         * 上一次执行的 tick 序号，只有 ticker 线程访问（scheduleAtFixedRate 保证同一个任务不会并发执行）
+         */
+        long lastTick = -1;
+
+        Group(long periodNanos) {
+            this.periodNanos = periodNanos;
+            @SuppressWarnings("unchecked")
+            CopyOnWriteArrayList<Job>[] lists =
+                    (CopyOnWriteArrayList<Job>[]) new CopyOnWriteArrayList<?>[(int) Math.min(jitterPhases, periodNanos)];
+            for (int i = 0; i < lists.length; i++) {
+                lists[i] = new CopyOnWriteArrayList<>();
+            }
+            this.phases = lists;
+            this.tickNanos = periodNanos / phases.length;
+            this.start = System.nanoTime();
+            this.future = ticker.scheduleAtFixedRate(this, tickNanos, tickNanos, TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public void run() {
+            wakeups.increment();
+            long tick = (System.nanoTime() - start) / tickNanos - 1;
+            if (tick <= lastTick) {
+                // ticker 落后时会连着补执行，这些补上来的 tick 已经算作错过了
+                return;
+            }
+            if (lastTick >= 0 && tick > lastTick + 1) {
+                missedTicks.add(tick - lastTick - 1);
+            }
+            lastTick = tick;
+            List<Job> jobs = phases[(int) (tick % phases.length)];
+            if (jobs.isEmpty()) {
+                return;
+            }
+            List<Job> batch = new ArrayList<>(Math.min(jobs.size(), maxBatchSize));
+            for (Job job : jobs) {
+                batch.add(job);
+                if (batch.size() == maxBatchSize) {
+                    submit(batch);
+                    batch = new ArrayList<>(maxBatchSize);
+                }
+            }
+            if (!batch.isEmpty()) {
+                submit(batch);
+            }
+        }
+
+        synchronized void retire() {
+            retired = true;
+            groups.remove(periodNanos, this);
+            future.cancel(false);
+        }
+
+        /**
+         * 最后一个任务取消后撤下这一组
+         */
+        synchronized void remove(Job job) {
+            boolean empty = true;
+            for (CopyOnWriteArrayList<Job> phase : phases) {
+                phase.remove(job);
+                empty &= phase.isEmpty();
+            }
+            if (empty && !retired) {
+                retire();
+            }
+        }
+
+        private void submit(List<Job> batch) {
+            batches.increment();
+            try {
+                workers.execute(() -> {
+                    for (Job job : batch) {
+                        job.runOnce();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // 线程池满了，这一批相当于错过了一个 tick
+                missedTicks.increment();
+            }
+        }
+    }
+
+    /**
+     * 注册的周期任务
+     */
+    public final class Job {
+
+        private final Runnable task;
+
+        private final Group group;
+
+        private final AtomicBoolean running = new AtomicBoolean();
+
+        private final LongAdder jobRuns = new LongAdder();
+
+        private final LongAdder jobOverruns = new LongAdder();
+
+        private volatile long lastDurationNanos;
+
+        Job(Runnable task, Group group) {
+            this.task = task;
+            this.group = group;
+        }
+
+        void runOnce() {
+            if (!running.compareAndSet(false, true)) {
+                // 上一次还没执行完
+                jobOverruns.increment();
+                overruns.increment();
+                return;
+            }
+            long begin = System.nanoTime();
+            try {
+                task.run();
+            } catch (Throwable t) {
+                // 和 ScheduledThreadPoolExecutor 不同，一次失败不取消后续执行
+                t.printStackTrace();
+            } finally {
+                long duration = System.nanoTime() - begin;
+                lastDurationNanos = duration;
+                if (duration > group.periodNanos) {
+                    jobOverruns.increment();
+                    overruns.increment();
+                }
+                jobRuns.increment();
+                runs.increment();
+                running.set(false);
+            }
+        }
+
+        /**
+         * 取消后不再执行，正在执行的这一次不受影响；组里的最后一个任务取消时，这一组从 ticker 上撤下
+         */
+        public void cancel() {
+            group.remove(this);
+        }
+
+        /**
+         * 取整后的实际周期
+         */
+        public long getPeriod(TimeUnit unit) {
+            return unit.convert(group.periodNanos, TimeUnit.NANOSECONDS);
+        }
+
+        public long getRuns() {
+            return jobRuns.sum();
+        }
+
+        public long getOverruns() {
+            return jobOverruns.sum();
+        }
+
+        public long getLastDurationNanos() {
+            return lastDurationNanos;
+        }
+    }
+}
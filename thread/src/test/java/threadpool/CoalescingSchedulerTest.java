@@ -0,0 +1,193 @@
+package threadpool;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import util.SmallTool;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * {@link CoalescingScheduler} 用法示例，和 {@link ScheduledThreadPoolExecutorTest#scheduleAtFixedRate()} 对照
+ */
+public class CoalescingSchedulerTest {
+
+    private final ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor();
+
+    private final ExecutorService workers = Executors.newFixedThreadPool(4);
+
+    @AfterEach
+    public void tearDown() {
+        ticker.shutdownNow();
+        workers.shutdownNow();
+    }
+
+    /**
+     * 2000 个周期在 95~120ms 之间的任务合并成 2 组，唤醒次数只和组数、相位数有关
+     */
+    @Test
+    public void coalesce() {
+        CoalescingScheduler scheduler = new CoalescingScheduler(ticker, workers, 50, TimeUnit.MILLISECONDS, 5, 64);
+        AtomicInteger count = new AtomicInteger();
+        for (int i = 0; i < 2000; i++) {
+            // 95~120ms 取整到 100ms，150~170ms 取整到 150ms
+            long period = i % 2 == 0 ? 95 + i % 26 : 150 + i % 21;
+            scheduler.scheduleAtFixedRate(count::incrementAndGet, period, TimeUnit.MILLISECONDS);
+        }
+        assertEquals(2, scheduler.getGroupCount());
+        SmallTool.sleepMillis(1000);
+        scheduler.shutdown();
+        SmallTool.printTimeAndThread(scheduler.toString());
+        // 1000 个 100ms 的任务 1 秒约 1 万次，1000 个 150ms 的约 6600 次
+        assertTrue(scheduler.getRuns() > 12_000, "runs " + scheduler.getRuns());
+        // 每组每个周期 5 次唤醒：1 秒 50 + 33 次左右，一个任务一个定时任务的话是 1.6 万次
+        assertTrue(scheduler.getWakeups() < 100, "wakeups " + scheduler.getWakeups());
+        assertTrue(scheduler.getBatches() < scheduler.getRuns() / 10);
+        assertEquals(0L, scheduler.getOverruns());
+    }
+
+    /**
+     * 抖动：任务随机分到 5 个相位，同一时刻只执行其中一部分
+     */
+    @Test
+    public void jitter() throws InterruptedException {
+        CoalescingScheduler scheduler = new CoalescingScheduler(ticker, workers, 10, TimeUnit.MILLISECONDS, 5, 1000);
+        ConcurrentHashMap<Long, AtomicInteger> perTick = new ConcurrentHashMap<>();
+        long start = System.nanoTime();
+        CountDownLatch done = new CountDownLatch(1000);
+        for (int i = 0; i < 1000; i++) {
+            scheduler.scheduleAtFixedRate(() -> {
+                // 按 20ms 一个相位统计同一时刻执行的任务数
+                long tick = (System.nanoTime() - start) / TimeUnit.MILLISECONDS.toNanos(20);
+                perTick.computeIfAbsent(tick, t -> new AtomicInteger()).incrementAndGet();
+                done.countDown();
+            }, 100, TimeUnit.MILLISECONDS);
+        }
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+        scheduler.shutdown();
+        int max = perTick.values().stream().mapToInt(AtomicInteger::get).max().orElse(0);
+        SmallTool.printTimeAndThread("每个相位执行的任务数 " + perTick);
+        // 平均每个相位 200 个，不会 1000 个同时执行
+        assertTrue(max < 500, "max " + max);
+    }
+
+    /**
+     * 任务执行得比周期还慢：下一次轮到时上一次还没执行完，跳过并计为 overrun
+     */
+    @Test
+    public void overrun() {
+        CoalescingScheduler scheduler = new CoalescingScheduler(ticker, workers, 10, TimeUnit.MILLISECONDS, 1, 64);
+        CoalescingScheduler.Job slow = scheduler.scheduleAtFixedRate(() -> SmallTool.sleepMillis(70), 20, TimeUnit.MILLISECONDS);
+        CoalescingScheduler.Job fast = scheduler.scheduleAtFixedRate(() -> {
+        }, 20, TimeUnit.MILLISECONDS);
+        SmallTool.sleepMillis(500);
+        scheduler.shutdown();
+        SmallTool.printTimeAndThread(scheduler.toString() + "，慢任务执行 " + slow.getRuns() + " 次，overrun " + slow.getOverruns() + " 次");
+        assertTrue(slow.getOverruns() > slow.getRuns());
+        assertTrue(slow.getLastDurationNanos() >= TimeUnit.MILLISECONDS.toNanos(70));
+        // 同一批的快任务排在慢任务后面会晚一些，但不会被跳过
+        assertEquals(0L, fast.getOverruns());
+    }
+
+    /**
+     * ticker 线程被别的任务占住 200ms，期间的 tick 不补执行，只计数
+     */
+    @Test
+    public void missedTicks() {
+        CoalescingScheduler scheduler = new CoalescingScheduler(ticker, workers, 10, TimeUnit.MILLISECONDS, 1, 64);
+        CoalescingScheduler.Job job = scheduler.scheduleAtFixedRate(() -> {
+        }, 10, TimeUnit.MILLISECONDS);
+        SmallTool.sleepMillis(55);
+        ticker.execute(() -> SmallTool.sleepMillis(200));
+        SmallTool.sleepMillis(300);
+        scheduler.shutdown();
+        SmallTool.printTimeAndThread(scheduler.toString());
+        assertTrue(scheduler.getMissedTicks() >= 15, "missed " + scheduler.getMissedTicks());
+        // 35 次左右的 tick 里错过了将近 20 次
+        assertTrue(job.getRuns() < 25, "runs " + job.getRuns());
+    }
+
+    /**
+     * 取消后不再执行；一组的最后一个任务取消后，这一组也从 ticker 上撤下，不再空转
+     */
+    @Test
+    public void cancel() {
+        CoalescingScheduler scheduler = new CoalescingScheduler(ticker, workers, 10, TimeUnit.MILLISECONDS, 2, 64);
+        AtomicInteger count = new AtomicInteger();
+        CoalescingScheduler.Job job = scheduler.scheduleAtFixedRate(count::incrementAndGet, 20, TimeUnit.MILLISECONDS);
+        CoalescingScheduler.Job other = scheduler.scheduleAtFixedRate(() -> {
+        }, 20, TimeUnit.MILLISECONDS);
+        assertEquals(20L, job.getPeriod(TimeUnit.MILLISECONDS));
+        SmallTool.sleepMillis(100);
+        job.cancel();
+        assertEquals(1, scheduler.getGroupCount());
+        SmallTool.sleepMillis(30);
+        int runs = count.get();
+        assertTrue(runs > 0);
+        SmallTool.sleepMillis(100);
+        assertEquals(runs, count.get());
+
+        other.cancel();
+        assertEquals(0, scheduler.getGroupCount());
+        SmallTool.sleepMillis(30);
+        long wakeups = scheduler.getWakeups();
+        SmallTool.sleepMillis(100);
+        assertEquals(wakeups, scheduler.getWakeups());
+
+        // 同一个周期再注册会重新建一组
+        scheduler.scheduleAtFixedRate(count::incrementAndGet, 20, TimeUnit.MILLISECONDS);
+        assertEquals(1, scheduler.getGroupCount());
+        scheduler.shutdown();
+    }
+
+    /**
+     * shutdown 之后注册直接拒绝，不会悄悄建一个新组跑起来
+     */
+    @Test
+    public void rejectAfterShutdown() {
+        CoalescingScheduler scheduler = new CoalescingScheduler(ticker, workers, 10, TimeUnit.MILLISECONDS, 1, 64);
+        scheduler.scheduleAtFixedRate(() -> {
+        }, 20, TimeUnit.MILLISECONDS);
+        scheduler.shutdown();
+        assertTrue(scheduler.isShutdown());
+        assertEquals(0, scheduler.getGroupCount());
+        assertThrows(RejectedExecutionException.class, () -> scheduler.scheduleAtFixedRate(() -> {
+        }, 20, TimeUnit.MILLISECONDS));
+        assertEquals(0, scheduler.getGroupCount());
+    }
+
+    /**
+     * 注册和 shutdown 并发：shutdown 返回后，不会留下还在 ticker 上跑的组
+     */
+    @Test
+    public void registerRacingShutdown() throws InterruptedException {
+        for (int round = 0; round < 50; round++) {
+            CoalescingScheduler scheduler = new CoalescingScheduler(ticker, workers, 10, TimeUnit.MILLISECONDS, 1, 64);
+            CountDownLatch start = new CountDownLatch(1);
+            Thread[] registrars = new Thread[4];
+            for (int t = 0; t < registrars.length; t++) {
+                int period = 10 * (t + 1);
+                registrars[t] = new Thread(() -> {
+                    try {
+                        start.await();
+                        for (; ; ) {
+                            scheduler.scheduleAtFixedRate(() -> {
+                            }, period, TimeUnit.MILLISECONDS);
+                        }
+                    } catch (RejectedExecutionException | InterruptedException e) {
+                        // shutdown 之后被拒绝，退出
+                    }
+                });
+                registrars[t].start();
+            }
+            start.countDown();
+            scheduler.shutdown();
+            for (Thread registrar : registrars) {
+                registrar.join();
+            }
+            assertEquals(0, scheduler.getGroupCount());
+        }
+    }
+}
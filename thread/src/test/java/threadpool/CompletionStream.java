@@ -0,0 +1,236 @@
+package threadpool;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+
+/**
+ * 按完成顺序流式返回结果的 invokeAll
+ * <p>{@link ExecutorServiceTest#invokeAll()} 要等所有任务都完成才返回，再按提交顺序遍历，耗时 100ms 的 c 拖住了 a、b 的处理。
+ * 这里基于 {@link ExecutorCompletionService}：任务完成时 Future 被放进一个队列，谁先完成谁先被取出来</p>
+ * <ul>
+ *     <li>迭代器 {@link #iterator()} 或回调 {@link #forEachCompleted(Consumer)}，都在调用线程里按完成顺序处理结果</li>
+ *     <li>
+ *         限制同时执行的任务数 maxInFlight：完成一个才再提交一个，任务来源可以是惰性的 Iterable，
+ *         十万个任务也不会一次全压进线程池队列
+ *     </li>
+ *     <li>
+ *         单个任务超时：从提交开始计时，超时的任务被 cancel(true) 中断，作为一个超时的结果返回，不会拖住后面的结果。
+ *         所有任务的超时时间相同，所以提交顺序就是到期顺序，最早到期的永远是在途任务里最早提交的那个
+ *     </li>
+ * </ul>
+ * 不是线程安全的，只能由一个线程消费；提前结束要调用 {@link #close()} 取消在途任务
+ */
+public class CompletionStream<T> implements Iterable<CompletionStream.Completion<T>>, AutoCloseable {
+
+    private final CompletionService<T> completionService;
+
+    private final Iterator<? extends Callable<T>> source;
+
+    private final int maxInFlight;
+
+    private final long timeoutNanos;
+
+    /**
+     * 在途任务，按提交顺序（也就是到期顺序）排列
+     */
+    private final Map<Future<T>, InFlight> inFlight = new LinkedHashMap<>();
+
+    private int submitted;
+
+    private boolean closed;
+
+    /**
+     * @param maxInFlight 最多同时执行的任务数
+     * @param timeout     单个任务的超时时间，从提交开始计时
+     */
+    public CompletionStream(Executor executor, Iterable<? extends Callable<T>> tasks, int maxInFlight,
+                            long timeout, TimeUnit unit) {
+        if (maxInFlight <= 0 || timeout <= 0) {
+            throw new IllegalArgumentException();
+        }
+        this.completionService = new ExecutorCompletionService<>(executor);
+        this.source = tasks.iterator();
+        this.maxInFlight = maxInFlight;
+        this.timeoutNanos = unit.toNanos(timeout);
+        fill();
+    }
+
+    /**
+     * 取下一个完成（或超时）的任务，没有就等待
+     *
+     * @return 所有任务都已返回时为 null
+     */
+    public Completion<T> take() throws InterruptedException {
+        for (; ; ) {
+            if (inFlight.isEmpty()) {
+                return null;
+            }
+            Map.Entry<Future<T>, InFlight> earliest = inFlight.entrySet().iterator().next();
+            long wait = earliest.getValue().deadline - System.nanoTime();
+            Future<T> future = wait > 0 ? completionService.poll(wait, TimeUnit.NANOSECONDS) : completionService.poll();
+            if (future != null) {
+                InFlight task = inFlight.remove(future);
+                if (task == null) {
+                    // 到期时已经返回过的任务：被取消的取消时也会进入完成队列，恰好在到期时完成的也会再出现一次
+                    continue;
+                }
+                fill();
+                return new Completion<>(task.index, future, false);
+            }
+            if (System.nanoTime() - earliest.getValue().deadline >= 0) {
+                Future<T> expired = earliest.getKey();
+                inFlight.remove(expired);
+                // 取消失败说明任务恰好在到期时完成了，按正常结果返回；它随后从完成队列里取出时会被跳过
+                boolean timedOut = expired.cancel(true);
+                fill();
+                return new Completion<>(earliest.getValue().index, expired, timedOut);
+            }
+        }
+    }
+
+    /**
+     * 在调用线程里按完成顺序处理每个结果，直到全部返回
+     */
+    public void forEachCompleted(Consumer<? super Completion<T>> callback) throws InterruptedException {
+        try {
+            Completion<T> completion;
+            while ((completion = take()) != null) {
+                callback.accept(completion);
+            }
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * 迭代器版本；等待时被中断会取消在途任务，保留中断标记并抛出 {@link CancellationException}
+     */
+    @Override
+    public Iterator<Completion<T>> iterator() {
+        return new Iterator<Completion<T>>() {
+
+            private Completion<T> next;
+
+            @Override
+            public boolean hasNext() {
+                if (next == null) {
+                    try {
+                        next = take();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        close();
+                        throw new CancellationException("interrupted while waiting for completion");
+                    }
+                }
+                return next != null;
+            }
+
+            @Override
+            public Completion<T> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Completion<T> result = next;
+                next = null;
+                return result;
+            }
+        };
+    }
+
+    /**
+     * 已提交的任务数
+     */
+    public int getSubmitted() {
+        return submitted;
+    }
+
+    public int getInFlight() {
+        return inFlight.size();
+    }
+
+    /**
+     * 不再提交新任务，中断在途任务
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (Future<T> future : inFlight.keySet()) {
+            future.cancel(true);
+        }
+        inFlight.clear();
+    }
+
+    private void fill() {
+        while (!closed && inFlight.size() < maxInFlight && source.hasNext()) {
+            Future<T> future = completionService.submit(source.next());
+            inFlight.put(future, new InFlight(submitted++, System.nanoTime() + timeoutNanos));
+        }
+    }
+
+    private static final class InFlight {
+
+        final int index;
+
+        final long deadline;
+
+        InFlight(int index, long deadline) {
+            this.index = index;
+            this.deadline = deadline;
+        }
+    }
+
+    /**
+     * 一个任务的结果
+     */
+    public static final class Completion<T> {
+
+        private final int index;
+
+        private final Future<T> future;
+
+        private final boolean timedOut;
+
+        Completion(int index, Future<T> future, boolean timedOut) {
+            this.index = index;
+            this.future = future;
+            this.timedOut = timedOut;
+        }
+
+        /**
+         * 任务在原集合中的下标
+         */
+        public int getIndex() {
+            return index;
+        }
+
+        public boolean isTimedOut() {
+            return timedOut;
+        }
+
+        /**
+         * @throws ExecutionException 任务抛出了异常
+         * @throws TimeoutException   任务超时，已被中断
+         */
+        public T get() throws ExecutionException, TimeoutException {
+            if (timedOut) {
+                throw new TimeoutException("task " + index + " timed out");
+            }
+            try {
+                return future.get();
+            } catch (InterruptedException e) {
+                // 已经完成的 Future 不会阻塞
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "Completion[" + index + (timedOut ? ", timed out]" : "]");
+        }
+    }
+}
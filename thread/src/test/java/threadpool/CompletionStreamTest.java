@@ -0,0 +1,118 @@
+package threadpool;
+
+import org.junit.jupiter.api.Test;
+import util.SmallTool;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * {@link CompletionStream} 用法示例
+ */
+public class CompletionStreamTest {
+
+    private final ExecutorService executorService = Executors.newFixedThreadPool(10);
+
+    /**
+     * 和 {@link ExecutorServiceTest#invokeAll()} 一样的三个任务，a、b 完成就处理，不用等 c
+     */
+    @Test
+    public void iterator() throws Exception {
+        List<Callable<String>> tasks = Arrays.asList(
+                () -> {
+                    SmallTool.sleepMillis(100);
+                    return "c";
+                },
+                () -> "a",
+                () -> "b");
+        List<String> order = new ArrayList<>();
+        try (CompletionStream<String> stream = new CompletionStream<>(executorService, tasks, 10, 1, TimeUnit.SECONDS)) {
+            for (CompletionStream.Completion<String> completion : stream) {
+                SmallTool.printTimeAndThread(completion + " " + completion.get());
+                order.add(completion.get());
+            }
+        }
+        assertEquals(3, order.size());
+        assertEquals("c", order.get(2));
+        executorService.shutdown();
+    }
+
+    /**
+     * 1000 个任务，最多同时执行 4 个
+     */
+    @Test
+    public void maxInFlight() throws Exception {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        List<Callable<Integer>> tasks = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            int n = i;
+            tasks.add(() -> {
+                int now = running.incrementAndGet();
+                maxRunning.accumulateAndGet(now, Math::max);
+                running.decrementAndGet();
+                return n;
+            });
+        }
+        CompletionStream<Integer> stream = new CompletionStream<>(executorService, tasks, 4, 1, TimeUnit.SECONDS);
+        assertEquals(4, stream.getSubmitted());
+        AtomicInteger sum = new AtomicInteger();
+        stream.forEachCompleted(completion -> {
+            assertTrue(stream.getInFlight() <= 4);
+            try {
+                sum.addAndGet(completion.get());
+            } catch (ExecutionException | TimeoutException e) {
+                throw new AssertionError(e);
+            }
+        });
+        assertEquals(999 * 1000 / 2, sum.get());
+        assertTrue(maxRunning.get() <= 4);
+        executorService.shutdown();
+    }
+
+    /**
+     * 超时的任务被中断，作为超时结果返回，失败的任务抛出 ExecutionException
+     */
+    @Test
+    public void timeout() throws Exception {
+        CountDownLatch interrupted = new CountDownLatch(1);
+        List<Callable<String>> tasks = Arrays.asList(
+                () -> {
+                    try {
+                        Thread.sleep(10_000);
+                    } catch (InterruptedException e) {
+                        interrupted.countDown();
+                        throw e;
+                    }
+                    return "slow";
+                },
+                () -> {
+                    throw new IllegalStateException("failed");
+                },
+                () -> "fast");
+        List<String> order = new ArrayList<>();
+        long start = System.nanoTime();
+        try (CompletionStream<String> stream = new CompletionStream<>(executorService, tasks, 10, 100, TimeUnit.MILLISECONDS)) {
+            for (CompletionStream.Completion<String> completion : stream) {
+                try {
+                    order.add(completion.get());
+                } catch (ExecutionException e) {
+                    order.add(e.getCause().getMessage());
+                } catch (TimeoutException e) {
+                    assertEquals(0, completion.getIndex());
+                    order.add("timeout");
+                }
+            }
+        }
+        SmallTool.printTimeAndThread(order.toString());
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1000);
+        assertEquals("timeout", order.get(2));
+        assertTrue(interrupted.await(1, TimeUnit.SECONDS));
+        executorService.shutdown();
+    }
+}
@@ -0,0 +1,60 @@
+package threadpool;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 运行时可以调整线程数和队列容量的线程池
+ * <p>{@link ThreadPoolExecutorTest#init()} 里核心线程数、最大线程数、队列容量都写死了，压测发现配置不合适只能改代码重启。
+ * ThreadPoolExecutor 本身支持 {@link #setCorePoolSize(int)}、{@link #setMaximumPoolSize(int)}，只是两者要按顺序调
+ * （Java 9 起 core &gt; max 会抛异常）；队列容量则换成 {@link ResizableBlockingQueue}</p>
+ * <ul>
+ *     <li>{@link #resize(int, int)}：同时调整核心线程数和最大线程数，调大时多出来的线程在有任务排队时立即启动，
+ *     调小时空闲线程马上退出，忙碌的线程执行完当前任务后退出</li>
+ *     <li>{@link #setQueueCapacity(int)}：调整队列容量</li>
+ *     <li>{@link PoolSizeController}：可选，按观测到的排队耗时和吞吐量自动调整线程数</li>
+ * </ul>
+ * 继承自 {@link InstrumentedThreadPoolExecutor}，监控指标同样可用
+ */
+public class DynamicThreadPoolExecutor extends InstrumentedThreadPoolExecutor {
+
+    public DynamicThreadPoolExecutor(String name, int corePoolSize, int maximumPoolSize, long keepAliveTime,
+                                     TimeUnit unit, int queueCapacity) {
+        this(name, corePoolSize, maximumPoolSize, keepAliveTime, unit, queueCapacity,
+                Executors.defaultThreadFactory(), new AbortPolicy());
+    }
+
+    public DynamicThreadPoolExecutor(String name, int corePoolSize, int maximumPoolSize, long keepAliveTime,
+                                     TimeUnit unit, int queueCapacity,
+                                     ThreadFactory threadFactory, RejectedExecutionHandler handler) {
+        super(name, corePoolSize, maximumPoolSize, keepAliveTime, unit,
+                new ResizableBlockingQueue<>(queueCapacity), threadFactory, handler);
+    }
+
+    /**
+     * 同时调整核心线程数和最大线程数
+     */
+    public synchronized void resize(int corePoolSize, int maximumPoolSize) {
+        if (corePoolSize < 0 || maximumPoolSize <= 0 || maximumPoolSize < corePoolSize) {
+            throw new IllegalArgumentException();
+        }
+        // 调大时先调 max，调小时先调 core，任何时刻都满足 core <= max
+        if (corePoolSize > getMaximumPoolSize()) {
+            setMaximumPoolSize(maximumPoolSize);
+            setCorePoolSize(corePoolSize);
+        } else {
+            setCorePoolSize(corePoolSize);
+            setMaximumPoolSize(maximumPoolSize);
+        }
+    }
+
+    public int getQueueCapacity() {
+        return ((ResizableBlockingQueue<Runnable>) getQueue()).getCapacity();
+    }
+
+    public void setQueueCapacity(int capacity) {
+        ((ResizableBlockingQueue<Runnable>) getQueue()).setCapacity(capacity);
+    }
+}
@@ -0,0 +1,107 @@
+package threadpool;
+
+import org.junit.jupiter.api.Test;
+import util.SmallTool;
+
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * {@link DynamicThreadPoolExecutor}、{@link PoolSizeController} 用法示例
+ */
+public class DynamicThreadPoolExecutorTest {
+
+    /**
+     * 运行时调整线程数和队列容量
+     */
+    @Test
+    public void resize() throws InterruptedException {
+        DynamicThreadPoolExecutor executor = new DynamicThreadPoolExecutor("resize", 1, 1,
+                100, TimeUnit.MILLISECONDS, 2);
+        CountDownLatch release = new CountDownLatch(1);
+        Runnable blocked = () -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+        executor.execute(blocked);
+        executor.execute(blocked);
+        executor.execute(blocked);
+        // 1 个线程在执行，队列已满
+        assertThrows(RejectedExecutionException.class, () -> executor.execute(blocked));
+
+        executor.setQueueCapacity(3);
+        executor.execute(blocked);
+        assertEquals(3, executor.getQueue().size());
+
+        // 调大之后，排队的任务马上有线程来执行
+        executor.resize(4, 4);
+        // 新建的工作线程还没开始执行任务时也算 active，所以要等队列清空
+        for (int i = 0; i < 50 && !executor.getQueue().isEmpty(); i++) {
+            SmallTool.sleepMillis(10);
+        }
+        assertEquals(4, executor.getActiveCount());
+        assertEquals(0, executor.getQueue().size());
+
+        release.countDown();
+        executor.resize(1, 2);
+        for (int i = 0; i < 50 && executor.getPoolSize() > 1; i++) {
+            SmallTool.sleepMillis(10);
+        }
+        assertEquals(1, executor.getPoolSize());
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(1, TimeUnit.SECONDS));
+    }
+
+    /**
+     * 模拟负载：每 10ms 提交 10 个耗时 10ms 的任务（比如调下游接口），大约需要 10 个线程才跟得上。
+     * 从 2 个线程起步，调节器应该把线程数加到 10 左右并稳定下来；负载停止后再慢慢缩回去
+     */
+    @Test
+    public void converge() throws InterruptedException {
+        DynamicThreadPoolExecutor executor = new DynamicThreadPoolExecutor("converge", 2, 2,
+                100, TimeUnit.MILLISECONDS, 100_000);
+        ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2);
+        PoolSizeController controller = new PoolSizeController(executor, 1, 50,
+                5, 100, TimeUnit.MILLISECONDS);
+        ScheduledFuture<?> load = scheduler.scheduleAtFixedRate(() -> {
+            for (int i = 0; i < 10; i++) {
+                executor.execute(() -> SmallTool.sleepMillis(10));
+            }
+        }, 0, 10, TimeUnit.MILLISECONDS);
+        controller.start(scheduler);
+
+        // 前 4 秒爬坡、消化积压，后 2 秒观察是否稳定
+        SmallTool.sleepMillis(4000);
+        int samples = 0;
+        long sum = 0;
+        int min = Integer.MAX_VALUE;
+        int max = 0;
+        for (int i = 0; i < 20; i++) {
+            int size = executor.getPoolSize();
+            sum += size;
+            min = Math.min(min, size);
+            max = Math.max(max, size);
+            samples++;
+            SmallTool.sleepMillis(100);
+        }
+        double average = (double) sum / samples;
+        SmallTool.printTimeAndThread("average=" + average + ", min=" + min + ", max=" + max
+                + ", core=" + executor.getCorePoolSize() + ", throughput=" + controller.getLastThroughput() + ", " + executor.getMetrics());
+        assertTrue(average >= 9 && average <= 20, "average=" + average);
+
+        // 负载停止后，线程数逐步回收
+        load.cancel(false);
+        SmallTool.sleepMillis(2000);
+        SmallTool.printTimeAndThread("after load: " + executor.getCorePoolSize());
+        assertTrue(executor.getCorePoolSize() < min);
+
+        controller.stop();
+        scheduler.shutdown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(1, TimeUnit.SECONDS));
+    }
+}
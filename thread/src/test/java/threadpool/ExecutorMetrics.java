@@ -0,0 +1,193 @@
+package threadpool;
+
+import util.LatencyHistogram;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link InstrumentedThreadPoolExecutor} 的运行指标
+ * <ul>
+ *     <li>计数器：提交、完成、失败、拒绝的任务数</li>
+ *     <li>直方图：任务在队列里的等待耗时、执行耗时</li>
+ *     <li>仪表：活跃线程数、线程数、历史最大线程数、队列长度，在 {@link InstrumentedThreadPoolExecutor#getMetrics()} 时读取</li>
+ * </ul>
+ * 和 juc.PoolMetrics 一样，记录时只累加 {@link LongAdder} 和直方图，不分配对象；需要读数时导出快照
+ */
+public class ExecutorMetrics {
+
+    private final LongAdder submitted = new LongAdder();
+
+    private final LongAdder completed = new LongAdder();
+
+    private final LongAdder failed = new LongAdder();
+
+    private final LongAdder rejected = new LongAdder();
+
+    private final LatencyHistogram queueWait = new LatencyHistogram();
+
+    private final LatencyHistogram runTime = new LatencyHistogram();
+
+    void recordSubmitted() {
+        submitted.increment();
+    }
+
+    void recordRejected() {
+        rejected.increment();
+    }
+
+    void recordQueueWait(long nanos) {
+        queueWait.record(nanos);
+    }
+
+    void recordRun(long nanos, boolean success) {
+        runTime.record(nanos);
+        if (success) {
+            completed.increment();
+        } else {
+            failed.increment();
+        }
+    }
+
+    /**
+     * 清空计数器和直方图，按时间窗口统计时使用
+     */
+    public void reset() {
+        submitted.reset();
+        completed.reset();
+        failed.reset();
+        rejected.reset();
+        queueWait.reset();
+        runTime.reset();
+    }
+
+    /**
+     * 导出快照
+     *
+     * @param name            线程池名称
+     * @param active          正在执行任务的线程数
+     * @param poolSize        当前线程数
+     * @param largestPoolSize 历史最大线程数
+     * @param queueSize       队列长度
+     */
+    public Snapshot snapshot(String name, int active, int poolSize, int largestPoolSize, int queueSize) {
+        return new Snapshot(name, active, poolSize, largestPoolSize, queueSize, submitted.sum(), completed.sum(),
+                failed.sum(), rejected.sum(), queueWait.snapshot(), runTime.snapshot());
+    }
+
+    /**
+     * 指标快照，不可变
+     */
+    public static final class Snapshot {
+
+        private final String name;
+        private final int active;
+        private final int poolSize;
+        private final int largestPoolSize;
+        private final int queueSize;
+        private final long submitted;
+        private final long completed;
+        private final long failed;
+        private final long rejected;
+        private final LatencyHistogram.Snapshot queueWait;
+        private final LatencyHistogram.Snapshot runTime;
+
+        Snapshot(String name, int active, int poolSize, int largestPoolSize, int queueSize, long submitted,
+                 long completed, long failed, long rejected, LatencyHistogram.Snapshot queueWait,
+                 LatencyHistogram.Snapshot runTime) {
+            this.name = name;
+            this.active = active;
+            this.poolSize = poolSize;
+            this.largestPoolSize = largestPoolSize;
+            this.queueSize = queueSize;
+            this.submitted = submitted;
+            this.completed = completed;
+            this.failed = failed;
+            this.rejected = rejected;
+            this.queueWait = queueWait;
+            this.runTime = runTime;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getActive() {
+            return active;
+        }
+
+        public int getPoolSize() {
+            return poolSize;
+        }
+
+        public int getLargestPoolSize() {
+            return largestPoolSize;
+        }
+
+        public int getQueueSize() {
+            return queueSize;
+        }
+
+        public long getSubmitted() {
+            return submitted;
+        }
+
+        public long getCompleted() {
+            return completed;
+        }
+
+        /**
+         * 抛出异常的任务数，submit 提交的任务异常被 Future 吞掉了，也会计入
+         */
+        public long getFailed() {
+            return failed;
+        }
+
+        public long getRejected() {
+            return rejected;
+        }
+
+        /**
+         * 从提交到开始执行的耗时
+         */
+        public LatencyHistogram.Snapshot getQueueWait() {
+            return queueWait;
+        }
+
+        public LatencyHistogram.Snapshot getRunTime() {
+            return runTime;
+        }
+
+        /**
+         * 平铺成 key-value，方便对接监控系统
+         */
+        public Map<String, Number> toMap() {
+            String prefix = "executor." + name + ".";
+            Map<String, Number> map = new LinkedHashMap<>();
+            map.put(prefix + "active", active);
+            map.put(prefix + "poolSize", poolSize);
+            map.put(prefix + "largestPoolSize", largestPoolSize);
+            map.put(prefix + "queueSize", queueSize);
+            map.put(prefix + "submitted", submitted);
+            map.put(prefix + "completed", completed);
+            map.put(prefix + "failed", failed);
+            map.put(prefix + "rejected", rejected);
+            map.put(prefix + "queueWait.p50", queueWait.getValueAtPercentile(50));
+            map.put(prefix + "queueWait.p99", queueWait.getValueAtPercentile(99));
+            map.put(prefix + "queueWait.max", queueWait.getMax());
+            map.put(prefix + "runTime.p50", runTime.getValueAtPercentile(50));
+            map.put(prefix + "runTime.p99", runTime.getValueAtPercentile(99));
+            map.put(prefix + "runTime.max", runTime.getMax());
+            return map;
+        }
+
+        @Override
+        public String toString() {
+            return name + ": active=" + active + ", poolSize=" + poolSize + ", largestPoolSize=" + largestPoolSize
+                    + ", queueSize=" + queueSize + ", submitted=" + submitted + ", completed=" + completed
+                    + ", failed=" + failed + ", rejected=" + rejected
+                    + ", queueWait{" + queueWait + "}, runTime{" + runTime + "}";
+        }
+    }
+}
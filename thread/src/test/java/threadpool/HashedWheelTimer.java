@@ -0,0 +1,398 @@
+package threadpool;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 分层哈希时间轮定时器（参考 Netty 的 HashedWheelTimer 和 Kafka 的分层时间轮），适合大量"多半会被取消"的超时
+ * <p>{@link ScheduledThreadPoolExecutorTest} 的延迟队列是一个堆，schedule、cancel 都是 O(log n)，还要抢同一把锁。
+ * 超时任务的特点是数量大、精度要求不高、绝大多数在到期前就被取消了。时间轮：</p>
+ * <ul>
+ *     <li>一个环形数组，每个格子（bucket）代表一个 tick，放在这个 tick 到期的任务（双向链表）</li>
+ *     <li>
+ *         分层：第 0 层一格一个 tick，第 L 层一格是 N^L 个 tick（N 是每层格子数）。超过第 0 层一圈的任务放到上层，
+ *         上层的格子转到时整格取下来，按剩余时间重新放到下层（降级），和钟表的时分秒一样。
+ *         Netty 的单层轮对一圈以外的任务记剩余圈数，每转一圈要把格子里所有任务都过一遍；分层后每个任务最多降级层数次
+ *     </li>
+ *     <li>
+ *         schedule 只往无锁队列里加一个节点，O(1)；工作线程每个 tick 把新节点挂到对应的格子上
+ *     </li>
+ *     <li>cancel 只做一次 CAS，再把节点放进取消队列，由工作线程从链表上摘掉，O(1)</li>
+ *     <li>精度是一个 tick；任务默认在工作线程里执行，必须很轻（比如完成一个 Future），重活可以指定 taskExecutor 转交给线程池</li>
+ * </ul>
+ * 一个进程共用一个实例就够了，不要每次调用都创建
+ */
+public class HashedWheelTimer implements AutoCloseable {
+
+    private final long tickNanos;
+
+    /**
+     * wheels[level][slot]
+     */
+    private final Bucket[][] wheels;
+
+    /**
+     * 每层格子数的 log2
+     */
+    private final int bits;
+
+    private final int mask;
+
+    private final ConcurrentLinkedQueue<Timeout> added = new ConcurrentLinkedQueue<>();
+
+    private final ConcurrentLinkedQueue<Timeout> cancelled = new ConcurrentLinkedQueue<>();
+
+    private final AtomicLong pending = new AtomicLong();
+
+    private final Thread worker;
+
+    private final Executor taskExecutor;
+
+    private final long startTime;
+
+    private volatile boolean stopped;
+
+    /**
+     * 默认 10ms 一个 tick，每层 512 个格子，第 0 层一圈约 5 秒
+     */
+    public HashedWheelTimer() {
+        this(10, TimeUnit.MILLISECONDS, 512);
+    }
+
+    public HashedWheelTimer(long tickDuration, TimeUnit unit, int ticksPerWheel) {
+        this(tickDuration, unit, ticksPerWheel, Runnable::run);
+    }
+
+    /**
+     * @param ticksPerWheel 每层的格子数，会向上取整到 2 的幂
+     * @param taskExecutor  执行到期任务的线程池，Runnable::run 表示在时间轮线程里直接执行
+     */
+    public HashedWheelTimer(long tickDuration, TimeUnit unit, int ticksPerWheel, Executor taskExecutor) {
+        this(tickDuration, unit, ticksPerWheel, r -> {
+            Thread thread = new Thread(r, "hashed-wheel-timer");
+            thread.setDaemon(true);
+            return thread;
+        }, taskExecutor);
+    }
+
+    public HashedWheelTimer(long tickDuration, TimeUnit unit, int ticksPerWheel, ThreadFactory threadFactory,
+                            Executor taskExecutor) {
+        if (tickDuration <= 0 || ticksPerWheel <= 0) {
+            throw new IllegalArgumentException();
+        }
+        this.tickNanos = unit.toNanos(tickDuration);
+        int size = Math.max(Integer.highestOneBit(ticksPerWheel - 1) << 1, 2);
+        this.bits = Integer.numberOfTrailingZeros(size);
+        this.mask = size - 1;
+        // 层数要覆盖 long 能表示的所有 tick 数，最上层不会溢出
+        this.wheels = new Bucket[(62 + bits) / bits][size];
+        for (Bucket[] wheel : wheels) {
+            for (int i = 0; i < size; i++) {
+                wheel[i] = new Bucket();
+            }
+        }
+        this.taskExecutor = taskExecutor;
+        this.startTime = System.nanoTime();
+        this.worker = threadFactory.newThread(this::run);
+        worker.start();
+    }
+
+    /**
+     * 在 delay 之后执行 task；精度一个 tick
+     */
+    public Timeout newTimeout(Runnable task, long delay, TimeUnit unit) {
+        if (task == null) {
+            throw new NullPointerException();
+        }
+        if (stopped) {
+            throw new IllegalStateException("timer stopped");
+        }
+        long deadline = System.nanoTime() - startTime + Math.max(unit.toNanos(delay), 0);
+        if (deadline < 0) {
+            // 延迟很大（比如 Long.MAX_VALUE 天）时加法溢出成负数，会被当成已经过期，饱和到永不到期
+            deadline = Long.MAX_VALUE;
+        }
+        Timeout timeout = new Timeout(this, task, deadline);
+        pending.incrementAndGet();
+        added.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * 还没到期也没取消的任务数
+     */
+    public long getPendingCount() {
+        return pending.get();
+    }
+
+    public long getTickNanos() {
+        return tickNanos;
+    }
+
+    /**
+     * 停止工作线程，没到期的任务不再执行
+     */
+    @Override
+    public void close() {
+        stopped = true;
+        worker.interrupt();
+    }
+
+    /**
+     * 停止工作线程并等它退出，返回没到期也没取消的任务，调用方可以取消或者另行处理
+     * <p>不能在到期任务里调用（时间轮线程不能等自己退出）</p>
+     */
+    public List<Timeout> stop() throws InterruptedException {
+        if (Thread.currentThread() == worker) {
+            throw new IllegalStateException("stop() cannot be called from a timer task");
+        }
+        close();
+        worker.join();
+        List<Timeout> unexpired = new ArrayList<>();
+        for (Bucket[] wheel : wheels) {
+            for (Bucket bucket : wheel) {
+                Timeout timeout;
+                while ((timeout = bucket.poll()) != null) {
+                    if (timeout.state == Timeout.INIT) {
+                        unexpired.add(timeout);
+                    }
+                }
+            }
+        }
+        Timeout timeout;
+        while ((timeout = added.poll()) != null) {
+            if (timeout.state == Timeout.INIT) {
+                unexpired.add(timeout);
+            }
+        }
+        return unexpired;
+    }
+
+    private void run() {
+        long tick = 0;
+        while (!stopped) {
+            if (!waitForNextTick(tick)) {
+                break;
+            }
+            removeCancelled();
+            transferAdded(tick);
+            cascade(tick);
+            Bucket bucket = wheels[0][(int) (tick & mask)];
+            Timeout timeout;
+            while ((timeout = bucket.poll()) != null) {
+                timeout.expire();
+            }
+            tick++;
+        }
+    }
+
+    /**
+     * 睡到第 tick 个格子结束
+     *
+     * @return 被停止时返回 false
+     */
+    private boolean waitForNextTick(long tick) {
+        long deadline = tickNanos * (tick + 1);
+        for (; ; ) {
+            long now = System.nanoTime() - startTime;
+            long sleep = deadline - now;
+            if (sleep <= 0) {
+                return true;
+            }
+            if (stopped) {
+                return false;
+            }
+            LockSupport.parkNanos(this, sleep);
+        }
+    }
+
+    private void transferAdded(long tick) {
+        // 每个 tick 最多搬 10 万个，防止 schedule 太快时工作线程一直在搬、耽误到期
+        for (int i = 0; i < 100_000; i++) {
+            Timeout timeout = added.poll();
+            if (timeout == null) {
+                return;
+            }
+            if (timeout.state == Timeout.INIT) {
+                place(timeout, tick);
+            }
+        }
+    }
+
+    /**
+     * 按剩余 tick 数选层：剩余不到 N^(L+1) 个 tick 的放在第 L 层，格子下标取到期 tick 的对应位段。
+     * 剩余至少 N^L 个 tick，保证这个格子下一次转到的时刻在当前 tick 之后、并且不晚于到期时刻
+     */
+    private void place(Timeout timeout, long tick) {
+        long expireTick = timeout.deadline / tickNanos;
+        long remaining = expireTick - tick;
+        if (remaining < mask + 1) {
+            // 已经过期的放进当前格子，这个 tick 就执行
+            wheels[0][(int) (Math.max(expireTick, tick) & mask)].add(timeout);
+            return;
+        }
+        int level = (63 - Long.numberOfLeadingZeros(remaining)) / bits;
+        wheels[level][(int) ((expireTick >>> (bits * level)) & mask)].add(timeout);
+    }
+
+    /**
+     * tick 走到第 L 层一格的边界时，把这一格整个取下来重新放置，从上往下，上层降下来的任务同一个 tick 里可以继续降
+     */
+    private void cascade(long tick) {
+        for (int level = wheels.length - 1; level > 0; level--) {
+            int shift = bits * level;
+            if ((tick & ((1L << shift) - 1)) != 0) {
+                continue;
+            }
+            Bucket bucket = wheels[level][(int) ((tick >>> shift) & mask)];
+            Timeout timeout;
+            while ((timeout = bucket.poll()) != null) {
+                if (timeout.state == Timeout.INIT) {
+                    place(timeout, tick);
+                }
+            }
+        }
+    }
+
+    private void removeCancelled() {
+        Timeout timeout;
+        while ((timeout = cancelled.poll()) != null) {
+            if (timeout.bucket != null) {
+                timeout.bucket.remove(timeout);
+            }
+        }
+    }
+
+    /**
+     * 一个格子，只有工作线程访问
+     */
+    private static final class Bucket {
+
+        private Timeout head;
+
+        private Timeout tail;
+
+        void add(Timeout timeout) {
+            timeout.bucket = this;
+            if (head == null) {
+                head = tail = timeout;
+            } else {
+                tail.next = timeout;
+                timeout.prev = tail;
+                tail = timeout;
+            }
+        }
+
+        void remove(Timeout timeout) {
+            Timeout next = timeout.next;
+            if (timeout.prev != null) {
+                timeout.prev.next = next;
+            }
+            if (timeout.next != null) {
+                timeout.next.prev = timeout.prev;
+            }
+            if (timeout == head) {
+                head = next;
+            }
+            if (timeout == tail) {
+                tail = timeout.prev;
+            }
+            timeout.prev = null;
+            timeout.next = null;
+            timeout.bucket = null;
+        }
+
+        /**
+         * 摘下第一个任务
+         */
+        Timeout poll() {
+            Timeout timeout = head;
+            if (timeout != null) {
+                remove(timeout);
+            }
+            return timeout;
+        }
+    }
+
+    /**
+     * {@link #newTimeout} 返回的句柄
+     */
+    public static final class Timeout {
+
+        static final int INIT = 0;
+
+        static final int CANCELLED = 1;
+
+        static final int EXPIRED = 2;
+
+        private static final AtomicIntegerFieldUpdater<Timeout> STATE =
+                AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+
+        private final HashedWheelTimer timer;
+
+        private final Runnable task;
+
+        /**
+         * 到期时间，相对 timer 的 startTime
+         */
+        private final long deadline;
+
+        private volatile int state;
+
+        Timeout prev;
+
+        Timeout next;
+
+        Bucket bucket;
+
+        Timeout(HashedWheelTimer timer, Runnable task, long deadline) {
+            this.timer = timer;
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * @return 取消成功；已经到期或已经取消过返回 false
+         */
+        public boolean cancel() {
+            if (!STATE.compareAndSet(this, INIT, CANCELLED)) {
+                return false;
+            }
+            timer.pending.decrementAndGet();
+            timer.cancelled.add(this);
+            return true;
+        }
+
+        public boolean isCancelled() {
+            return state == CANCELLED;
+        }
+
+        public Runnable getTask() {
+            return task;
+        }
+
+        public boolean isExpired() {
+            return state == EXPIRED;
+        }
+
+        void expire() {
+            if (!STATE.compareAndSet(this, INIT, EXPIRED)) {
+                return;
+            }
+            timer.pending.decrementAndGet();
+            try {
+                timer.taskExecutor.execute(task);
+            } catch (Throwable t) {
+                // 一个任务出错不能让时间轮停下来
+                t.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package threadpool;
+
+import org.junit.jupiter.api.Test;
+import util.SmallTool;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * {@link HashedWheelTimer} 用法示例
+ */
+public class HashedWheelTimerTest {
+
+    /**
+     * 到期误差在一两个 tick 之内
+     */
+    @Test
+    public void newTimeout() throws InterruptedException {
+        try (HashedWheelTimer timer = new HashedWheelTimer(10, TimeUnit.MILLISECONDS, 64)) {
+            CountDownLatch latch = new CountDownLatch(1);
+            long start = System.nanoTime();
+            long[] firedAt = new long[1];
+            HashedWheelTimer.Timeout timeout = timer.newTimeout(() -> {
+                firedAt[0] = System.nanoTime();
+                latch.countDown();
+            }, 100, TimeUnit.MILLISECONDS);
+            assertTrue(latch.await(1, TimeUnit.SECONDS));
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(firedAt[0] - start);
+            SmallTool.printTimeAndThread("100ms 的任务在 " + elapsed + "ms 后执行");
+            assertTrue(elapsed >= 100 && elapsed < 150, "elapsed " + elapsed);
+            assertTrue(timeout.isExpired());
+            assertEquals(0, timer.getPendingCount());
+        }
+    }
+
+    /**
+     * 超过第 0 层一圈的任务放在上层，转到时降级到第 0 层再到期
+     */
+    @Test
+    public void levels() throws InterruptedException {
+        try (HashedWheelTimer timer = new HashedWheelTimer(5, TimeUnit.MILLISECONDS, 8)) {
+            List<Integer> order = new ArrayList<>();
+            CountDownLatch latch = new CountDownLatch(3);
+            // 一圈 40ms
+            for (int delay : new int[]{130, 20, 60}) {
+                timer.newTimeout(() -> {
+                    order.add(delay);
+                    latch.countDown();
+                }, delay, TimeUnit.MILLISECONDS);
+            }
+            assertTrue(latch.await(1, TimeUnit.SECONDS));
+            assertEquals("[20, 60, 130]", order.toString());
+        }
+    }
+
+    /**
+     * 每层只有 4 个格子，0~300ms 的随机延迟分布在 5 层上，逐层降级后都在到期之后、一两个 tick 之内执行
+     */
+    @Test
+    public void cascade() throws InterruptedException {
+        try (HashedWheelTimer timer = new HashedWheelTimer(1, TimeUnit.MILLISECONDS, 4)) {
+            int count = 500;
+            CountDownLatch latch = new CountDownLatch(count);
+            AtomicInteger early = new AtomicInteger();
+            AtomicLong maxLate = new AtomicLong();
+            for (int i = 0; i < count; i++) {
+                long delay = ThreadLocalRandom.current().nextLong(TimeUnit.MILLISECONDS.toNanos(300));
+                long deadline = System.nanoTime() + delay;
+                timer.newTimeout(() -> {
+                    long late = System.nanoTime() - deadline;
+                    if (late < 0) {
+                        early.incrementAndGet();
+                    }
+                    maxLate.accumulateAndGet(late, Math::max);
+                    latch.countDown();
+                }, delay, TimeUnit.NANOSECONDS);
+            }
+            assertTrue(latch.await(2, TimeUnit.SECONDS));
+            SmallTool.printTimeAndThread("最大延迟 " + TimeUnit.NANOSECONDS.toMicros(maxLate.get()) + "us");
+            assertEquals(0, early.get());
+            assertTrue(maxLate.get() < TimeUnit.MILLISECONDS.toNanos(20));
+        }
+    }
+
+    /**
+     * 10 万个超时，绝大多数在到期前取消
+     */
+    @Test
+    public void cancel() throws InterruptedException {
+        try (HashedWheelTimer timer = new HashedWheelTimer()) {
+            AtomicInteger fired = new AtomicInteger();
+            List<HashedWheelTimer.Timeout> timeouts = new ArrayList<>();
+            for (int i = 0; i < 100_000; i++) {
+                timeouts.add(timer.newTimeout(fired::incrementAndGet, 500, TimeUnit.MILLISECONDS));
+            }
+            assertEquals(100_000, timer.getPendingCount());
+            for (int i = 0; i < timeouts.size(); i++) {
+                if (i % 1000 != 0) {
+                    assertTrue(timeouts.get(i).cancel());
+                }
+            }
+            assertFalse(timeouts.get(1).cancel());
+            assertEquals(100, timer.getPendingCount());
+            long deadline = System.currentTimeMillis() + 2000;
+            while (fired.get() < 100 && System.currentTimeMillis() < deadline) {
+                SmallTool.sleepMillis(10);
+            }
+            assertEquals(100, fired.get());
+            assertEquals(0, timer.getPendingCount());
+        }
+    }
+
+    /**
+     * 延迟大到加法溢出时按永不到期处理，不会被当成已经过期马上执行
+     */
+    @Test
+    public void hugeDelay() {
+        try (HashedWheelTimer timer = new HashedWheelTimer(1, TimeUnit.MILLISECONDS, 8)) {
+            AtomicInteger fired = new AtomicInteger();
+            HashedWheelTimer.Timeout timeout = timer.newTimeout(fired::incrementAndGet, Long.MAX_VALUE, TimeUnit.DAYS);
+            SmallTool.sleepMillis(100);
+            assertEquals(0, fired.get());
+            assertEquals(1, timer.getPendingCount());
+            assertTrue(timeout.cancel());
+        }
+    }
+}
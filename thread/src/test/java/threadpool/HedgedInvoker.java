@@ -0,0 +1,281 @@
+package threadpool;
+
+import util.LatencyHistogram;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * 对冲请求（hedged request）版的 invokeAny
+ * <p>{@link ExecutorServiceTest#invokeAny()} 把所有任务同时启动，谁先返回用谁，其余的只是被动地等着被取消；
+ * 任务是"去几个副本上查同一份数据"时，负载直接翻了几倍。对冲请求的做法：</p>
+ * <ol>
+ *     <li>先只发第一个请求</li>
+ *     <li>
+ *         等了一段时间还没返回，才发下一个（备份请求）；这段时间取历史耗时的某个百分位（比如 p95），
+ *         也就是只有最慢的那 5% 才会多发一次，负载只多一点，长尾却被砍掉了
+ *         <p>延迟有下限 minDelay：调用只要几微秒时 p95 也只有几微秒，比线程切换、调度抖动还短，
+ *         主请求还没来得及被线程池取走就发了备份，等于每次都发两个</p>
+ *     </li>
+ *     <li>某个请求失败了，不用等，马上发下一个</li>
+ *     <li>
+ *         有一个成功就返回，其余的请求用 {@link Future#cancel(boolean) cancel(true)} 中断；
+ *         已经返回了结果的输家交给 onDiscard 回收（比如关闭连接）
+ *     </li>
+ * </ol>
+ * 等待在调用线程里进行，不需要额外的定时线程
+ */
+public class HedgedInvoker {
+
+    /**
+     * 历史耗时样本少于这个数时，用初始延迟
+     */
+    private static final int MIN_SAMPLES = 20;
+
+    /**
+     * 默认的对冲延迟下限
+     */
+    private static final long DEFAULT_MIN_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final ExecutorService executor;
+
+    private final double percentile;
+
+    private final long initialDelayNanos;
+
+    private final long minDelayNanos;
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    private final LongAdder hedges = new LongAdder();
+
+    private final LongAdder hedgeWins = new LongAdder();
+
+    private final LongAdder cancelled = new LongAdder();
+
+    /**
+     * 对冲延迟下限为 1ms
+     */
+    public HedgedInvoker(ExecutorService executor, double percentile, long initialDelay, TimeUnit unit) {
+        this(executor, percentile, unit.toNanos(initialDelay), DEFAULT_MIN_DELAY_NANOS, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param percentile   超过这个百分位的耗时就发备份请求
+     * @param initialDelay 样本不足时的对冲延迟
+     * @param minDelay     对冲延迟的下限，历史耗时再短也至少等这么久
+     */
+    public HedgedInvoker(ExecutorService executor, double percentile, long initialDelay, long minDelay, TimeUnit unit) {
+        if (percentile <= 0 || percentile >= 100 || minDelay < 0) {
+            throw new IllegalArgumentException();
+        }
+        this.executor = executor;
+        this.percentile = percentile;
+        this.initialDelayNanos = unit.toNanos(initialDelay);
+        this.minDelayNanos = unit.toNanos(minDelay);
+    }
+
+    /**
+     * 当前的对冲延迟，不低于 minDelay
+     */
+    public long getHedgeDelayNanos() {
+        LatencyHistogram.Snapshot snapshot = latency.snapshot();
+        long delay = snapshot.getCount() < MIN_SAMPLES ? initialDelayNanos : snapshot.getValueAtPercentile(percentile);
+        return Math.max(minDelayNanos, delay);
+    }
+
+    /**
+     * 发出的备份请求数
+     */
+    public long getHedges() {
+        return hedges.sum();
+    }
+
+    /**
+     * 备份请求胜出的次数
+     */
+    public long getHedgeWins() {
+        return hedgeWins.sum();
+    }
+
+    /**
+     * 被中断取消的输家数
+     */
+    public long getCancelled() {
+        return cancelled.sum();
+    }
+
+    /**
+     * 依次尝试 attempts，返回第一个成功的结果
+     *
+     * @param attempts 第一个是主请求，后面的是备份请求（比如同一个查询发到不同副本），也可以是同一个任务重复几次
+     */
+    public <T> T invokeAny(List<? extends Callable<T>> attempts) throws InterruptedException, ExecutionException {
+        try {
+            return invokeAny(attempts, Long.MAX_VALUE, TimeUnit.NANOSECONDS, null);
+        } catch (TimeoutException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * @param onDiscard 输家已经拿到了结果时调用，回收资源，可以为 null
+     */
+    public <T> T invokeAny(List<? extends Callable<T>> attempts, long timeout, TimeUnit unit, Consumer<? super T> onDiscard)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        if (attempts.isEmpty()) {
+            throw new IllegalArgumentException();
+        }
+        Hedge<T> hedge = new Hedge<>(onDiscard);
+        long start = System.nanoTime();
+        long deadline = start + Math.min(unit.toNanos(timeout), Long.MAX_VALUE / 2);
+        long delay = getHedgeDelayNanos();
+        int next = 0;
+        int running = 0;
+        long nextHedgeAt = 0;
+        ExecutionException failure = null;
+        Attempt<T> winner = null;
+        try {
+            hedge.launch(attempts.get(next++), 0);
+            running++;
+            nextHedgeAt = System.nanoTime() + delay;
+            for (; ; ) {
+                long now = System.nanoTime();
+                if (now - deadline >= 0) {
+                    throw new TimeoutException();
+                }
+                long wait = deadline - now;
+                if (next < attempts.size()) {
+                    wait = Math.min(wait, nextHedgeAt - now);
+                }
+                Attempt<T> done = wait > 0 ? hedge.completed.poll(wait, TimeUnit.NANOSECONDS) : hedge.completed.poll();
+                if (done == null) {
+                    // 对冲延迟到了还没有结果，发备份请求
+                    if (next < attempts.size() && System.nanoTime() - nextHedgeAt >= 0) {
+                        hedges.increment();
+                        hedge.launch(attempts.get(next), next++);
+                        running++;
+                        nextHedgeAt = System.nanoTime() + delay;
+                    }
+                    continue;
+                }
+                running--;
+                try {
+                    T result = done.get();
+                    winner = done;
+                    if (done.index > 0) {
+                        hedgeWins.increment();
+                    }
+                    return result;
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e;
+                    } else {
+                        failure.addSuppressed(e.getCause());
+                    }
+                    if (next < attempts.size()) {
+                        // 失败了马上发下一个，不用等对冲延迟
+                        hedge.launch(attempts.get(next), next++);
+                        running++;
+                        nextHedgeAt = System.nanoTime() + delay;
+                    } else if (running == 0) {
+                        throw failure;
+                    }
+                }
+            }
+        } finally {
+            hedge.abandon(winner);
+        }
+    }
+
+    /**
+     * 一次 invokeAny 的所有请求
+     */
+    private final class Hedge<T> {
+
+        final BlockingQueue<Attempt<T>> completed = new LinkedBlockingQueue<>();
+
+        final List<Attempt<T>> launched = new ArrayList<>();
+
+        final Consumer<? super T> onDiscard;
+
+        volatile boolean abandoned;
+
+        Hedge(Consumer<? super T> onDiscard) {
+            this.onDiscard = onDiscard;
+        }
+
+        void launch(Callable<T> callable, int index) {
+            Attempt<T> attempt = new Attempt<>(this, callable, index);
+            launched.add(attempt);
+            executor.execute(attempt);
+        }
+
+        /**
+         * 中断还在执行的请求，已经有结果的交给 onDiscard
+         */
+        void abandon(Attempt<T> winner) {
+            abandoned = true;
+            for (Attempt<T> attempt : launched) {
+                if (attempt == winner) {
+                    continue;
+                }
+                if (attempt.cancel(true)) {
+                    cancelled.increment();
+                } else {
+                    discard(attempt);
+                }
+            }
+        }
+
+        void discard(Attempt<T> attempt) {
+            if (onDiscard == null || attempt.isCancelled() || !attempt.discarded.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                onDiscard.accept(attempt.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException ignore) {
+                // 失败的请求没有需要回收的结果
+            }
+        }
+    }
+
+    private final class Attempt<T> extends FutureTask<T> {
+
+        final Hedge<T> hedge;
+
+        final int index;
+
+        final long launchedAt = System.nanoTime();
+
+        final AtomicBoolean discarded = new AtomicBoolean();
+
+        Attempt(Hedge<T> hedge, Callable<T> callable, int index) {
+            super(callable);
+            this.hedge = hedge;
+            this.index = index;
+        }
+
+        @Override
+        protected void set(T t) {
+            // 只记录正常完成的耗时，被取消、失败的不算
+            latency.record(System.nanoTime() - launchedAt);
+            super.set(t);
+        }
+
+        @Override
+        protected void done() {
+            hedge.completed.offer(this);
+            if (hedge.abandoned) {
+                // 已经有赢家了，后完成的输家在这里回收
+                hedge.discard(this);
+            }
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package threadpool;
+
+import org.junit.jupiter.api.Test;
+import util.SmallTool;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * {@link HedgedInvoker} 用法示例：同一份数据在两个副本上，主副本偶尔很慢
+ */
+public class HedgedInvokerTest {
+
+    private final ExecutorService executorService = Executors.newFixedThreadPool(4);
+
+    /**
+     * 主副本卡住 1 秒，20ms 后发出备份请求，备份先返回，主副本被中断
+     */
+    @Test
+    public void hedge() throws Exception {
+        HedgedInvoker invoker = new HedgedInvoker(executorService, 95, 20, TimeUnit.MILLISECONDS);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        Callable<String> primary = () -> {
+            try {
+                Thread.sleep(1000);
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+                throw e;
+            }
+            return "primary";
+        };
+        Callable<String> backup = () -> "backup";
+
+        long start = System.nanoTime();
+        String result = invoker.invokeAny(Arrays.asList(primary, backup));
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        SmallTool.printTimeAndThread(result + " in " + elapsed + "ms");
+        assertEquals("backup", result);
+        assertTrue(elapsed < 500);
+        assertTrue(interrupted.await(1, TimeUnit.SECONDS));
+        assertEquals(1, invoker.getHedges());
+        assertEquals(1, invoker.getHedgeWins());
+        assertEquals(1, invoker.getCancelled());
+        executorService.shutdown();
+    }
+
+    /**
+     * 主副本够快时不会发备份请求；对冲延迟跟着历史耗时降下来，但不低于下限 10ms，
+     * 否则几微秒的 p95 比线程切换还短，每次都会发备份
+     */
+    @Test
+    public void noHedgeWhenFast() throws Exception {
+        HedgedInvoker invoker = new HedgedInvoker(executorService, 95, 50, 10, TimeUnit.MILLISECONDS);
+        AtomicInteger backups = new AtomicInteger();
+        List<Callable<Integer>> attempts = Arrays.asList(() -> 1, () -> backups.incrementAndGet());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(Integer.valueOf(1), invoker.invokeAny(attempts));
+        }
+        SmallTool.printTimeAndThread("hedge delay=" + invoker.getHedgeDelayNanos() + "ns");
+        assertEquals(0, backups.get());
+        assertEquals(0, invoker.getHedges());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(10), invoker.getHedgeDelayNanos());
+        executorService.shutdown();
+    }
+
+    /**
+     * 主副本失败时不等对冲延迟，马上发备份请求；全部失败抛出第一个异常；超时抛 TimeoutException
+     */
+    @Test
+    public void failover() throws Exception {
+        HedgedInvoker invoker = new HedgedInvoker(executorService, 95, 10, TimeUnit.SECONDS);
+        Callable<String> failing = () -> {
+            throw new IllegalStateException("replica down");
+        };
+        long start = System.nanoTime();
+        assertEquals("backup", invoker.invokeAny(Arrays.asList(failing, () -> "backup")));
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+
+        ExecutionException e = assertThrows(ExecutionException.class,
+                () -> invoker.invokeAny(Arrays.asList(failing, failing)));
+        assertEquals("replica down", e.getCause().getMessage());
+
+        List<Callable<String>> slow = Collections.singletonList(() -> {
+            Thread.sleep(1000);
+            return "slow";
+        });
+        assertThrows(TimeoutException.class, () -> invoker.invokeAny(slow, 20, TimeUnit.MILLISECONDS, null));
+        executorService.shutdown();
+    }
+}
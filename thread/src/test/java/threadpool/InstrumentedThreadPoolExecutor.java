@@ -0,0 +1,260 @@
+package threadpool;
+
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * 带监控的线程池
+ * <p>{@link ThreadPoolExecutorTest} 里的线程池跑起来之后什么都看不到：任务排了多久队、执行了多久、拒绝了多少都不知道。
+ * 这里借助 ThreadPoolExecutor 预留的两个钩子：</p>
+ * <ul>
+ *     <li>{@link #beforeExecute(Thread, Runnable)}：工作线程拿到任务、执行之前调用，记录排队耗时</li>
+ *     <li>{@link #afterExecute(Runnable, Throwable)}：任务执行完（包括抛异常）之后调用，记录执行耗时和成败</li>
+ * </ul>
+ * 排队耗时需要知道任务是什么时候提交的，时间戳直接放在入队的任务对象上：
+ * <ul>
+ *     <li>submit/invokeAll 提交的任务本来就要包装成 FutureTask，这里重写 {@link #newTaskFor(Callable)} 换成带时间戳的子类，不多分配对象</li>
+ *     <li>
+ *         execute 提交的 Runnable 包一层 {@link TimedRunnable}，只多一个小对象。原始任务实现了 Comparable 时换成
+ *         {@link TimedComparableRunnable}，比较委托给原始任务，PriorityBlockingQueue 的顺序不变；
+ *         {@link #remove(Runnable)}、{@link #shutdownNow()} 和拒绝策略看到的都是拆掉包装的原始任务
+ *     </li>
+ * </ul>
+ * {@link #getQueue()} 里看到的是包装后的任务，可以用 {@link #unwrap(Runnable)} 取出原始任务；
+ * 绕过 execute 直接塞进队列的任务没有时间戳，不计入排队和执行耗时
+ * 拒绝次数通过包装 {@link RejectedExecutionHandler} 统计，原来的拒绝策略照常执行
+ * <p>指标读取见 {@link #getMetrics()}，可以直接替换 ThreadPoolExecutor 用在业务里
+ */
+public class InstrumentedThreadPoolExecutor extends ThreadPoolExecutor {
+
+    private final String name;
+
+    private final ExecutorMetrics metrics = new ExecutorMetrics();
+
+    public InstrumentedThreadPoolExecutor(String name, int corePoolSize, int maximumPoolSize, long keepAliveTime,
+                                          TimeUnit unit, BlockingQueue<Runnable> workQueue) {
+        this(name, corePoolSize, maximumPoolSize, keepAliveTime, unit, workQueue,
+                Executors.defaultThreadFactory(), new AbortPolicy());
+    }
+
+    public InstrumentedThreadPoolExecutor(String name, int corePoolSize, int maximumPoolSize, long keepAliveTime,
+                                          TimeUnit unit, BlockingQueue<Runnable> workQueue,
+                                          ThreadFactory threadFactory, RejectedExecutionHandler handler) {
+        super(corePoolSize, maximumPoolSize, keepAliveTime, unit, workQueue, threadFactory, handler);
+        this.name = name;
+        // 父类构造器里不会调用 setRejectedExecutionHandler，这里补上包装
+        setRejectedExecutionHandler(handler);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        if (command == null) {
+            throw new NullPointerException();
+        }
+        metrics.recordSubmitted();
+        long now = System.nanoTime();
+        if (command instanceof TimedFutureTask) {
+            ((TimedFutureTask<?>) command).timestamp = now;
+        } else {
+            command = command instanceof Comparable
+                    ? new TimedComparableRunnable(command, now) : new TimedRunnable(command, now);
+        }
+        super.execute(command);
+    }
+
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(Runnable runnable, T value) {
+        return new TimedFutureTask<>(runnable, value);
+    }
+
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(Callable<T> callable) {
+        return new TimedFutureTask<>(callable);
+    }
+
+    @Override
+    protected void beforeExecute(Thread t, Runnable r) {
+        super.beforeExecute(t, r);
+        long now = System.nanoTime();
+        // 时间戳从提交时间换成开始时间，afterExecute 拿它算执行耗时
+        long enqueued;
+        if (r instanceof TimedFutureTask) {
+            TimedFutureTask<?> task = (TimedFutureTask<?>) r;
+            enqueued = task.timestamp;
+            task.timestamp = now;
+        } else if (r instanceof TimedRunnable) {
+            TimedRunnable task = (TimedRunnable) r;
+            enqueued = task.timestamp;
+            task.timestamp = now;
+        } else {
+            return;
+        }
+        metrics.recordQueueWait(now - enqueued);
+    }
+
+    @Override
+    protected void afterExecute(Runnable r, Throwable t) {
+        super.afterExecute(r, t);
+        long started;
+        boolean success = t == null;
+        if (r instanceof TimedFutureTask) {
+            TimedFutureTask<?> task = (TimedFutureTask<?>) r;
+            started = task.timestamp;
+            success &= !task.failed;
+        } else if (r instanceof TimedRunnable) {
+            started = ((TimedRunnable) r).timestamp;
+        } else {
+            return;
+        }
+        metrics.recordRun(System.nanoTime() - started, success);
+    }
+
+    /**
+     * 取出 execute 包装前的原始任务，不是包装直接返回
+     */
+    static Runnable unwrap(Runnable r) {
+        return r instanceof TimedRunnable ? ((TimedRunnable) r).task : r;
+    }
+
+    /**
+     * 队列里放的是包装，按原始任务找到对应的包装再删；同一个任务排队多次时删最早入队的那个
+     */
+    @Override
+    public boolean remove(Runnable task) {
+        if (!(task instanceof TimedRunnable)) {
+            for (Runnable queued : getQueue()) {
+                if (queued instanceof TimedRunnable && ((TimedRunnable) queued).task == task) {
+                    return super.remove(queued);
+                }
+            }
+        }
+        return super.remove(task);
+    }
+
+    @Override
+    public void setRejectedExecutionHandler(RejectedExecutionHandler handler) {
+        super.setRejectedExecutionHandler(handler instanceof CountingHandler ? handler : new CountingHandler(handler));
+    }
+
+    /**
+     * 返回原始的拒绝策略
+     */
+    @Override
+    public RejectedExecutionHandler getRejectedExecutionHandler() {
+        return ((CountingHandler) super.getRejectedExecutionHandler()).delegate;
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        List<Runnable> tasks = super.shutdownNow();
+        tasks.replaceAll(InstrumentedThreadPoolExecutor::unwrap);
+        return tasks;
+    }
+
+    public ExecutorMetrics.Snapshot getMetrics() {
+        return metrics.snapshot(name, getActiveCount(), getPoolSize(), getLargestPoolSize(), getQueue().size());
+    }
+
+    /**
+     * 清空累计的计数器和直方图
+     */
+    public void resetMetrics() {
+        metrics.reset();
+    }
+
+    @Override
+    public String toString() {
+        return super.toString() + "[" + getMetrics() + "]";
+    }
+
+    /**
+     * execute 提交的任务的包装，带提交时间：入队前写、出队后读，中间有队列保证 happens-before，不需要 volatile
+     */
+    static class TimedRunnable implements Runnable {
+
+        final Runnable task;
+
+        long timestamp;
+
+        TimedRunnable(Runnable task, long timestamp) {
+            this.task = task;
+            this.timestamp = timestamp;
+        }
+
+        @Override
+        public void run() {
+            task.run();
+        }
+
+        @Override
+        public String toString() {
+            return task.toString();
+        }
+    }
+
+    /**
+     * 原始任务可比较时用的包装，比较委托给原始任务，优先级队列的顺序和不包装时一样
+     */
+    static final class TimedComparableRunnable extends TimedRunnable implements Comparable<Runnable> {
+
+        TimedComparableRunnable(Runnable task, long timestamp) {
+            super(task, timestamp);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public int compareTo(Runnable o) {
+            return ((Comparable<Object>) task).compareTo(unwrap(o));
+        }
+    }
+
+    /**
+     * 带提交时间的 FutureTask：入队前写、出队后读，中间有队列保证 happens-before，不需要 volatile
+     */
+    static final class TimedFutureTask<V> extends FutureTask<V> {
+
+        long timestamp;
+
+        /**
+         * FutureTask 会吞掉任务抛出的异常，afterExecute 拿不到，在这里记下来
+         */
+        boolean failed;
+
+        TimedFutureTask(Callable<V> callable) {
+            super(callable);
+        }
+
+        TimedFutureTask(Runnable runnable, V result) {
+            super(runnable, result);
+        }
+
+        @Override
+        protected void setException(Throwable t) {
+            failed = true;
+            super.setException(t);
+        }
+    }
+
+    private final class CountingHandler implements RejectedExecutionHandler {
+
+        final RejectedExecutionHandler delegate;
+
+        CountingHandler(RejectedExecutionHandler delegate) {
+            if (delegate == null) {
+                throw new NullPointerException();
+            }
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+            metrics.recordRejected();
+            // 拒绝策略拿到原始任务；CallerRunsPolicy 在调用线程直接执行，DiscardOldestPolicy 重新 execute 会再包一层
+            delegate.rejectedExecution(unwrap(r), executor);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package threadpool;
+
+import org.junit.jupiter.api.Test;
+import util.SmallTool;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * {@link InstrumentedThreadPoolExecutor} 用法示例
+ */
+public class InstrumentedThreadPoolExecutorTest {
+
+    /**
+     * 1 个线程、队列容量 2，提交 4 个各执行 20ms 的任务：第 4 个被拒绝，排在后面的任务排队耗时逐个增加
+     */
+    @Test
+    public void metrics() throws InterruptedException {
+        InstrumentedThreadPoolExecutor executor = new InstrumentedThreadPoolExecutor("demo", 1, 1,
+                0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(2));
+        for (int i = 0; i < 4; i++) {
+            try {
+                executor.execute(() -> SmallTool.sleepMillis(20));
+            } catch (RejectedExecutionException e) {
+                SmallTool.printTimeAndThread("rejected");
+            }
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(1, TimeUnit.SECONDS));
+
+        ExecutorMetrics.Snapshot metrics = executor.getMetrics();
+        SmallTool.printTimeAndThread(metrics.toString());
+        assertEquals(4, metrics.getSubmitted());
+        assertEquals(3, metrics.getCompleted());
+        assertEquals(1, metrics.getRejected());
+        assertEquals(3, metrics.getRunTime().getCount());
+        assertTrue(metrics.getRunTime().getValueAtPercentile(50) >= TimeUnit.MILLISECONDS.toNanos(20));
+        // 最后一个任务排在两个任务后面
+        assertTrue(metrics.getQueueWait().getMax() >= TimeUnit.MILLISECONDS.toNanos(40));
+    }
+
+    /**
+     * submit 提交的任务异常被 Future 吞掉了，同样计入失败数
+     */
+    @Test
+    public void submitFailure() throws InterruptedException {
+        InstrumentedThreadPoolExecutor executor = new InstrumentedThreadPoolExecutor("submit", 2, 2,
+                0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+                new ThreadPoolExecutorTest.DefaultThreadFactory(), new ThreadPoolExecutorTest.MyRejectedExecutionHandler());
+        Future<String> ok = executor.submit(() -> "ok");
+        Future<String> fail = executor.submit(() -> {
+            throw new IllegalStateException("boom");
+        });
+        assertThrows(ExecutionException.class, fail::get);
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(1, TimeUnit.SECONDS));
+        assertTrue(ok.isDone());
+        assertTrue(executor.getRejectedExecutionHandler() instanceof ThreadPoolExecutorTest.MyRejectedExecutionHandler);
+
+        ExecutorMetrics.Snapshot metrics = executor.getMetrics();
+        SmallTool.printTimeAndThread(metrics.toMap().toString());
+        assertEquals(1, metrics.getCompleted());
+        assertEquals(1, metrics.getFailed());
+    }
+
+    /**
+     * execute 的任务包装后入队：优先级队列照原始任务比较，remove 能按原始任务找到，拒绝策略拿到的也是原始任务
+     */
+    @Test
+    public void originalTaskQueued() throws InterruptedException {
+        CountDownLatch blocker = new CountDownLatch(1);
+        List<Runnable> rejected = new CopyOnWriteArrayList<>();
+        InstrumentedThreadPoolExecutor executor = new InstrumentedThreadPoolExecutor("priority", 1, 1,
+                0, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<>(),
+                Executors.defaultThreadFactory(), (r, e) -> rejected.add(r));
+        executor.execute(() -> {
+            try {
+                blocker.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        ThreadPoolExecutorTest.MyRunnable low = new ThreadPoolExecutorTest.MyRunnable(2);
+        ThreadPoolExecutorTest.MyRunnable high = new ThreadPoolExecutorTest.MyRunnable(1);
+        executor.execute(low);
+        executor.execute(high);
+        assertSame(high, InstrumentedThreadPoolExecutor.unwrap(executor.getQueue().peek()));
+        assertTrue(executor.remove(low));
+        blocker.countDown();
+        executor.shutdown();
+        executor.execute(low);
+        assertEquals(Collections.singletonList(low), rejected);
+        assertTrue(executor.awaitTermination(1, TimeUnit.SECONDS));
+
+        ExecutorMetrics.Snapshot metrics = executor.getMetrics();
+        SmallTool.printTimeAndThread(metrics.toString());
+        assertEquals(2, metrics.getCompleted());
+        assertEquals(2, metrics.getQueueWait().getCount());
+    }
+
+    /**
+     * shutdownNow 返回的是原始任务，不是包装
+     */
+    @Test
+    public void shutdownNowUnwraps() throws InterruptedException {
+        CountDownLatch blocker = new CountDownLatch(1);
+        InstrumentedThreadPoolExecutor executor = new InstrumentedThreadPoolExecutor("shutdownNow", 1, 1,
+                0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>());
+        executor.execute(() -> {
+            try {
+                blocker.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        Runnable queued = () -> { };
+        executor.execute(queued);
+        assertEquals(Collections.singletonList(queued), executor.shutdownNow());
+        assertTrue(executor.awaitTermination(1, TimeUnit.SECONDS));
+    }
+}
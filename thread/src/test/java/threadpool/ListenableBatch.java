@@ -0,0 +1,235 @@
+package threadpool;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * 批量执行 {@link ListenableFuture}：限制并发、失败即取消、边执行边归约
+ * <p>{@link MoreExecutorsTest#MoreExecutors_2()} 的 {@link Futures#allAsList} 要先把所有任务都提交、拿到所有 Future，
+ * 结果也全部攒在一个 List 里，10 万个元素就是 10 万个 Future 和 10 万个结果同时在内存里；其中一个失败了，其他的照样跑完。这里：</p>
+ * <ul>
+ *     <li>输入是一个 Iterator，按需取：同时在途的最多 maxConcurrency 个，完成一个再取下一个，内存里只有在途的这些 Future</li>
+ *     <li>结果不收集，完成一个就用 reducer 合并到累加值里（按完成顺序，不是输入顺序），reducer 在锁内串行调用，不用自己加锁</li>
+ *     <li>一个失败（call 抛异常、Future 失败、reducer 抛异常），整个批次立即失败，不再取新的输入，在途的全部 cancel(true)</li>
+ *     <li>返回的 Future 被取消时同样取消在途的、不再取新的输入</li>
+ * </ul>
+ * 回调用 directExecutor 在完成 Future 的线程里执行，已经完成的 Future 也不会递归调用，在一个循环里接着取下一个
+ */
+public final class ListenableBatch<E, T, A> {
+
+    private final Iterator<? extends E> inputs;
+
+    private final Function<? super E, ? extends ListenableFuture<? extends T>> call;
+
+    private final int maxConcurrency;
+
+    private final BiFunction<A, ? super T, A> reducer;
+
+    private final SettableFuture<A> result = SettableFuture.create();
+
+    /**
+     * 在途的 Future，最多 maxConcurrency 个，失败或取消时逐个取消
+     */
+    private final Set<ListenableFuture<?>> running;
+
+    /**
+     * 调度循环的进入次数，不为 0 说明已经有线程在循环里，完成回调只加一次计数，由那个线程多循环一次
+     */
+    private final AtomicInteger wip = new AtomicInteger();
+
+    private final Object lock = new Object();
+
+    /**
+     * 以下字段由 lock 保护
+     */
+    private A accumulator;
+
+    private int inFlight;
+
+    private boolean exhausted;
+
+    private ListenableBatch(Iterator<? extends E> inputs, Function<? super E, ? extends ListenableFuture<? extends T>> call,
+                            int maxConcurrency, A identity, BiFunction<A, ? super T, A> reducer) {
+        this.inputs = inputs;
+        this.call = call;
+        this.maxConcurrency = maxConcurrency;
+        this.accumulator = identity;
+        this.reducer = reducer;
+        this.running = Collections.newSetFromMap(new IdentityHashMap<>(maxConcurrency * 2));
+    }
+
+    /**
+     * 对 inputs 的每个元素调用 call，最多 maxConcurrency 个同时在途，结果按完成顺序用 reducer 归约
+     *
+     * @param inputs   按需取的输入，在锁内串行调用，可以是懒生成的
+     * @param call     发起一次异步调用，在调度循环里调用，不要阻塞
+     * @param identity 累加值的初始值
+     * @param reducer  (累加值, 一个结果) -> 新的累加值，按完成顺序串行调用
+     * @return 全部成功时完成为最终的累加值；任何一个失败就以这个异常失败
+     */
+    public static <E, T, A> ListenableFuture<A> reduce(Iterator<? extends E> inputs,
+                                                       Function<? super E, ? extends ListenableFuture<? extends T>> call,
+                                                       int maxConcurrency, A identity, BiFunction<A, ? super T, A> reducer) {
+        if (maxConcurrency <= 0) {
+            throw new IllegalArgumentException();
+        }
+        ListenableBatch<E, T, A> batch = new ListenableBatch<>(inputs, call, maxConcurrency, identity, reducer);
+        batch.result.addListener(() -> {
+            if (batch.result.isCancelled()) {
+                batch.cancelRunning();
+            }
+        }, MoreExecutors.directExecutor());
+        batch.drain();
+        return batch.result;
+    }
+
+    /**
+     * 不需要结果，只要全部成功
+     */
+    public static <E> ListenableFuture<Void> forEach(Iterator<? extends E> inputs,
+                                                     Function<? super E, ? extends ListenableFuture<?>> call,
+                                                     int maxConcurrency) {
+        return reduce(inputs, call, maxConcurrency, null, (a, t) -> null);
+    }
+
+    private void drain() {
+        if (wip.getAndIncrement() != 0) {
+            return;
+        }
+        do {
+            launch();
+        } while (wip.decrementAndGet() != 0);
+    }
+
+    /**
+     * 在并发上限内尽量多地发起调用
+     */
+    private void launch() {
+        for (; ; ) {
+            E input = null;
+            boolean next = false;
+            boolean complete = false;
+            A done = null;
+            Throwable failure = null;
+            synchronized (lock) {
+                if (result.isDone() || exhausted || inFlight >= maxConcurrency) {
+                    return;
+                }
+                try {
+                    if (inputs.hasNext()) {
+                        input = inputs.next();
+                        next = true;
+                        inFlight++;
+                    } else {
+                        exhausted = true;
+                        complete = inFlight == 0;
+                        done = accumulator;
+                    }
+                } catch (Throwable t) {
+                    failure = t;
+                }
+            }
+            // 完成、失败都在锁外，result 的监听器不在锁内执行
+            if (failure != null) {
+                fail(failure);
+                return;
+            }
+            if (!next) {
+                if (complete) {
+                    result.set(done);
+                }
+                return;
+            }
+            ListenableFuture<? extends T> future;
+            try {
+                future = call.apply(input);
+            } catch (Throwable t) {
+                fail(t);
+                return;
+            }
+            synchronized (lock) {
+                running.add(future);
+            }
+            if (result.isDone()) {
+                // 和 cancelRunning 并发时，那边可能没看到这个 future；先登记再读状态，和先完成结果再取消在途的配对
+                future.cancel(true);
+            }
+            Futures.addCallback(future, new Callback(future), MoreExecutors.directExecutor());
+        }
+    }
+
+    private void fail(Throwable t) {
+        if (result.setException(t)) {
+            cancelRunning();
+        }
+    }
+
+    private void cancelRunning() {
+        List<ListenableFuture<?>> snapshot;
+        synchronized (lock) {
+            snapshot = new ArrayList<>(running);
+        }
+        for (ListenableFuture<?> future : snapshot) {
+            future.cancel(true);
+        }
+    }
+
+    private final class Callback implements FutureCallback<T> {
+
+        private final ListenableFuture<?> future;
+
+        Callback(ListenableFuture<?> future) {
+            this.future = future;
+        }
+
+        @Override
+        public void onSuccess(T value) {
+            Throwable failure = null;
+            boolean complete = false;
+            A done = null;
+            synchronized (lock) {
+                running.remove(future);
+                inFlight--;
+                if (result.isDone()) {
+                    return;
+                }
+                try {
+                    accumulator = reducer.apply(accumulator, value);
+                    complete = exhausted && inFlight == 0;
+                    done = accumulator;
+                } catch (Throwable t) {
+                    failure = t;
+                }
+            }
+            if (failure != null) {
+                fail(failure);
+            } else if (complete) {
+                result.set(done);
+            } else {
+                drain();
+            }
+        }
+
+        @Override
+        public void onFailure(Throwable t) {
+            synchronized (lock) {
+                running.remove(future);
+                inFlight--;
+            }
+            fail(t);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package threadpool;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import util.SmallTool;
+
+import java.util.Iterator;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * {@link ListenableBatch} 用法示例，和 {@link MoreExecutorsTest#MoreExecutors_2()} 的 allAsList 对照
+ */
+public class ListenableBatchTest {
+
+    private final ListeningExecutorService les = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(10));
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+
+    private final AtomicInteger started = new AtomicInteger();
+
+    @AfterEach
+    public void tearDown() {
+        les.shutdownNow();
+    }
+
+    /**
+     * 10 万个元素懒生成，同时最多 8 个在途，结果边完成边求和，不攒 List
+     */
+    @Test
+    public void reduce() throws Exception {
+        Iterator<Integer> inputs = IntStream.rangeClosed(1, 100_000).boxed().iterator();
+        ListenableFuture<Long> sum = ListenableBatch.reduce(inputs, i -> submit(() -> (long) i), 8, 0L, Long::sum);
+        assertEquals(Long.valueOf(100_000L * 100_001 / 2), sum.get(10, TimeUnit.SECONDS));
+        SmallTool.printTimeAndThread("最多同时在途 " + maxInFlight.get());
+        assertTrue(maxInFlight.get() <= 8);
+        assertEquals(100_000, started.get());
+    }
+
+    /**
+     * 第 50 个失败：整个批次立即失败，后面的不再发起，在途的被取消（打断）
+     */
+    @Test
+    public void failFast() throws InterruptedException {
+        AtomicInteger interrupted = new AtomicInteger();
+        Iterator<Integer> inputs = IntStream.rangeClosed(1, 100_000).boxed().iterator();
+        ListenableFuture<Void> future = ListenableBatch.forEach(inputs, i -> submit(() -> {
+            if (i == 50) {
+                throw new IllegalStateException("第 " + i + " 个失败");
+            }
+            try {
+                Thread.sleep(i > 50 ? 10_000 : 0);
+            } catch (InterruptedException e) {
+                interrupted.incrementAndGet();
+                throw e;
+            }
+            return null;
+        }), 4);
+        ExecutionException e = assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS));
+        SmallTool.sleepMillis(100);
+        SmallTool.printTimeAndThread(e.getCause().getMessage() + "，一共发起了 " + started.get() + " 个，打断了 " + interrupted.get() + " 个");
+        assertTrue(e.getCause() instanceof IllegalStateException);
+        assertTrue(started.get() < 60);
+        // 在途的都已经取消，不用等 10 秒
+        assertEquals(0, inFlight.get());
+    }
+
+    /**
+     * 调用方取消整个批次，在途的一起取消
+     */
+    @Test
+    public void cancel() {
+        Iterator<Integer> inputs = IntStream.rangeClosed(1, 100_000).boxed().iterator();
+        ListenableFuture<Integer> count = ListenableBatch.reduce(inputs, i -> submit(() -> {
+            Thread.sleep(10);
+            return i;
+        }), 4, 0, (a, i) -> a + 1);
+        SmallTool.sleepMillis(100);
+        assertTrue(count.cancel(false));
+        SmallTool.sleepMillis(50);
+        int total = started.get();
+        SmallTool.sleepMillis(100);
+        assertEquals(total, started.get());
+        assertEquals(0, inFlight.get());
+    }
+
+    /**
+     * 已经完成的 Future（比如命中缓存）在同一个循环里处理，不会因为回调套回调而栈溢出
+     */
+    @Test
+    public void immediateFutures() throws Exception {
+        Iterator<Integer> inputs = IntStream.range(0, 1_000_000).boxed().iterator();
+        ListenableFuture<Integer> count = ListenableBatch.reduce(inputs, Futures::immediateFuture,
+                16, 0, (a, i) -> a + 1);
+        assertTrue(count.isDone());
+        assertEquals(Integer.valueOf(1_000_000), count.get());
+    }
+
+    private <T> ListenableFuture<T> submit(Callable<T> task) {
+        started.incrementAndGet();
+        int n = inFlight.incrementAndGet();
+        maxInFlight.accumulateAndGet(n, Math::max);
+        ListenableFuture<T> future = les.submit(task);
+        future.addListener(inFlight::decrementAndGet, MoreExecutors.directExecutor());
+        return future;
+    }
+}
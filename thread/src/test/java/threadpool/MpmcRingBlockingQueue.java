@@ -0,0 +1,356 @@
+package threadpool;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 基于环形数组的无锁有界多生产者多消费者（MPMC）阻塞队列，可以直接传给 {@link java.util.concurrent.ThreadPoolExecutor}
+ * <p>{@link java.util.concurrent.LinkedBlockingQueue} 每次 offer 都要分配一个节点，生产者、消费者各抢一把锁；
+ * {@link java.util.concurrent.ArrayBlockingQueue} 不分配节点，但是生产者和消费者共用一把锁。这里（Dmitry Vyukov 的有界 MPMC 队列）：</p>
+ * <ul>
+ *     <li>
+ *         数组长度是 2 的幂，每个格子带一个序号：序号等于 tail 说明可以写，等于 head + 1 说明可以读。
+ *         生产者 CAS 抢 tail、消费者 CAS 抢 head，抢到之后各自写读自己的格子，再把序号推进一格，不加锁、不分配对象
+ *     </li>
+ *     <li>head、tail 各自垫满一个缓存行，生产者改 tail 不会让消费者缓存的 head 失效（伪共享）</li>
+ *     <li>
+ *         阻塞的 take/put 先自旋 spinTries 次、再 yield yieldTries 次，还不行才登记到等待队列里 park。
+ *         线程池的工作线程多数时候队列里很快就有任务，自旋能省掉一次 park/unpark；
+ *         offer/poll 成功后看一眼等待队列，有人在等才 unpark，没人等的时候只多一次 volatile 读
+ *     </li>
+ *     <li>
+ *         不支持从中间删除，{@link #remove(Object)} 总是返回 false：ThreadPoolExecutor#remove、purge 删不掉已经取消的任务，
+ *         它们留在队列里，轮到时 FutureTask 发现已取消直接返回
+ *     </li>
+ * </ul>
+ */
+public class MpmcRingBlockingQueue<E> extends AbstractQueue<E> implements BlockingQueue<E> {
+
+    private final int capacity;
+
+    private final int mask;
+
+    private final AtomicReferenceArray<E> elements;
+
+    /**
+     * 每个格子的序号
+     */
+    private final AtomicLongArray sequences;
+
+    /**
+     * 下一个要读的位置
+     */
+    private final PaddedAtomicLong head = new PaddedAtomicLong();
+
+    /**
+     * 下一个要写的位置
+     */
+    private final PaddedAtomicLong tail = new PaddedAtomicLong();
+
+    private final ConcurrentLinkedQueue<Thread> notEmptyWaiters = new ConcurrentLinkedQueue<>();
+
+    private final ConcurrentLinkedQueue<Thread> notFullWaiters = new ConcurrentLinkedQueue<>();
+
+    private final int spinTries;
+
+    private final int yieldTries;
+
+    /**
+     * 自旋 100 次、yield 10 次
+     */
+    public MpmcRingBlockingQueue(int capacity) {
+        this(capacity, 100, 10);
+    }
+
+    /**
+     * @param capacity 会向上取整到 2 的幂，最小为 2
+     */
+    public MpmcRingBlockingQueue(int capacity, int spinTries, int yieldTries) {
+        if (capacity <= 0 || capacity > 1 << 30 || spinTries < 0 || yieldTries < 0) {
+            throw new IllegalArgumentException();
+        }
+        // 只有 1 个格子时"可读"和"下一圈可写"的序号相同，分不开，最少 2 个
+        this.capacity = capacity <= 2 ? 2 : Integer.highestOneBit(capacity - 1) << 1;
+        this.mask = this.capacity - 1;
+        this.elements = new AtomicReferenceArray<>(this.capacity);
+        this.sequences = new AtomicLongArray(this.capacity);
+        for (int i = 0; i < this.capacity; i++) {
+            sequences.set(i, i);
+        }
+        this.spinTries = spinTries;
+        this.yieldTries = yieldTries;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    @Override
+    public boolean offer(E e) {
+        if (e == null) {
+            throw new NullPointerException();
+        }
+        for (; ; ) {
+            long pos = tail.get();
+            int index = (int) (pos & mask);
+            long diff = sequences.get(index) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    elements.lazySet(index, e);
+                    // volatile 写，和后面读等待队列构成 StoreLoad：要么消费者登记后重新检查时看到这个元素，要么这里看到消费者
+                    sequences.set(index, pos + 1);
+                    signal(notEmptyWaiters);
+                    return true;
+                }
+            } else if (diff < 0) {
+                // 这个格子上一圈的元素还没被取走，满了
+                return false;
+            }
+            // diff > 0：别的生产者已经抢到了 pos，重新读 tail
+        }
+    }
+
+    @Override
+    public E poll() {
+        for (; ; ) {
+            long pos = head.get();
+            int index = (int) (pos & mask);
+            long diff = sequences.get(index) - (pos + 1);
+            if (diff == 0) {
+                if (head.compareAndSet(pos, pos + 1)) {
+                    E e = elements.get(index);
+                    elements.lazySet(index, null);
+                    // 下一圈的生产者可以写了
+                    sequences.set(index, pos + capacity);
+                    signal(notFullWaiters);
+                    return e;
+                }
+            } else if (diff < 0) {
+                // 还没有生产者写到这个格子，空了
+                return null;
+            }
+        }
+    }
+
+    @Override
+    public void put(E e) throws InterruptedException {
+        offer(e, 0, true);
+    }
+
+    @Override
+    public boolean offer(E e, long timeout, TimeUnit unit) throws InterruptedException {
+        return offer(e, System.nanoTime() + unit.toNanos(timeout), false);
+    }
+
+    @Override
+    public E take() throws InterruptedException {
+        return poll(0, true);
+    }
+
+    @Override
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        return poll(System.nanoTime() + unit.toNanos(timeout), false);
+    }
+
+    private boolean offer(E e, long deadline, boolean forever) throws InterruptedException {
+        int round = 0;
+        while (!offer(e)) {
+            boolean interrupted = Thread.interrupted();
+            long nanos = deadline - System.nanoTime();
+            if (interrupted || !forever && nanos <= 0) {
+                // 可能已经被唤醒过、却不再取这个空位了，把唤醒转给下一个等待的生产者
+                if (size() < capacity) {
+                    signal(notFullWaiters);
+                }
+                if (interrupted) {
+                    throw new InterruptedException();
+                }
+                return false;
+            }
+            if (backoff(round++)) {
+                continue;
+            }
+            Thread current = Thread.currentThread();
+            notFullWaiters.add(current);
+            // 登记之后再试一次，和 poll 的先写序号再读等待队列配对，不会漏掉唤醒
+            if (offer(e)) {
+                notFullWaiters.remove(current);
+                return true;
+            }
+            if (forever) {
+                LockSupport.park(this);
+            } else {
+                LockSupport.parkNanos(this, nanos);
+            }
+            notFullWaiters.remove(current);
+        }
+        return true;
+    }
+
+    private E poll(long deadline, boolean forever) throws InterruptedException {
+        int round = 0;
+        E e;
+        while ((e = poll()) == null) {
+            boolean interrupted = Thread.interrupted();
+            long nanos = deadline - System.nanoTime();
+            if (interrupted || !forever && nanos <= 0) {
+                if (!isEmpty()) {
+                    signal(notEmptyWaiters);
+                }
+                if (interrupted) {
+                    throw new InterruptedException();
+                }
+                return null;
+            }
+            if (backoff(round++)) {
+                continue;
+            }
+            Thread current = Thread.currentThread();
+            notEmptyWaiters.add(current);
+            if ((e = poll()) != null) {
+                notEmptyWaiters.remove(current);
+                return e;
+            }
+            if (forever) {
+                LockSupport.park(this);
+            } else {
+                LockSupport.parkNanos(this, nanos);
+            }
+            notEmptyWaiters.remove(current);
+        }
+        return e;
+    }
+
+    /**
+     * 等待策略：前 spinTries 轮自旋，接着 yieldTries 轮让出 CPU
+     *
+     * @return false 表示该 park 了
+     */
+    private boolean backoff(int round) {
+        if (round < spinTries) {
+            return true;
+        }
+        if (round < spinTries + yieldTries) {
+            Thread.yield();
+            return true;
+        }
+        return false;
+    }
+
+    private static void signal(ConcurrentLinkedQueue<Thread> waiters) {
+        if (!waiters.isEmpty()) {
+            Thread waiter = waiters.poll();
+            if (waiter != null) {
+                LockSupport.unpark(waiter);
+            }
+        }
+    }
+
+    @Override
+    public E peek() {
+        for (; ; ) {
+            long pos = head.get();
+            int index = (int) (pos & mask);
+            if (sequences.get(index) - (pos + 1) < 0) {
+                return null;
+            }
+            E e = elements.get(index);
+            // 读的同时被别的消费者取走了就重读
+            if (e != null && head.get() == pos) {
+                return e;
+            }
+        }
+    }
+
+    /**
+     * 近似值：包括已经抢到位置、还没写完的元素
+     */
+    @Override
+    public int size() {
+        for (; ; ) {
+            long h = head.get();
+            long t = tail.get();
+            if (head.get() == h) {
+                return (int) Math.max(0, Math.min(t - h, capacity));
+            }
+        }
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return peek() == null;
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return capacity - size();
+    }
+
+    /**
+     * 不支持从中间删除，总是返回 false
+     */
+    @Override
+    public boolean remove(Object o) {
+        return false;
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c, int maxElements) {
+        if (c == null) {
+            throw new NullPointerException();
+        }
+        if (c == this) {
+            throw new IllegalArgumentException();
+        }
+        int n = 0;
+        E e;
+        while (n < maxElements && (e = poll()) != null) {
+            c.add(e);
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * 弱一致的只读迭代器：遍历的是调用时 head 到 tail 之间已经写好的元素的拷贝，不支持 remove
+     */
+    @Override
+    public Iterator<E> iterator() {
+        List<E> snapshot = new ArrayList<>();
+        long h = head.get();
+        long t = tail.get();
+        for (long pos = h; pos < t && pos - h < capacity; pos++) {
+            int index = (int) (pos & mask);
+            E e = elements.get(index);
+            if (e != null && sequences.get(index) == pos + 1) {
+                snapshot.add(e);
+            }
+        }
+        return Collections.unmodifiableList(snapshot).iterator();
+    }
+
+    /**
+     * value 后面垫 7 个 long，两个实例连着分配时，它们的 value 至少隔开一个缓存行
+     */
+    @SuppressWarnings("unused")
+    static final class PaddedAtomicLong extends AtomicLong {
+
+        long p1, p2, p3, p4, p5, p6, p7;
+    }
+}
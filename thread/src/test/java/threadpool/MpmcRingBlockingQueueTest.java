@@ -0,0 +1,155 @@
+package threadpool;
+
+import org.junit.jupiter.api.Test;
+import util.SmallTool;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * {@link MpmcRingBlockingQueue} 用法示例
+ */
+public class MpmcRingBlockingQueueTest {
+
+    @Test
+    public void offerPoll() {
+        MpmcRingBlockingQueue<Integer> queue = new MpmcRingBlockingQueue<>(3);
+        // 向上取整到 4
+        assertEquals(4, queue.getCapacity());
+        for (int i = 0; i < 4; i++) {
+            assertTrue(queue.offer(i));
+        }
+        assertFalse(queue.offer(4));
+        assertEquals(4, queue.size());
+        assertEquals(0, queue.remainingCapacity());
+        assertEquals(Integer.valueOf(0), queue.peek());
+        // 环形：绕一圈以后顺序不变
+        for (int i = 4; i < 100; i++) {
+            assertEquals(Integer.valueOf(i - 4), queue.poll());
+            assertTrue(queue.offer(i));
+        }
+        List<Integer> drained = new ArrayList<>();
+        assertEquals(4, queue.drainTo(drained));
+        assertEquals(96, drained.get(0).intValue());
+        assertNull(queue.poll());
+        assertTrue(queue.isEmpty());
+    }
+
+    /**
+     * 空的时候 take 阻塞，满的时候 put 阻塞，另一边一动就被唤醒
+     */
+    @Test
+    public void blocking() throws Exception {
+        MpmcRingBlockingQueue<String> queue = new MpmcRingBlockingQueue<>(2);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        Future<String> taken = executor.submit(queue::take);
+        SmallTool.sleepMillis(100);
+        assertFalse(taken.isDone());
+        queue.put("菜");
+        assertEquals("菜", taken.get(1, TimeUnit.SECONDS));
+
+        queue.put("第一盘");
+        queue.put("第二盘");
+        Future<?> put = executor.submit(() -> {
+            queue.put("第三盘");
+            return null;
+        });
+        SmallTool.sleepMillis(100);
+        assertFalse(put.isDone());
+        assertEquals("第一盘", queue.take());
+        put.get(1, TimeUnit.SECONDS);
+        assertEquals("第二盘", queue.take());
+        assertEquals("第三盘", queue.take());
+
+        long start = System.nanoTime();
+        assertNull(queue.poll(100, TimeUnit.MILLISECONDS));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(100));
+        executor.shutdownNow();
+    }
+
+    /**
+     * 4 个生产者、4 个消费者，队列只有 64 个格子，频繁在满和空之间切换：不丢、不重复
+     */
+    @Test
+    public void mpmc() throws Exception {
+        MpmcRingBlockingQueue<Long> queue = new MpmcRingBlockingQueue<>(64);
+        int producers = 4;
+        int perProducer = 250_000;
+        ExecutorService executor = Executors.newFixedThreadPool(producers * 2);
+        LongAdder sum = new LongAdder();
+        AtomicInteger consumed = new AtomicInteger();
+        List<Future<?>> futures = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            long base = (long) p * perProducer;
+            futures.add(executor.submit(() -> {
+                for (int i = 1; i <= perProducer; i++) {
+                    queue.put(base + i);
+                }
+                return null;
+            }));
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < perProducer; i++) {
+                    sum.add(queue.take());
+                    consumed.incrementAndGet();
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get(30, TimeUnit.SECONDS);
+        }
+        long n = (long) producers * perProducer;
+        assertEquals(producers * perProducer, consumed.get());
+        assertEquals(n * (n + 1) / 2, sum.sum());
+        assertTrue(queue.isEmpty());
+        executor.shutdown();
+    }
+
+    /**
+     * 直接作为 ThreadPoolExecutor 的工作队列
+     */
+    @Test
+    public void threadPoolExecutor() throws InterruptedException {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(4, 4, 0, TimeUnit.MILLISECONDS,
+                new MpmcRingBlockingQueue<>(1024), new ThreadPoolExecutor.CallerRunsPolicy());
+        AtomicLong count = new AtomicLong();
+        long start = System.nanoTime();
+        for (int i = 0; i < 100_000; i++) {
+            executor.execute(count::incrementAndGet);
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        SmallTool.printTimeAndThread("10 万个任务 " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
+        assertEquals(100_000L, count.get());
+    }
+
+    /**
+     * shutdownNow 把队列里没执行的任务倒出来
+     */
+    @Test
+    public void shutdownNow() throws InterruptedException {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new MpmcRingBlockingQueue<>(16));
+        CountDownLatch running = new CountDownLatch(1);
+        executor.execute(() -> {
+            running.countDown();
+            try {
+                Thread.sleep(200);
+            } catch (InterruptedException e) {
+                // shutdownNow 会打断正在执行的任务
+            }
+        });
+        for (int i = 0; i < 10; i++) {
+            executor.execute(() -> {
+            });
+        }
+        assertTrue(running.await(1, TimeUnit.SECONDS));
+        assertEquals(10, executor.getQueue().size());
+        assertEquals(10, executor.shutdownNow().size());
+    }
+}
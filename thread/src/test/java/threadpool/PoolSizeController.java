@@ -0,0 +1,178 @@
+package threadpool;
+
+import util.LatencyHistogram;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link DynamicThreadPoolExecutor} 的线程数自动调节器，思路参考 .NET 线程池的爬山算法（hill climbing）
+ * <p>每个周期统计一次：</p>
+ * <ul>
+ *     <li>吞吐量：周期内完成的任务数 / 周期长度</li>
+ *     <li>平均排队耗时、平均执行耗时：直方图是累计的，用两次快照的 count、sum 之差算出本周期的平均值</li>
+ * </ul>
+ * 然后按下面的规则调整线程数（核心线程数和最大线程数设成一样），每次只调一个线程：
+ * <ol>
+ *     <li>没有积压（平均排队耗时低于目标且队列为空）：线程够用。按利特尔法则，忙碌的线程数 ≈ 吞吐量 × 平均执行耗时，
+ *     减掉一个线程后仍有富余才减，慢慢回收多余线程</li>
+ *     <li>有积压，吞吐量比上个周期明显提高（超过容差）：上一步方向是对的，继续往同一方向走；第一次出现积压时先加线程</li>
+ *     <li>有积压，吞吐量明显下降：上一步走错了，掉头</li>
+ *     <li>有积压，吞吐量基本不变：加线程没用（比如 CPU 已经打满），往少的方向走</li>
+ * </ol>
+ * 线程数最终会在最优值附近小幅摆动；线程数始终限制在 [minSize, maxSize] 内
+ */
+public class PoolSizeController {
+
+    /**
+     * 吞吐量变化在这个比例以内视为没有变化，过滤抖动
+     */
+    private static final double TOLERANCE = 0.05;
+
+    private final DynamicThreadPoolExecutor pool;
+
+    private final int minSize;
+
+    private final int maxSize;
+
+    private final long targetQueueWaitNanos;
+
+    private final long periodNanos;
+
+    private ScheduledFuture<?> task;
+
+    private long lastTick;
+
+    private long lastCompleted;
+
+    private long lastWaitCount;
+
+    private double lastWaitSum;
+
+    private long lastRunCount;
+
+    private double lastRunSum;
+
+    private double lastThroughput;
+
+    /**
+     * 上一步的方向：1 加线程，-1 减线程，0 没有积压
+     */
+    private int direction;
+
+    /**
+     * @param minSize         最少线程数
+     * @param maxSize         最多线程数
+     * @param targetQueueWait 可以接受的平均排队耗时
+     * @param period          调整周期，至少要能完成几十个任务，否则吞吐量抖动太大
+     */
+    public PoolSizeController(DynamicThreadPoolExecutor pool, int minSize, int maxSize,
+                              long targetQueueWait, long period, TimeUnit unit) {
+        if (minSize <= 0 || maxSize < minSize || period <= 0) {
+            throw new IllegalArgumentException();
+        }
+        this.pool = pool;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.targetQueueWaitNanos = unit.toNanos(targetQueueWait);
+        this.periodNanos = unit.toNanos(period);
+    }
+
+    /**
+     * 开始定期调整
+     */
+    public synchronized void start(ScheduledExecutorService scheduler) {
+        if (task != null) {
+            throw new IllegalStateException("already started");
+        }
+        resetWindow();
+        task = scheduler.scheduleWithFixedDelay(this::tick, periodNanos, periodNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public synchronized void stop() {
+        if (task != null) {
+            task.cancel(false);
+            task = null;
+        }
+    }
+
+    /**
+     * 上个周期的吞吐量，每秒完成的任务数
+     */
+    public synchronized double getLastThroughput() {
+        return lastThroughput;
+    }
+
+    /**
+     * 执行一次调整
+     *
+     * @return 调整后的核心线程数
+     */
+    synchronized int tick() {
+        long now = System.nanoTime();
+        long completed = pool.getCompletedTaskCount();
+        ExecutorMetrics.Snapshot metrics = pool.getMetrics();
+        LatencyHistogram.Snapshot wait = metrics.getQueueWait();
+        LatencyHistogram.Snapshot run = metrics.getRunTime();
+        double waitSum = wait.getMean() * wait.getCount();
+        double runSum = run.getMean() * run.getCount();
+        double meanWait = windowMean(wait.getCount() - lastWaitCount, waitSum - lastWaitSum);
+        double meanRun = windowMean(run.getCount() - lastRunCount, runSum - lastRunSum);
+        double throughput = (completed - lastCompleted) * 1e9 / Math.max(1, now - lastTick);
+
+        boolean backlog = meanWait > targetQueueWaitNanos || !pool.getQueue().isEmpty();
+        if (!backlog) {
+            direction = 0;
+            double busy = throughput * meanRun / 1e9;
+            if (pool.getCorePoolSize() - 1 >= busy * (1 + TOLERANCE)) {
+                resizeBy(-1);
+            }
+        } else {
+            if (direction == 0 || throughput > lastThroughput * (1 + TOLERANCE)) {
+                direction = direction == 0 ? 1 : direction;
+            } else if (throughput < lastThroughput * (1 - TOLERANCE)) {
+                direction = -direction;
+            } else {
+                direction = -1;
+            }
+            resizeBy(direction);
+        }
+
+        lastTick = now;
+        lastCompleted = completed;
+        lastWaitCount = wait.getCount();
+        lastWaitSum = waitSum;
+        lastRunCount = run.getCount();
+        lastRunSum = runSum;
+        lastThroughput = throughput;
+        return pool.getCorePoolSize();
+    }
+
+    private void resizeBy(int delta) {
+        int current = pool.getCorePoolSize();
+        int target = Math.max(minSize, Math.min(maxSize, current + delta));
+        if (target != current) {
+            // max 也一起调：max 比 core 大的话，多出来的线程只要一直有任务就不会空闲超时，线程数实际降不下来
+            pool.resize(target, target);
+        }
+    }
+
+    private static double windowMean(long count, double sum) {
+        return count <= 0 ? 0 : sum / count;
+    }
+
+    private void resetWindow() {
+        ExecutorMetrics.Snapshot metrics = pool.getMetrics();
+        LatencyHistogram.Snapshot wait = metrics.getQueueWait();
+        LatencyHistogram.Snapshot run = metrics.getRunTime();
+        lastTick = System.nanoTime();
+        lastCompleted = pool.getCompletedTaskCount();
+        lastWaitCount = wait.getCount();
+        lastWaitSum = wait.getMean() * wait.getCount();
+        lastRunCount = run.getCount();
+        lastRunSum = run.getMean() * run.getCount();
+        lastThroughput = 0;
+        direction = 0;
+    }
+}
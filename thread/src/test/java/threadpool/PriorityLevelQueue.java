@@ -0,0 +1,264 @@
+package threadpool;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 分级优先队列，给 {@link PriorityThreadPoolExecutor} 用
+ * <p>{@link java.util.concurrent.PriorityBlockingQueue} 是一把锁保护一个二叉堆，每次入队出队都要在锁里做 O(log n) 的上浮下沉，
+ * 线程多了全都堵在这把锁上；同优先级的元素出队顺序也不保证先进先出。这里换个思路：</p>
+ * <ul>
+ *     <li>
+ *         优先级只分固定的几级（0 最高），每一级一个 {@link ConcurrentLinkedQueue}，入队出队都是无锁的 CAS，
+ *         同一级内天然先进先出
+ *     </li>
+ *     <li>
+ *         阻塞用 {@link Semaphore} 计数：入队后 release 一个许可，出队前先 acquire 一个许可，拿到许可就保证有一个元素属于自己；
+ *         队列不空时 acquire 只是一次 CAS，不会像一把锁那样把入队和出队串行起来
+ *     </li>
+ *     <li>
+ *         老化（aging），防止低优先级任务饿死
+ *         <p>出队时只看每一级的队头（也是这一级等得最久的），每等待 aging 时间，有效优先级提升一级；
+ *         选有效优先级最高的，相同时选等得久的。低优先级任务最多等 级数 × aging 就能和最高优先级平起平坐</p>
+ *     </li>
+ * </ul>
+ * 元素实现了 {@link Prioritized} 才有优先级和老化，其他元素按 {@code defaultPriority} 处理、不参与老化
+ */
+public class PriorityLevelQueue<E> extends AbstractQueue<E> implements BlockingQueue<E> {
+
+    /**
+     * 带优先级的元素，入队时间由队列写入
+     */
+    public interface Prioritized {
+
+        /**
+         * @return 0 最高，超出范围的按最近的一级处理
+         */
+        int getPriority();
+
+        long getEnqueuedAt();
+
+        void setEnqueuedAt(long nanos);
+    }
+
+    private final ConcurrentLinkedQueue<E>[] levels;
+
+    /**
+     * 许可数 &lt;= 元素数，拿到许可的线程一定能取到元素
+     */
+    private final Semaphore available = new Semaphore(0);
+
+    private final int defaultPriority;
+
+    private final long agingNanos;
+
+    /**
+     * @param levels          优先级级数
+     * @param defaultPriority 没有实现 {@link Prioritized} 的元素的优先级
+     * @param aging           每等待多久提升一级，0 表示不老化
+     */
+    public PriorityLevelQueue(int levels, int defaultPriority, long aging, TimeUnit unit) {
+        if (levels <= 0 || defaultPriority < 0 || defaultPriority >= levels || aging < 0) {
+            throw new IllegalArgumentException();
+        }
+        @SuppressWarnings("unchecked")
+        ConcurrentLinkedQueue<E>[] queues = (ConcurrentLinkedQueue<E>[]) new ConcurrentLinkedQueue<?>[levels];
+        for (int i = 0; i < levels; i++) {
+            queues[i] = new ConcurrentLinkedQueue<>();
+        }
+        this.levels = queues;
+        this.defaultPriority = defaultPriority;
+        this.agingNanos = unit.toNanos(aging);
+    }
+
+    public int getLevels() {
+        return levels.length;
+    }
+
+    @Override
+    public boolean offer(E e) {
+        if (e == null) {
+            throw new NullPointerException();
+        }
+        if (e instanceof Prioritized) {
+            ((Prioritized) e).setEnqueuedAt(System.nanoTime());
+        }
+        levels[levelOf(e)].offer(e);
+        available.release();
+        return true;
+    }
+
+    @Override
+    public void put(E e) {
+        offer(e);
+    }
+
+    /**
+     * 无界队列，不会阻塞
+     */
+    @Override
+    public boolean offer(E e, long timeout, TimeUnit unit) {
+        return offer(e);
+    }
+
+    @Override
+    public E take() throws InterruptedException {
+        available.acquire();
+        return dequeue();
+    }
+
+    @Override
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        return available.tryAcquire(timeout, unit) ? dequeue() : null;
+    }
+
+    @Override
+    public E poll() {
+        return available.tryAcquire() ? dequeue() : null;
+    }
+
+    @Override
+    public E peek() {
+        int level = selectLevel();
+        return level < 0 ? null : levels[level].peek();
+    }
+
+    /**
+     * ThreadPoolExecutor#remove、purge 会调用；先占一个许可再删，删不掉就把许可还回去
+     */
+    @Override
+    public boolean remove(Object o) {
+        if (o == null || !available.tryAcquire()) {
+            return false;
+        }
+        for (ConcurrentLinkedQueue<E> level : levels) {
+            if (level.remove(o)) {
+                return true;
+            }
+        }
+        available.release();
+        return false;
+    }
+
+    @Override
+    public int size() {
+        return available.availablePermits();
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c, int maxElements) {
+        if (c == null) {
+            throw new NullPointerException();
+        }
+        if (c == this) {
+            throw new IllegalArgumentException();
+        }
+        int n = 0;
+        while (n < maxElements && available.tryAcquire()) {
+            c.add(dequeue());
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * 按级别从高到低遍历，不考虑老化；弱一致
+     */
+    @Override
+    public Iterator<E> iterator() {
+        List<E> snapshot = new ArrayList<>();
+        for (ConcurrentLinkedQueue<E> level : levels) {
+            snapshot.addAll(level);
+        }
+        Iterator<E> it = snapshot.iterator();
+        return new Iterator<E>() {
+
+            private E last;
+
+            @Override
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            @Override
+            public E next() {
+                return last = it.next();
+            }
+
+            @Override
+            public void remove() {
+                if (last == null) {
+                    throw new IllegalStateException();
+                }
+                PriorityLevelQueue.this.remove(last);
+                last = null;
+            }
+        };
+    }
+
+    /**
+     * 已经拿到许可，一定能取到元素；只是和其他出队线程并发时，选中的队头可能刚被别人取走，重新选
+     */
+    private E dequeue() {
+        for (; ; ) {
+            int level = selectLevel();
+            if (level >= 0) {
+                E e = levels[level].poll();
+                if (e != null) {
+                    return e;
+                }
+            }
+            Thread.yield();
+        }
+    }
+
+    /**
+     * 选出有效优先级最高的一级，全空返回 -1
+     */
+    private int selectLevel() {
+        long now = agingNanos > 0 ? System.nanoTime() : 0;
+        int best = -1;
+        long bestEffective = Long.MAX_VALUE;
+        long bestEnqueuedAt = Long.MAX_VALUE;
+        for (int i = 0; i < levels.length; i++) {
+            E head = levels[i].peek();
+            if (head == null) {
+                continue;
+            }
+            if (agingNanos == 0) {
+                // 不老化，第一个非空的级别就是最高的
+                return i;
+            }
+            long enqueuedAt = head instanceof Prioritized ? ((Prioritized) head).getEnqueuedAt() : now;
+            long effective = i - (now - enqueuedAt) / agingNanos;
+            if (effective < bestEffective || (effective == bestEffective && enqueuedAt - bestEnqueuedAt < 0)) {
+                best = i;
+                bestEffective = effective;
+                bestEnqueuedAt = enqueuedAt;
+            }
+        }
+        return best;
+    }
+
+    private int levelOf(E e) {
+        int priority = e instanceof Prioritized ? ((Prioritized) e).getPriority() : defaultPriority;
+        return Math.max(0, Math.min(levels.length - 1, priority));
+    }
+}
@@ -0,0 +1,211 @@
+package threadpool;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * 支持优先级的线程池，submit、invokeAll 都可以指定优先级
+ * <p>{@link ThreadPoolExecutorTest#test()} 里用 {@link PriorityBlockingQueue} 做任务队列，submit 会报错：
+ * submit 把任务包装成 {@link FutureTask}，FutureTask 没有实现 Comparable，入队比较时抛 ClassCastException。
+ * 这里：</p>
+ * <ul>
+ *     <li>submit 包装成 {@link PriorityFutureTask}，execute 包装成 {@link PriorityRunnable}，都带优先级</li>
+ *     <li>
+ *         队列用 {@link PriorityLevelQueue}：固定几个级别，同级先进先出，等得太久的低优先级任务会逐级提升（老化），不会饿死；
+ *         入队出队无锁，比 PriorityBlockingQueue 一把锁的争用小
+ *     </li>
+ * </ul>
+ * 这样延迟敏感的请求和批处理任务可以共用一个线程池，请求任务插到批处理任务前面执行
+ * <pre>{@code
+ * executor.submit(batchJob, PriorityThreadPoolExecutor.LOWEST);
+ * executor.submit(request, PriorityThreadPoolExecutor.HIGHEST);
+ * }</pre>
+ */
+public class PriorityThreadPoolExecutor extends ThreadPoolExecutor {
+
+    public static final int HIGHEST = 0;
+
+    public static final int NORMAL = 1;
+
+    public static final int LOWEST = 2;
+
+    private static final int LEVELS = 3;
+
+    /**
+     * @param nThreads 线程数，队列无界，核心线程数和最大线程数相同
+     * @param aging    每等待多久提升一级
+     */
+    public PriorityThreadPoolExecutor(int nThreads, long aging, TimeUnit unit) {
+        this(nThreads, aging, unit, Executors.defaultThreadFactory());
+    }
+
+    public PriorityThreadPoolExecutor(int nThreads, long aging, TimeUnit unit, ThreadFactory threadFactory) {
+        super(nThreads, nThreads, 0, TimeUnit.MILLISECONDS,
+                new PriorityLevelQueue<>(LEVELS, NORMAL, aging, unit), threadFactory);
+    }
+
+    /**
+     * 没有指定优先级的任务按 {@link #NORMAL} 执行
+     */
+    @Override
+    public void execute(Runnable command) {
+        if (command == null) {
+            throw new NullPointerException();
+        }
+        super.execute(command instanceof PriorityLevelQueue.Prioritized ? command : new PriorityRunnable(command, NORMAL));
+    }
+
+    public void execute(Runnable command, int priority) {
+        if (command == null) {
+            throw new NullPointerException();
+        }
+        super.execute(new PriorityRunnable(command, priority));
+    }
+
+    public Future<?> submit(Runnable task, int priority) {
+        if (task == null) {
+            throw new NullPointerException();
+        }
+        PriorityFutureTask<Void> future = new PriorityFutureTask<>(task, null, priority);
+        execute(future);
+        return future;
+    }
+
+    public <T> Future<T> submit(Callable<T> task, int priority) {
+        if (task == null) {
+            throw new NullPointerException();
+        }
+        PriorityFutureTask<T> future = new PriorityFutureTask<>(task, priority);
+        execute(future);
+        return future;
+    }
+
+    /**
+     * 同一优先级执行一批任务，等全部完成；逻辑和 AbstractExecutorService#invokeAll 一样
+     */
+    public <T> List<Future<T>> invokeAll(Collection<? extends Callable<T>> tasks, int priority)
+            throws InterruptedException {
+        if (tasks == null) {
+            throw new NullPointerException();
+        }
+        List<Future<T>> futures = new ArrayList<>(tasks.size());
+        boolean done = false;
+        try {
+            for (Callable<T> task : tasks) {
+                futures.add(submit(task, priority));
+            }
+            for (Future<T> future : futures) {
+                if (!future.isDone()) {
+                    try {
+                        future.get();
+                    } catch (CancellationException | ExecutionException ignore) {
+                    }
+                }
+            }
+            done = true;
+            return futures;
+        } finally {
+            if (!done) {
+                for (Future<T> future : futures) {
+                    future.cancel(true);
+                }
+            }
+        }
+    }
+
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(Runnable runnable, T value) {
+        return new PriorityFutureTask<>(runnable, value, NORMAL);
+    }
+
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(Callable<T> callable) {
+        return new PriorityFutureTask<>(callable, NORMAL);
+    }
+
+    /**
+     * 返回提交时的原始任务，而不是包装对象
+     */
+    @Override
+    public List<Runnable> shutdownNow() {
+        List<Runnable> tasks = super.shutdownNow();
+        List<Runnable> result = new ArrayList<>(tasks.size());
+        for (Runnable task : tasks) {
+            result.add(task instanceof PriorityRunnable ? ((PriorityRunnable) task).task : task);
+        }
+        return result;
+    }
+
+    static final class PriorityRunnable implements Runnable, PriorityLevelQueue.Prioritized {
+
+        final Runnable task;
+
+        private final int priority;
+
+        private long enqueuedAt;
+
+        PriorityRunnable(Runnable task, int priority) {
+            this.task = task;
+            this.priority = priority;
+        }
+
+        @Override
+        public void run() {
+            task.run();
+        }
+
+        @Override
+        public int getPriority() {
+            return priority;
+        }
+
+        @Override
+        public long getEnqueuedAt() {
+            return enqueuedAt;
+        }
+
+        @Override
+        public void setEnqueuedAt(long nanos) {
+            this.enqueuedAt = nanos;
+        }
+
+        @Override
+        public String toString() {
+            return task.toString();
+        }
+    }
+
+    static final class PriorityFutureTask<V> extends FutureTask<V> implements PriorityLevelQueue.Prioritized {
+
+        private final int priority;
+
+        private long enqueuedAt;
+
+        PriorityFutureTask(Callable<V> callable, int priority) {
+            super(callable);
+            this.priority = priority;
+        }
+
+        PriorityFutureTask(Runnable runnable, V result, int priority) {
+            super(runnable, result);
+            this.priority = priority;
+        }
+
+        @Override
+        public int getPriority() {
+            return priority;
+        }
+
+        @Override
+        public long getEnqueuedAt() {
+            return enqueuedAt;
+        }
+
+        @Override
+        public void setEnqueuedAt(long nanos) {
+            this.enqueuedAt = nanos;
+        }
+    }
+}
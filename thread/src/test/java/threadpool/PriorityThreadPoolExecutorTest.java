@@ -0,0 +1,78 @@
+package threadpool;
+
+import org.junit.jupiter.api.Test;
+import util.SmallTool;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * {@link PriorityThreadPoolExecutor} 用法示例
+ * <p>都用单线程的线程池：先提交一个任务把唯一的线程占住，后面的任务全部排队，放行后看执行顺序
+ */
+public class PriorityThreadPoolExecutorTest {
+
+    /**
+     * 高优先级先执行，同优先级先进先出；submit、invokeAll 都能用
+     */
+    @Test
+    public void priority() throws Exception {
+        PriorityThreadPoolExecutor executor = new PriorityThreadPoolExecutor(1, 0, TimeUnit.MILLISECONDS);
+        CountDownLatch release = new CountDownLatch(1);
+        executor.execute(() -> await(release));
+
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        executor.execute(() -> order.add("batch-1"), PriorityThreadPoolExecutor.LOWEST);
+        executor.execute(() -> order.add("batch-2"), PriorityThreadPoolExecutor.LOWEST);
+        executor.execute(() -> order.add("normal"));
+        Future<String> request1 = executor.submit(() -> {
+            order.add("request-1");
+            return "ok";
+        }, PriorityThreadPoolExecutor.HIGHEST);
+        executor.submit(() -> order.add("request-2"), PriorityThreadPoolExecutor.HIGHEST);
+        release.countDown();
+
+        List<Callable<Integer>> tasks = Arrays.asList(() -> 1, () -> 2, () -> 3);
+        List<Future<Integer>> results = executor.invokeAll(tasks, PriorityThreadPoolExecutor.HIGHEST);
+        assertEquals(Integer.valueOf(3), results.get(2).get());
+        assertEquals("ok", request1.get());
+
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(1, TimeUnit.SECONDS));
+        SmallTool.printTimeAndThread(order.toString());
+        assertEquals(Arrays.asList("request-1", "request-2", "normal", "batch-1", "batch-2"), order);
+    }
+
+    /**
+     * 老化：低优先级任务等了 2 个 aging 周期以上，和新来的最高优先级任务相比，按先来后到执行
+     */
+    @Test
+    public void aging() throws InterruptedException {
+        PriorityThreadPoolExecutor executor = new PriorityThreadPoolExecutor(1, 20, TimeUnit.MILLISECONDS);
+        CountDownLatch release = new CountDownLatch(1);
+        executor.execute(() -> await(release));
+
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        executor.execute(() -> order.add("batch"), PriorityThreadPoolExecutor.LOWEST);
+        SmallTool.sleepMillis(60);
+        executor.execute(() -> order.add("request"), PriorityThreadPoolExecutor.HIGHEST);
+        release.countDown();
+
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(1, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("batch", "request"), order);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -60,18 +60,34 @@ public class ThreadPoolExecutorTest {
     }
 
     /**
-     * 线程池队列使用 PriorityBlockingQueue 时，threadPoolExecutor.submit会报错
+     * 线程池队列使用 PriorityBlockingQueue 时，threadPoolExecutor.submit会报错：
+     * submit 把任务包装成 FutureTask，FutureTask 没有实现 Comparable，入队比较时抛 ClassCastException
+     * <p>需要 submit、invokeAll 的话用 {@link PriorityThreadPoolExecutor}
      */
     @Test
     public void test() {
-        threadPoolExecutor.execute(new MyRunnable());
+        threadPoolExecutor.execute(new MyRunnable(1));
+        threadPoolExecutor.execute(new MyRunnable(0));
     }
 
-    static class MyRunnable implements Runnable, Comparable<String> {
+    /**
+     * 放进 PriorityBlockingQueue 的元素要和同类元素比较，所以是 Comparable&lt;MyRunnable&gt;；
+     * 写成 Comparable&lt;String&gt; 的话，两个任务一比较就抛 ClassCastException
+     */
+    static class MyRunnable implements Runnable, Comparable<MyRunnable> {
+
+        /**
+         * 越小越先执行
+         */
+        private final int priority;
+
+        MyRunnable(int priority) {
+            this.priority = priority;
+        }
 
         @Override
-        public int compareTo(String o) {
-            return 0;
+        public int compareTo(MyRunnable o) {
+            return Integer.compare(priority, o.priority);
         }
 
         @Override
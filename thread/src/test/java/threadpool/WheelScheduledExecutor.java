@@ -0,0 +1,236 @@
+package threadpool;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * 基于 {@link HashedWheelTimer} 的 {@link ScheduledExecutorService}
+ * <p>{@link ScheduledThreadPoolExecutorTest} 用的 {@link Executors#newScheduledThreadPool(int)}：所有延迟任务放在一个堆（DelayedWorkQueue）里，
+ * schedule、cancel 都是 O(log n)，还都要抢同一把锁，几十万个超时任务同时挂着的时候，这把锁和堆的调整就成了瓶颈。这里：</p>
+ * <ul>
+ *     <li>
+ *         延迟由时间轮负责，schedule、cancel 都是 O(1) 并且不加锁；到期时时间轮线程只把任务交给线程池，任务在线程池里执行。
+ *         不另外登记挂起的任务，shutdown 时由 {@link HashedWheelTimer#stop()} 交出还没到期的任务
+ *     </li>
+ *     <li>精度是时间轮的一个 tick（默认 1ms），适合超时、心跳这类不要求精确到微秒的场景</li>
+ *     <li>
+ *         scheduleAtFixedRate 的第 n 次按 "首次时间 + n * period" 计算，而不是"上次执行时间 + period"，
+ *         每次 tick 的误差不会累积，长时间运行也不漂移；scheduleWithFixedDelay 按上次结束时间 + delay 计算
+ *     </li>
+ *     <li>shutdown 时取消所有还没到期的任务（相当于 ScheduledThreadPoolExecutor 关掉 executeExistingDelayedTasksAfterShutdown），已经在执行的任务执行完</li>
+ * </ul>
+ */
+public class WheelScheduledExecutor extends AbstractExecutorService implements ScheduledExecutorService {
+
+    private final HashedWheelTimer timer;
+
+    private final ExecutorService workers;
+
+    private volatile boolean shutdown;
+
+    /**
+     * 1ms 一个 tick，每层 512 个格子
+     */
+    public WheelScheduledExecutor(int nThreads) {
+        this(nThreads, 1, TimeUnit.MILLISECONDS);
+    }
+
+    public WheelScheduledExecutor(int nThreads, long tickDuration, TimeUnit unit) {
+        this.workers = Executors.newFixedThreadPool(nThreads);
+        this.timer = new HashedWheelTimer(tickDuration, unit, 512, workers);
+    }
+
+    @Override
+    public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+        return schedule(new WheelFuture<Void>(command, null, 0, 0), delay, unit);
+    }
+
+    @Override
+    public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+        return schedule(new WheelFuture<>(callable), delay, unit);
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay, long period, TimeUnit unit) {
+        if (period <= 0) {
+            throw new IllegalArgumentException();
+        }
+        return schedule(new WheelFuture<Void>(command, null, clamp(unit.toNanos(period)), 0), initialDelay, unit);
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay, long delay, TimeUnit unit) {
+        if (delay <= 0) {
+            throw new IllegalArgumentException();
+        }
+        return schedule(new WheelFuture<Void>(command, null, 0, clamp(unit.toNanos(delay))), initialDelay, unit);
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        if (shutdown) {
+            throw new RejectedExecutionException("executor has been shut down");
+        }
+        workers.execute(command);
+    }
+
+    /**
+     * 还没到期的任务数
+     */
+    public long getScheduledCount() {
+        return timer.getPendingCount();
+    }
+
+    @Override
+    public void shutdown() {
+        cancelScheduled();
+        workers.shutdown();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        List<Runnable> pending = cancelScheduled();
+        pending.addAll(workers.shutdownNow());
+        return pending;
+    }
+
+    /**
+     * 先停时间轮，之后不会再有任务到期、交给线程池，再取消没到期的任务
+     */
+    private List<Runnable> cancelScheduled() {
+        shutdown = true;
+        List<Runnable> cancelled = new ArrayList<>();
+        try {
+            for (HashedWheelTimer.Timeout timeout : timer.stop()) {
+                WheelFuture<?> future = (WheelFuture<?>) timeout.getTask();
+                if (future.cancel(false)) {
+                    cancelled.add(future);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return cancelled;
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return shutdown && workers.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return workers.awaitTermination(timeout, unit);
+    }
+
+    private <V> WheelFuture<V> schedule(WheelFuture<V> future, long delay, TimeUnit unit) {
+        if (shutdown) {
+            throw new RejectedExecutionException("executor has been shut down");
+        }
+        future.time = System.nanoTime() + clamp(Math.max(unit.toNanos(delay), 0));
+        future.arm();
+        return future;
+    }
+
+    /**
+     * 和 ScheduledThreadPoolExecutor.triggerTime 一样把延迟限制在 Long.MAX_VALUE / 2 以内：
+     * nanoTime 加上更大的延迟会溢出，time - nanoTime 算出负数，任务马上就被执行了
+     */
+    private static long clamp(long nanos) {
+        return Math.min(nanos, Long.MAX_VALUE >> 1);
+    }
+
+    private final class WheelFuture<V> extends FutureTask<V> implements ScheduledFuture<V> {
+
+        /**
+         * fixed rate 的周期，0 表示不是 fixed rate
+         */
+        private final long period;
+
+        /**
+         * fixed delay 的间隔，0 表示不是 fixed delay
+         */
+        private final long delay;
+
+        /**
+         * 下一次（或唯一一次）应该执行的时刻，System.nanoTime
+         */
+        private volatile long time;
+
+        private volatile HashedWheelTimer.Timeout timeout;
+
+        WheelFuture(Callable<V> callable) {
+            super(callable);
+            this.period = 0;
+            this.delay = 0;
+        }
+
+        WheelFuture(Runnable runnable, V result, long period, long delay) {
+            super(runnable, result);
+            this.period = period;
+            this.delay = delay;
+        }
+
+        /**
+         * 挂到时间轮上，到期交给线程池
+         */
+        void arm() {
+            try {
+                timeout = timer.newTimeout(this, time - System.nanoTime(), TimeUnit.NANOSECONDS);
+            } catch (IllegalStateException e) {
+                // 时间轮已经停了，说明正在 shutdown
+                cancel(false);
+                return;
+            }
+            if (isCancelled() || shutdown) {
+                // cancel、shutdown 和 arm 并发时，stop() 可能没收到这个 timeout；先挂上时间轮再读标记，和 shutdown 的先写标记再停时间轮配对
+                cancel(false);
+                timeout.cancel();
+            }
+        }
+
+        @Override
+        public void run() {
+            if (period == 0 && delay == 0) {
+                super.run();
+            } else if (runAndReset()) {
+                if (shutdown) {
+                    cancel(false);
+                    return;
+                }
+                time = period != 0 ? time + period : System.nanoTime() + delay;
+                arm();
+            }
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            HashedWheelTimer.Timeout current = timeout;
+            if (cancelled && current != null) {
+                current.cancel();
+            }
+            return cancelled;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(time - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            if (other == this) {
+                return 0;
+            }
+            long diff = getDelay(TimeUnit.NANOSECONDS) - other.getDelay(TimeUnit.NANOSECONDS);
+            return diff < 0 ? -1 : diff > 0 ? 1 : 0;
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package threadpool;
+
+import org.junit.jupiter.api.Test;
+import util.SmallTool;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * {@link WheelScheduledExecutor} 用法示例，和 {@link ScheduledThreadPoolExecutorTest} 对照
+ */
+public class WheelScheduledExecutorTest {
+
+    private final WheelScheduledExecutor scheduledExecutorService = new WheelScheduledExecutor(5);
+
+    @Test
+    public void scheduleCallable() throws Exception {
+        long start = System.nanoTime();
+        ScheduledFuture<Boolean> schedule = scheduledExecutorService.schedule(() -> Boolean.TRUE, 100, TimeUnit.MILLISECONDS);
+        SmallTool.printTimeAndThread(schedule.isDone() ? "完成" : "未完成");
+        assertTrue(schedule.getDelay(TimeUnit.MILLISECONDS) > 50);
+        assertTrue(schedule.get(1, TimeUnit.SECONDS));
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue(elapsed >= 100 && elapsed < 150, "elapsed " + elapsed);
+        scheduledExecutorService.shutdown();
+    }
+
+    /**
+     * fixed rate 按首次时间 + n * period 计算：跑 50 次，第 50 次的时刻和理论值的误差不随次数累积
+     */
+    @Test
+    public void scheduleAtFixedRateWithoutDrift() throws InterruptedException {
+        int runs = 50;
+        long period = TimeUnit.MILLISECONDS.toNanos(10);
+        long[] startedAt = new long[runs];
+        AtomicInteger count = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(1);
+        long start = System.nanoTime();
+        ScheduledFuture<?> schedule = scheduledExecutorService.scheduleAtFixedRate(() -> {
+            int n = count.getAndIncrement();
+            if (n < runs) {
+                startedAt[n] = System.nanoTime();
+                // 任务本身耗时 3ms，fixed rate 的周期不受影响
+                SmallTool.sleepMillis(3);
+            }
+            if (n == runs - 1) {
+                done.countDown();
+            }
+        }, 10, 10, TimeUnit.MILLISECONDS);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        schedule.cancel(false);
+        long maxLate = 0;
+        for (int n = 0; n < runs; n++) {
+            long expected = start + period * (n + 1);
+            maxLate = Math.max(maxLate, startedAt[n] - expected);
+            assertTrue(startedAt[n] >= expected, "run " + n + " started early");
+        }
+        long drift = startedAt[runs - 1] - (start + period * runs);
+        SmallTool.printTimeAndThread("最大延迟 " + TimeUnit.NANOSECONDS.toMicros(maxLate) + "us，第 " + runs + " 次漂移 "
+                + TimeUnit.NANOSECONDS.toMicros(drift) + "us");
+        // 误差在几个 tick 以内，而不是 runs 个 tick
+        assertTrue(drift < TimeUnit.MILLISECONDS.toNanos(10), "drift " + drift);
+        assertTrue(schedule.isCancelled());
+        scheduledExecutorService.shutdown();
+    }
+
+    /**
+     * fixed delay 按上次结束时间 + delay 计算
+     */
+    @Test
+    public void scheduleWithFixedDelay() throws InterruptedException {
+        List<Long> startedAt = new ArrayList<>();
+        CountDownLatch done = new CountDownLatch(5);
+        scheduledExecutorService.scheduleWithFixedDelay(() -> {
+            startedAt.add(System.nanoTime());
+            SmallTool.sleepMillis(20);
+            done.countDown();
+        }, 0, 10, TimeUnit.MILLISECONDS);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        for (int i = 1; i < 5; i++) {
+            assertTrue(startedAt.get(i) - startedAt.get(i - 1) >= TimeUnit.MILLISECONDS.toNanos(30));
+        }
+        scheduledExecutorService.shutdown();
+    }
+
+    /**
+     * 10 万个挂起的超时，取消后不再执行；shutdown 取消剩下的
+     */
+    @Test
+    public void cancelAndShutdown() throws InterruptedException {
+        AtomicInteger ran = new AtomicInteger();
+        List<ScheduledFuture<?>> futures = new ArrayList<>();
+        for (int i = 0; i < 100_000; i++) {
+            futures.add(scheduledExecutorService.schedule(ran::incrementAndGet, 1, TimeUnit.HOURS));
+        }
+        assertEquals(100_000L, scheduledExecutorService.getScheduledCount());
+        for (int i = 0; i < futures.size(); i += 2) {
+            assertTrue(futures.get(i).cancel(false));
+        }
+        assertEquals(50_000L, scheduledExecutorService.getScheduledCount());
+        ScheduledFuture<?> periodic = scheduledExecutorService.scheduleAtFixedRate(ran::incrementAndGet, 0, 1, TimeUnit.MILLISECONDS);
+        SmallTool.sleepMillis(20);
+        scheduledExecutorService.shutdown();
+        assertTrue(scheduledExecutorService.awaitTermination(1, TimeUnit.SECONDS));
+        assertTrue(futures.get(1).isCancelled());
+        assertTrue(periodic.isCancelled());
+        assertEquals(0L, scheduledExecutorService.getScheduledCount());
+        assertThrows(RejectedExecutionException.class, () -> scheduledExecutorService.schedule(ran::incrementAndGet, 1, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * 延迟、周期大到 nanoTime 加上去会溢出时，和 ScheduledThreadPoolExecutor 一样当作很久以后，不会马上执行
+     */
+    @Test
+    public void hugeDelay() throws InterruptedException {
+        AtomicInteger ran = new AtomicInteger();
+        ScheduledFuture<?> future = scheduledExecutorService.schedule(ran::incrementAndGet, Long.MAX_VALUE, TimeUnit.DAYS);
+        ScheduledFuture<?> periodic = scheduledExecutorService.scheduleAtFixedRate(ran::incrementAndGet, 0, Long.MAX_VALUE, TimeUnit.DAYS);
+        SmallTool.sleepMillis(100);
+        // 只有周期任务的第一次执行了
+        assertEquals(1, ran.get());
+        assertFalse(future.isDone());
+        assertTrue(future.getDelay(TimeUnit.DAYS) > 365);
+        assertTrue(periodic.getDelay(TimeUnit.DAYS) > 365);
+        assertTrue(future.cancel(false));
+        scheduledExecutorService.shutdown();
+        assertTrue(scheduledExecutorService.awaitTermination(1, TimeUnit.SECONDS));
+    }
+}
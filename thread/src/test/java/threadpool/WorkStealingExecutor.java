@@ -0,0 +1,253 @@
+package threadpool;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 工作窃取线程池，用法和 {@link ExecutorService} 一样
+ * <p>{@link Executors#newFixedThreadPool(int)} 所有线程共用一个 {@link LinkedBlockingQueue}，入队出队都要抢同一把锁。
+ * 这里参考 {@link ForkJoinPool}，每个工作线程有自己的双端队列：</p>
+ * <ul>
+ *     <li>
+ *         工作线程里提交的任务（比如任务里再拆出子任务）放进自己队列的尾部，自己也从尾部取（后进先出），
+ *         刚拆出来的子任务用到的数据大概率还在缓存里
+ *     </li>
+ *     <li>外部线程提交的任务随机分给一个工作线程</li>
+ *     <li>
+ *         自己的队列空了，就从别的线程队列的头部偷（先进先出），偷的是最早放进去的、通常也是最大的任务，
+ *         和队列主人从两头取，很少冲突
+ *     </li>
+ *     <li>
+ *         都偷不到就把自己登记为空闲并 park；提交任务时唤醒一个空闲线程。
+ *         登记空闲之后、park 之前再扫描一遍所有队列，和提交方"先入队、再看有没有空闲线程"配合，不会漏掉唤醒
+ *     </li>
+ * </ul>
+ * 队列用 {@link ConcurrentLinkedDeque}，两头的操作都是无锁的 CAS
+ */
+public class WorkStealingExecutor extends AbstractExecutorService {
+
+    private final Worker[] workers;
+
+    private final ConcurrentLinkedQueue<Worker> idleWorkers = new ConcurrentLinkedQueue<>();
+
+    private final CountDownLatch terminated;
+
+    private final LongAdder steals = new LongAdder();
+
+    /**
+     * 当前线程对应的 Worker，外部线程为 null
+     */
+    private final ThreadLocal<Worker> currentWorker = new ThreadLocal<>();
+
+    private volatile boolean shutdown;
+
+    /**
+     * shutdownNow 之后为 true，正在执行的任务会收到中断
+     */
+    private volatile boolean stopped;
+
+    public WorkStealingExecutor(int parallelism) {
+        this(parallelism, Executors.defaultThreadFactory());
+    }
+
+    public WorkStealingExecutor(int parallelism, ThreadFactory threadFactory) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException();
+        }
+        workers = new Worker[parallelism];
+        terminated = new CountDownLatch(parallelism);
+        for (int i = 0; i < parallelism; i++) {
+            workers[i] = new Worker();
+        }
+        for (Worker worker : workers) {
+            worker.thread = threadFactory.newThread(worker);
+            worker.thread.start();
+        }
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        if (command == null) {
+            throw new NullPointerException();
+        }
+        if (shutdown) {
+            throw new RejectedExecutionException("Task " + command + " rejected: executor has been shut down");
+        }
+        Worker current = currentWorker.get();
+        Worker target = current != null ? current : workers[ThreadLocalRandom.current().nextInt(workers.length)];
+        target.deque.offerLast(command);
+        // 入队期间被关闭的话，工作线程可能已经看到队列全空退出了；还没被取走就撤回
+        if (shutdown && target.deque.removeLastOccurrence(command)) {
+            throw new RejectedExecutionException("Task " + command + " rejected: executor has been shut down");
+        }
+        signalIdle();
+    }
+
+    /**
+     * 窃取次数
+     */
+    public long getStealCount() {
+        return steals.sum();
+    }
+
+    public int getParallelism() {
+        return workers.length;
+    }
+
+    /**
+     * 所有队列里的任务数，遍历计数，只用于监控
+     */
+    public int getQueuedTaskCount() {
+        int count = 0;
+        for (Worker worker : workers) {
+            count += worker.deque.size();
+        }
+        return count;
+    }
+
+    @Override
+    public void shutdown() {
+        shutdown = true;
+        for (Worker worker : workers) {
+            LockSupport.unpark(worker.thread);
+        }
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        stopped = true;
+        shutdown();
+        List<Runnable> tasks = new ArrayList<>();
+        for (Worker worker : workers) {
+            Runnable task;
+            while ((task = worker.deque.pollFirst()) != null) {
+                tasks.add(task);
+            }
+        }
+        for (Worker worker : workers) {
+            worker.thread.interrupt();
+        }
+        return tasks;
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return terminated.getCount() == 0;
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return terminated.await(timeout, unit);
+    }
+
+    /**
+     * 唤醒一个空闲线程；队列里可能有已经醒来的线程留下的过期记录，跳过
+     */
+    private void signalIdle() {
+        Worker worker;
+        while ((worker = idleWorkers.poll()) != null) {
+            if (worker.idle.compareAndSet(true, false)) {
+                LockSupport.unpark(worker.thread);
+                return;
+            }
+        }
+    }
+
+    private boolean allEmpty() {
+        for (Worker worker : workers) {
+            if (!worker.deque.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private final class Worker implements Runnable {
+
+        final ConcurrentLinkedDeque<Runnable> deque = new ConcurrentLinkedDeque<>();
+
+        volatile Thread thread;
+
+        /**
+         * 空闲标记，把它从 true 改成 false 的一方负责唤醒这个线程
+         */
+        final AtomicBoolean idle = new AtomicBoolean();
+
+        @Override
+        public void run() {
+            currentWorker.set(this);
+            try {
+                for (; ; ) {
+                    Runnable task = deque.pollLast();
+                    if (task == null) {
+                        task = steal();
+                    }
+                    if (task == null) {
+                        if (shutdown && allEmpty()) {
+                            return;
+                        }
+                        idle.set(true);
+                        idleWorkers.offer(this);
+                        // 登记空闲后再扫一遍，避免和提交方错过
+                        task = steal();
+                        if (task == null && !shutdown) {
+                            LockSupport.park(this);
+                        }
+                        idle.set(false);
+                        if (task == null) {
+                            continue;
+                        }
+                    }
+                    runTask(task);
+                }
+            } finally {
+                terminated.countDown();
+            }
+        }
+
+        /**
+         * 从随机位置开始，依次尝试从其他队列头部偷一个任务；偷完对方队列还有剩余，再叫醒一个空闲线程来帮忙
+         */
+        private Runnable steal() {
+            int n = workers.length;
+            int start = ThreadLocalRandom.current().nextInt(n);
+            for (int i = 0; i < n; i++) {
+                Worker victim = workers[(start + i) % n];
+                Runnable task = victim == this ? victim.deque.pollLast() : victim.deque.pollFirst();
+                if (task != null) {
+                    if (victim != this) {
+                        steals.increment();
+                        if (!victim.deque.isEmpty()) {
+                            signalIdle();
+                        }
+                    }
+                    return task;
+                }
+            }
+            return null;
+        }
+
+        private void runTask(Runnable task) {
+            // 和 ThreadPoolExecutor 一样，上一个任务留下的中断标记不能带到下一个任务，shutdownNow 之后则保持中断
+            Thread.interrupted();
+            if (stopped) {
+                thread.interrupt();
+            }
+            try {
+                task.run();
+            } catch (Throwable t) {
+                Thread.UncaughtExceptionHandler handler = thread.getUncaughtExceptionHandler();
+                handler.uncaughtException(thread, t);
+            }
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package threadpool;
+
+import org.junit.jupiter.api.Test;
+import util.SmallTool;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * {@link WorkStealingExecutor} 用法示例，API 和 {@link ExecutorServiceTest} 里的 newFixedThreadPool 一样
+ */
+public class WorkStealingExecutorTest {
+
+    @Test
+    public void invokeAll() throws Exception {
+        ExecutorService executorService = new WorkStealingExecutor(4);
+        List<Callable<Integer>> tasks = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            int n = i;
+            tasks.add(() -> n * n);
+        }
+        int sum = 0;
+        for (Future<Integer> future : executorService.invokeAll(tasks)) {
+            sum += future.get();
+        }
+        assertEquals(328350, sum);
+        assertEquals("a", executorService.invokeAny(Arrays.asList(() -> "a", () -> "a")));
+        executorService.shutdown();
+        assertTrue(executorService.awaitTermination(1, TimeUnit.SECONDS));
+        assertThrows(RejectedExecutionException.class, () -> executorService.execute(() -> {
+        }));
+    }
+
+    /**
+     * 一个任务递归拆分成 2^10 个叶子任务，子任务都放进当前线程自己的队列，其他线程靠窃取分担
+     */
+    @Test
+    public void fanOut() throws InterruptedException {
+        WorkStealingExecutor executor = new WorkStealingExecutor(4);
+        int depth = 10;
+        CountDownLatch leaves = new CountDownLatch(1 << depth);
+        ConcurrentHashMap<String, Boolean> seen = new ConcurrentHashMap<>();
+        executor.execute(new Split(executor, depth, leaves, seen));
+        assertTrue(leaves.await(5, TimeUnit.SECONDS));
+        SmallTool.printTimeAndThread("threads=" + seen.size() + ", steals=" + executor.getStealCount());
+        assertTrue(executor.getStealCount() > 0);
+        assertTrue(seen.size() > 1);
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(1, TimeUnit.SECONDS));
+    }
+
+    /**
+     * shutdownNow 返回还没执行的任务，并中断正在执行的任务
+     */
+    @Test
+    public void shutdownNow() throws InterruptedException {
+        WorkStealingExecutor executor = new WorkStealingExecutor(1);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        executor.execute(() -> {
+            started.countDown();
+            try {
+                Thread.sleep(10_000);
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+            }
+        });
+        started.await();
+        executor.execute(() -> SmallTool.printTimeAndThread("never run"));
+        assertEquals(1, executor.shutdownNow().size());
+        assertTrue(interrupted.await(1, TimeUnit.SECONDS));
+        assertTrue(executor.awaitTermination(1, TimeUnit.SECONDS));
+        assertTrue(executor.isTerminated());
+    }
+
+    static final class Split implements Runnable {
+
+        private final Executor executor;
+        private final int depth;
+        private final CountDownLatch leaves;
+        private final ConcurrentHashMap<String, Boolean> seen;
+
+        Split(Executor executor, int depth, CountDownLatch leaves, ConcurrentHashMap<String, Boolean> seen) {
+            this.executor = executor;
+            this.depth = depth;
+            this.leaves = leaves;
+            this.seen = seen;
+        }
+
+        @Override
+        public void run() {
+            if (depth == 0) {
+                seen.put(Thread.currentThread().getName(), Boolean.TRUE);
+                SmallTool.sleepMillis(1);
+                leaves.countDown();
+                return;
+            }
+            executor.execute(new Split(executor, depth - 1, leaves, seen));
+            executor.execute(new Split(executor, depth - 1, leaves, seen));
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package jmh;
+
+import juc.ConnectionPool;
+import juc.SemaphoreTest;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.sql.Connection;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 10k 个借连接的任务分别跑在虚拟线程和平台线程上，每个任务持有连接期间模拟 1ms 的 IO，需要 JDK 21（jdk21 profile）
+ * <ul>
+ *     <li>virtual：每个任务一个虚拟线程</li>
+ *     <li>platform：200 个平台线程的固定线程池，对应常见的 Tomcat 线程数</li>
+ * </ul>
+ * 两个连接池都是 10 个连接，测的是跑完一批 10k 任务的耗时
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class VirtualThreadBorrowBenchMark {
+
+    private static final int BORROWERS = 10_000;
+
+    private static final int PLATFORM_THREADS = 200;
+
+    @Param({"virtual", "platform"})
+    public String threads;
+
+    private SemaphoreTest.DBPoolSemaphore semaphorePool;
+
+    private ConnectionPool connectionPool;
+
+    @Setup
+    public void setUp() {
+        semaphorePool = new SemaphoreTest.DBPoolSemaphore();
+        connectionPool = new ConnectionPool(10, SemaphoreTest.SqlConnection::fetchConnection);
+    }
+
+    @TearDown
+    public void tearDown() {
+        connectionPool.close();
+    }
+
+    @Benchmark
+    public void connectionPool() {
+        try (ExecutorService executor = newExecutor()) {
+            for (int i = 0; i < BORROWERS; i++) {
+                executor.execute(() -> {
+                    try (ConnectionPool.PooledConnection pooled = connectionPool.takeConnection(1, TimeUnit.MINUTES)) {
+                        Thread.sleep(1);
+                    } catch (Exception e) {
+                        throw new IllegalStateException(e);
+                    }
+                });
+            }
+        }
+    }
+
+    @Benchmark
+    public void dbPoolSemaphore() {
+        try (ExecutorService executor = newExecutor()) {
+            for (int i = 0; i < BORROWERS; i++) {
+                executor.execute(() -> {
+                    try {
+                        Connection connection = semaphorePool.takeConnection();
+                        Thread.sleep(1);
+                        semaphorePool.returnConnection(connection);
+                    } catch (InterruptedException e) {
+                        throw new IllegalStateException(e);
+                    }
+                });
+            }
+        }
+    }
+
+    private ExecutorService newExecutor() {
+        return "virtual".equals(threads)
+                ? Executors.newVirtualThreadPerTaskExecutor()
+                : Executors.newFixedThreadPool(PLATFORM_THREADS);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(VirtualThreadBorrowBenchMark.class.getSimpleName())
+                .forks(1)
+                .warmupIterations(2)
+                .measurementIterations(5)
+                .output("E:/VirtualThreadBorrowBenchmark.log")
+                .build();
+
+        new Runner(opt).run();
+    }
+}
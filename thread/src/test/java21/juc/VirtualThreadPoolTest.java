@@ -0,0 +1,69 @@
+package juc;
+
+import org.junit.jupiter.api.Test;
+import util.SmallTool;
+
+import java.sql.Connection;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 虚拟线程借还连接，需要 JDK 21（jdk21 profile）
+ * <p>{@link ConnectionPool} 只用 CAS 和 LockSupport.park，{@link SemaphoreTest.DBPoolSemaphore} 已经把 synchronized 换成了 ReentrantLock，
+ * 两者阻塞时虚拟线程都会从载体线程上卸载，不会钉住载体线程
+ * <p>可以加 -Djdk.tracePinnedThreads=full 运行，有 pin 的话会打印栈
+ */
+public class VirtualThreadPoolTest {
+
+    private static final int BORROWERS = 10_000;
+
+    @Test
+    public void connectionPool() {
+        ConnectionPool pool = new ConnectionPool(10, SemaphoreTest.SqlConnection::fetchConnection);
+        AtomicInteger success = new AtomicInteger();
+        long start = System.currentTimeMillis();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < BORROWERS; i++) {
+                executor.execute(() -> {
+                    try (ConnectionPool.PooledConnection pooled = pool.takeConnection(1, TimeUnit.MINUTES)) {
+                        // 模拟一次 IO
+                        SmallTool.sleepMillis(1);
+                        success.incrementAndGet();
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                });
+            }
+        }
+        SmallTool.printTimeAndThread("ConnectionPool " + BORROWERS + " 个虚拟线程耗时" + (System.currentTimeMillis() - start) + "ms");
+        assertEquals(BORROWERS, success.get());
+        SmallTool.printTimeAndThread(pool.getMetrics().toString());
+    }
+
+    @Test
+    public void dbPoolSemaphore() {
+        SemaphoreTest.DBPoolSemaphore pool = new SemaphoreTest.DBPoolSemaphore();
+        AtomicInteger success = new AtomicInteger();
+        long start = System.currentTimeMillis();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < BORROWERS; i++) {
+                executor.execute(() -> {
+                    try {
+                        Connection connection = pool.takeConnection();
+                        SmallTool.sleepMillis(1);
+                        pool.returnConnection(connection);
+                        success.incrementAndGet();
+                    } catch (InterruptedException e) {
+                        e.printStackTrace();
+                    }
+                });
+            }
+        }
+        SmallTool.printTimeAndThread("DBPoolSemaphore " + BORROWERS + " 个虚拟线程耗时" + (System.currentTimeMillis() - start) + "ms");
+        assertEquals(BORROWERS, success.get());
+    }
+}
@@ -0,0 +1,40 @@
+package threadfuture;
+
+import org.junit.jupiter.api.Test;
+import util.SmallTool;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * {@link TaskScope} 跑在虚拟线程上，需要 JDK 21（jdk21 profile）
+ * <p>每个子任务一个虚拟线程，子任务阻塞时不占载体线程，一万个子任务各 sleep 10ms，总耗时远小于线程池排队执行
+ */
+public class VirtualThreadTaskScopeTest {
+
+    private static final int SUBTASKS = 10_000;
+
+    @Test
+    public void joinAll() throws Exception {
+        long start = System.currentTimeMillis();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+             TaskScope<Integer> scope = TaskScope.joinAll(executor)) {
+            for (int i = 0; i < SUBTASKS; i++) {
+                int n = i;
+                scope.fork(() -> {
+                    // 模拟一次 IO
+                    SmallTool.sleepMillis(10);
+                    return n;
+                });
+            }
+            List<Integer> results = scope.join(10, TimeUnit.SECONDS).results();
+            assertEquals(SUBTASKS, results.size());
+            assertEquals(Integer.valueOf(SUBTASKS - 1), results.get(SUBTASKS - 1));
+        }
+        SmallTool.printTimeAndThread(SUBTASKS + " 个虚拟线程子任务耗时" + (System.currentTimeMillis() - start) + "ms");
+    }
+}